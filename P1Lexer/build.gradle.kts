@@ -16,4 +16,17 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+sourceSets {
+    create("benchmark") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+tasks.register<JavaExec>("benchmark") {
+    description = "Runs ParallelLexerBenchmark; pass the input size in megabytes with --args."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("plc.project.ParallelLexerBenchmark")
+}
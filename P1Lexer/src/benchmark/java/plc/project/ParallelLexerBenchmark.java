@@ -0,0 +1,66 @@
+package plc.project;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Prints the throughput of {@link ParallelLexer} for increasing parallelism,
+ * compared to {@link TableLexer}. Run it with {@code gradlew benchmark}, with
+ * the size of the generated source in megabytes as an optional argument
+ * (such as {@code --args=16}).
+ */
+final class ParallelLexerBenchmark {
+
+    private static final String[] LINES = {
+            "VAR counter: Integer = 0;",
+            "FUN fibonacci(n: Integer): Integer DO",
+            "    IF n <= 1 DO RETURN n; END",
+            "    RETURN fibonacci(n - 1) + fibonacci(n - 2);",
+            "    print(\"Hello, World!\\n\");",
+            "    LET ratio: Decimal = 3.14159 * radius ^ 2;",
+            "    WHILE counter != 10 && flag || 'c' == 'd' DO counter = counter + 1; END",
+            "END"
+    };
+
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        String input = generate(megabytes * 1024 * 1024);
+        System.out.printf("Input: %d characters%n", input.length());
+        report("TableLexer", input.length(), () -> new TableLexer(input).lex());
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int parallelism = 1; parallelism <= processors; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            report("ParallelLexer x" + parallelism, input.length(),
+                    () -> new ParallelLexer(input, pool, ParallelLexer.DEFAULT_CHUNK_SIZE).lex());
+            pool.shutdown();
+        }
+    }
+
+    private static String generate(int length) {
+        Random random = new Random(0);
+        StringBuilder builder = new StringBuilder(length + 128);
+        while (builder.length() < length) {
+            builder.append(LINES[random.nextInt(LINES.length)]).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Runs the lexer a few times to warm up, then prints the best of several
+     * runs in megabytes per second.
+     */
+    private static void report(String name, int length, java.util.function.Supplier<List<Token>> lexer) {
+        for (int i = 0; i < 3; i++) {
+            lexer.get();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            lexer.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-20s %8.1f MB/s%n", name, length / (best / 1e9) / (1024 * 1024));
+    }
+
+}
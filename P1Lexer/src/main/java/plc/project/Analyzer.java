@@ -2,6 +2,7 @@ package plc.project;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -17,11 +18,39 @@ public final class Analyzer implements Ast.Visitor<Void>
 
     public Scope scope;
     private Ast.Function function;
+    /**
+     * The steps left of the statements with blocks being visited, or null if
+     * there are none (see {@link #visitBlocks(Runnable)}).
+     */
+    private ArrayDeque<Runnable> steps = null;
+    private final SourceMap sourceMap;
 
     public Analyzer(Scope parent)
+    {
+        this(parent, null);
+    }
+
+    /**
+     * Creates an analyzer whose errors give the position of the statement
+     * (or global) they are thrown from through the given map of the source,
+     * as a {@link SourceException}.
+     */
+    public Analyzer(Scope parent, SourceMap sourceMap)
     {
         scope = new Scope(parent);
         scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
+        this.sourceMap = sourceMap;
+    }
+
+    /**
+     * Creates an analyzer for the body of the function, in the scope the
+     * function is defined in.
+     */
+    private Analyzer(Scope scope, Ast.Function function, SourceMap sourceMap)
+    {
+        this.scope = scope;
+        this.function = function;
+        this.sourceMap = sourceMap;
     }
 
     public Scope getScope() {
@@ -36,7 +65,7 @@ public final class Analyzer implements Ast.Visitor<Void>
         List<Ast.Global> globals = ast.getGlobals();
 
         for(int i = 0; i<globals.size(); i++){
-            visit(globals.get(i));
+            visitAt(globals.get(i));
         }
 
         //iterates through functions in the ast
@@ -53,7 +82,7 @@ public final class Analyzer implements Ast.Visitor<Void>
                     throw new RuntimeException("The main function must return am int");
             }
             //visit the current function
-            visit(function);
+            visitAt(function);
         }
 
         //throw error RuntimeException if main/0 function does not exist
@@ -117,8 +146,6 @@ public final class Analyzer implements Ast.Visitor<Void>
     @Override
     public Void visit(Ast.Function ast)
     {
-        this.function = ast;
-
         Environment.Type returnType = ast.getReturnTypeName()
                 .map(Environment::getType)
                 .orElse(Environment.Type.NIL);
@@ -132,8 +159,20 @@ public final class Analyzer implements Ast.Visitor<Void>
         Environment.Function function = scope.defineFunction(ast.getName(), ast.getName(), parameterTypes, returnType, args -> Environment.NIL);
         ast.setFunction(function);
 
+        //a lazy body is only analyzed when it is first read (such as by a call),
+        //so the bodies which are never used are not parsed either
+        Scope definition = scope;
+        ast.analyze(statements -> new Analyzer(definition, ast, sourceMap).visitBody(statements));
 
+        return null;
+    }
 
+    /**
+     * Analyzes the statements of the body of {@link #function} in a scope of
+     * its own, and then resolves its variables.
+     */
+    private void visitBody(List<Ast.Statement> statements)
+    {
         Scope functionScope = new Scope(scope);
         scope = functionScope;
 
@@ -153,13 +192,13 @@ public final class Analyzer implements Ast.Visitor<Void>
 
 
 
-        for (Ast.Statement statement : ast.getStatements())
-            visit(statement);
+        for (Ast.Statement statement : statements)
+            visitAt(statement);
 
-        scope = scope.getParent();
-        this.function = null;
+        //give the variables of the body their slots now, so running it does not write to the tree
+        Resolver.resolve(function, statements);
 
-        return null;
+        scope = scope.getParent();
     }
 
 
@@ -252,8 +291,7 @@ public final class Analyzer implements Ast.Visitor<Void>
         if (!condition.getType().equals(Environment.Type.BOOLEAN))
             throw new RuntimeException("While loop condition must evaluate to a boolean");
 
-        for (Ast.Statement statement : ast.getStatements())
-            visit(statement);
+        visitBlocks(() -> push(ast.getStatements()));
 
         return null;
     }
@@ -293,6 +331,20 @@ public final class Analyzer implements Ast.Visitor<Void>
     @Override
     public Void visit(Ast.Expression.Literal ast)
     {
+        if (ast.isCompactInteger())
+        {
+            long value = ast.getLongValue();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+                throw new RuntimeException("Integer value out of range for 32-bit signed integer");
+            ast.setType(Environment.Type.INTEGER);
+            return null;
+        }
+        else if (ast.isCompactDecimal())
+        {
+            ast.setType(Environment.Type.DECIMAL);
+            return null;
+        }
+
         Object literal = ast.getLiteral();
 
         if (literal instanceof Boolean)
@@ -342,16 +394,7 @@ public final class Analyzer implements Ast.Visitor<Void>
     @Override
     public Void visit(Ast.Expression.Group ast)
     {
-        Ast.Expression expression = ast.getExpression();
-        //check expression
-        if (!(expression instanceof Ast.Expression.Binary))
-            //throw if not binary
-            throw new RuntimeException("Group expression must have a binary expression");
-        visit(expression);
-
-        //make the group expressions type to be the type of the contained expression
-        ast.setType(expression.getType());
-
+        visitNested(ast);
         return null;
     }
 
@@ -359,11 +402,102 @@ public final class Analyzer implements Ast.Visitor<Void>
     @Override
     public Void visit(Ast.Expression.Binary ast)
     {
-        //System.out.println("Visiting binary expression with operator: " + ast.getOperator());
+        visitNested(ast);
+        return null;
+    }
 
-        visit(ast.getLeft());
-        visit(ast.getRight());
+    /**
+     * Visits nested groups, binary expressions, calls and indices in the same
+     * order as recursive visits would, but with an explicit stack so deep
+     * nesting is limited by the heap rather than the thread's stack. Each
+     * node is pushed once to visit its operands and again to check it after
+     * them, with the function it calls for a call.
+     */
+    private void visitNested(Ast.Expression root)
+    {
+        ArrayDeque<Ast.Expression> stack = new ArrayDeque<>();
+        ArrayDeque<Object> visited = new ArrayDeque<>();
+        stack.push(root);
+        visited.push(false);
+        while (!stack.isEmpty())
+        {
+            Ast.Expression ast = stack.pop();
+            Object state = visited.pop();
+            boolean operands = state != Boolean.FALSE;
+            if (ast instanceof Ast.Expression.Group)
+            {
+                Ast.Expression expression = ((Ast.Expression.Group) ast).getExpression();
+                if (operands)
+                {
+                    //make the group expressions type to be the type of the contained expression
+                    ((Ast.Expression.Group) ast).setType(expression.getType());
+                    continue;
+                }
+                //check expression
+                if (!(expression instanceof Ast.Expression.Binary))
+                    //throw if not binary
+                    throw new RuntimeException("Group expression must have a binary expression");
+                stack.push(ast);
+                visited.push(true);
+                stack.push(expression);
+                visited.push(false);
+            }
+            else if (ast instanceof Ast.Expression.Binary)
+            {
+                Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+                if (operands)
+                {
+                    checkBinary(binary);
+                    continue;
+                }
+                stack.push(binary);
+                visited.push(true);
+                stack.push(binary.getRight());
+                visited.push(false);
+                stack.push(binary.getLeft());
+                visited.push(false);
+            }
+            else if (ast instanceof Ast.Expression.Function)
+            {
+                Ast.Expression.Function function = (Ast.Expression.Function) ast;
+                if (operands)
+                {
+                    function.setFunction((Environment.Function) state);
+                    continue;
+                }
+                Environment.Function x = scope.lookupFunction(function.getName(), function.getArguments().size());
+                stack.push(function);
+                visited.push(x);
+                List<Ast.Expression> args = function.getArguments();
+                for (int i = args.size() - 1; i >= 0; i--)
+                {
+                    stack.push(args.get(i));
+                    visited.push(false);
+                }
+            }
+            else if (ast instanceof Ast.Expression.Access && ((Ast.Expression.Access) ast).getOffset().isPresent())
+            {
+                Ast.Expression.Access access = (Ast.Expression.Access) ast;
+                if (operands)
+                {
+                    checkIndex(access);
+                    continue;
+                }
+                stack.push(access);
+                visited.push(true);
+                stack.push(access.getOffset().get());
+                visited.push(false);
+            }
+            else
+                visit(ast);
+        }
+    }
 
+    /**
+     * Sets the type of a binary expression whose operands have been visited.
+     */
+    private void checkBinary(Ast.Expression.Binary ast)
+    {
         Environment.Type leftType = ast.getLeft().getType();
         Environment.Type rightType = ast.getRight().getType();
         String operator = ast.getOperator();
@@ -441,7 +575,6 @@ public final class Analyzer implements Ast.Visitor<Void>
             default:
                 throw new RuntimeException("Unsupported binary operator: " + ast.getOperator());
         }
-        return null;
     }
 
 
@@ -456,18 +589,7 @@ public final class Analyzer implements Ast.Visitor<Void>
         // if an offset, check if the access is to a variable or an element in a list
         if (ast.getOffset().isPresent())
         {
-            Ast.Expression offset = ast.getOffset().get();
-            visit(offset);
-            if (!offset.getType().equals(Environment.Type.INTEGER))
-                //throw it not int
-                throw new RuntimeException("List index must be an int");
-
-            //get var accessed type if in list
-            Environment.Variable variable = scope.lookupVariable(ast.getName());
-            if (variable == null)
-                //throw if var is not defined
-                throw new RuntimeException("Variable " + ast.getName() + " is not defined.");
-            ast.setVariable(variable);
+            visitNested(ast);
         }
         else
         {
@@ -481,6 +603,24 @@ public final class Analyzer implements Ast.Visitor<Void>
     }
 
 
+    /**
+     * Checks an access with an offset whose offset has been visited.
+     */
+    private void checkIndex(Ast.Expression.Access ast)
+    {
+        Ast.Expression offset = ast.getOffset().get();
+        if (!offset.getType().equals(Environment.Type.INTEGER))
+            //throw it not int
+            throw new RuntimeException("List index must be an int");
+
+        //get var accessed type if in list
+        Environment.Variable variable = scope.lookupVariable(ast.getName());
+        if (variable == null)
+            //throw if var is not defined
+            throw new RuntimeException("Variable " + ast.getName() + " is not defined.");
+        ast.setVariable(variable);
+    }
+
     @Override
     public Void visit(Ast.Expression.PlcList ast)
 
@@ -594,39 +734,17 @@ public final class Analyzer implements Ast.Visitor<Void>
         List<Ast.Statement> thenstatements = ast.getThenStatements();
         if(thenstatements.size() == 0)
             throw new java.lang.RuntimeException();
-        else
-        {
-            try
-            {
-                scope = new Scope(scope);
-                for (int i = 0; i < thenstatements.size(); i++)
-                {
-                    Ast thens = thenstatements.get(i);
-                    visit(thens);
-                }
-            }
-            finally
-            {
-                scope = origScope;
-            }
-        }
 
+        //each block is visited in a scope of its own
         List<Ast.Statement> elsestatements = ast.getElseStatements();
-
-        try
-        {
+        visitBlocks(() -> {
+            steps.push(() -> scope = origScope);
+            push(elsestatements);
+            steps.push(() -> scope = new Scope(origScope));
+            steps.push(() -> scope = origScope);
+            push(thenstatements);
             scope = new Scope(scope);
-            for (int i = 0; i < elsestatements.size(); i++)
-            {
-                Ast elses = elsestatements.get(i);
-                visit(elses);
-            }
-        }
-
-        finally
-        {
-            scope = origScope;
-        }
+        });
 
         return null;
 
@@ -674,37 +792,46 @@ public final class Analyzer implements Ast.Visitor<Void>
             }
         }
 
-        for(int i = 0; i<cases.size(); i++) {
-            if(i != cases.size()-1) {
-                Ast.Expression.Literal y = (Ast.Expression.Literal) cases.get(i).getValue().get();
-                String classtype = y.getLiteral().getClass().toString();
-                if (!matchesSimpleClassName(classtype, t)) {
-                    throw new RuntimeException("Condition Type did not match with Case value type at index: " + i);
-                }
+        String type = t;
+        visitBlocks(() -> {
+            for (int i = cases.size() - 1; i >= 0; i--) {
+                int index = i;
+                steps.push(() -> scope = origScope);
+                steps.push(() -> visitCase(cases, index, type));
             }
-            else{
-                try{
-                    Ast.Expression.Literal y = (Ast.Expression.Literal) cases.get(i).getValue().get();
-                    throw new RuntimeException("Value should not exist at Default case statement");
-                }
-                catch (NoSuchElementException e){
+        });
 
-                }
+        return null;
+    }
 
+    /**
+     * Checks the value of a case of a switch against the type of its
+     * condition, and visits the case in a scope of its own.
+     */
+    private void visitCase(List<Ast.Statement.Case> cases, int i, String t)
+    {
+        if(i != cases.size()-1) {
+            Ast.Expression.Literal y = (Ast.Expression.Literal) cases.get(i).getValue().get();
+            String classtype = y.getLiteral().getClass().toString();
+            if (!matchesSimpleClassName(classtype, t)) {
+                throw new RuntimeException("Condition Type did not match with Case value type at index: " + i);
             }
-            try {
-                scope = new Scope(scope);
-                visit(cases.get(i));
-            }
-            finally {
-                scope = origScope;
+        }
+        else{
+            try{
+                Ast.Expression.Literal y = (Ast.Expression.Literal) cases.get(i).getValue().get();
+                throw new RuntimeException("Value should not exist at Default case statement");
             }
+            catch (NoSuchElementException e){
 
+            }
 
-            //System.out.println("classtype");
         }
+        scope = new Scope(scope);
+        visit(cases.get(i));
 
-        return null;
+
+        //System.out.println("classtype");
     }
 
 
@@ -716,28 +843,84 @@ public final class Analyzer implements Ast.Visitor<Void>
         }
         catch (NoSuchElementException e){
         }
-        for (int i = 0; i< statements.size(); i++){
-            Ast.Statement stat = statements.get(i);
-            visit(stat);
-        }
+        visitBlocks(() -> push(statements));
         return null;
     }
 
+    /**
+     * Runs the visit of a statement with blocks, which pushes the steps of
+     * its blocks (see {@link #push(List)}) rather than visiting them.
+     * Statements with blocks within those push their own steps in turn, and
+     * the outermost visit runs the steps until there are none left, so deeply
+     * nested blocks are limited by the heap rather than the thread's stack.
+     * The statements are visited in the same order as by recursion.
+     */
+    private void visitBlocks(Runnable visit)
+    {
+        if (steps != null)
+        {
+            visit.run();
+            return;
+        }
+        Scope origScope = scope;
+        steps = new ArrayDeque<>();
+        try
+        {
+            visit.run();
+            while (!steps.isEmpty())
+                steps.pop().run();
+        }
+        finally
+        {
+            steps = null;
+            scope = origScope;
+        }
+    }
 
-    @Override
-    public Void visit(Ast.Expression.Function ast) {
+    /**
+     * Pushes the steps visiting the statements, so they run in order before
+     * the steps pushed earlier.
+     */
+    private void push(List<Ast.Statement> statements)
+    {
+        for (int i = statements.size() - 1; i >= 0; i--)
+        {
+            Ast.Statement statement = statements.get(i);
+            steps.push(() -> visitAt(statement));
+        }
+    }
 
-        Environment.Function x = scope.lookupFunction(ast.getName(), ast.getArguments().size());
-        List<Environment.Type> types = x.getParameterTypes();
-        List<Ast.Expression> args = ast.getArguments();
-        for(int i = 0; i< args.size(); i++){
-            visit(args.get(i));
+    /**
+     * Visits the node, and when the source map is known gives an error
+     * thrown from it the position of the node, unless a node within it has
+     * already done so.
+     */
+    private void visitAt(Ast ast)
+    {
+        if (sourceMap == null || ast.getStart() < 0)
+        {
+            visit(ast);
+            return;
+        }
+        try
+        {
+            visit(ast);
         }
-        //Environment.Type acc = ast.getArguments().get(0).getType();
-        ast.setFunction(x);
-        //System.out.println(ast.toString());
+        catch (SourceException e)
+        {
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            throw new SourceException(sourceMap.format(ast.getStart()) + ": " + e.getMessage(), ast.getStart(), e);
+        }
+    }
 
 
+    @Override
+    public Void visit(Ast.Expression.Function ast) {
+        //the arguments are visited before the function is set, without recursing
+        visitNested(ast);
         return null;
     }
 
@@ -1,9 +1,14 @@
 package plc.project;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * See the Parser assignment specification for specific notes on each AST class
@@ -11,10 +16,58 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    /**
+     * Whether the node belongs to a {@link FrozenAst}, whose annotations can
+     * no longer be set.
+     */
+    boolean frozen = false;
+
+    /**
+     * The offset in the source of the first token of the node, or -1 if it is
+     * unknown. It is not part of {@link #equals}, so nodes parsed from the
+     * same tokens at different places are still equal.
+     */
+    private int start = -1;
+
+    void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("The tree is frozen.");
+        }
+    }
+
+    /**
+     * Marks the node as part of a {@link FrozenAst}. Nodes with lists replace
+     * them with unmodifiable views, so the tree can no longer be changed.
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * Returns the offset in the source of the first token of the node, which
+     * {@link SourceMap#format(int)} turns into a position, or -1 if the node
+     * was not created by the {@link Parser} (such as a node materialized from
+     * a {@link FlatAst}).
+     */
+    public int getStart() {
+        return start;
+    }
+
+    void setStart(int start) {
+        checkMutable();
+        this.start = start;
+    }
+
+    /**
+     * Calls the method of the visitor for the class of this node, so
+     * {@link Visitor#visit(Ast)} dispatches with a single virtual call.
+     */
+    public abstract <T> T accept(Visitor<T> visitor);
+
     public static final class Source extends Ast {
 
-        private final List<Global> globals;
-        private final List<Ast.Function> functions;
+        private List<Global> globals;
+        private List<Ast.Function> functions;
 
         public Source(List<Global> globals, List<Ast.Function> functions) {
             this.globals = globals;
@@ -29,6 +82,18 @@ public abstract class Ast {
             return functions;
         }
 
+        @Override
+        void freeze() {
+            super.freeze();
+            globals = Collections.unmodifiableList(globals);
+            functions = Collections.unmodifiableList(functions);
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Source &&
@@ -90,10 +155,16 @@ public abstract class Ast {
         }
 
         public void setVariable(Environment.Variable variable) {
+            checkMutable();
             this.variable = variable;
         }
 
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Global &&
@@ -120,11 +191,15 @@ public abstract class Ast {
     public static final class Function extends Ast {
 
         private final String name;
-        private final List<String> parameters;
-        private final List<String> parameterTypeNames;
+        private List<String> parameters;
+        private List<String> parameterTypeNames;
         private final Optional<String> returnTypeName;
-        private final List<Statement> statements;
+        private volatile List<Statement> statements;
+        private Supplier<List<Statement>> body;
+        private Consumer<List<Statement>> analysis = null;
         private Environment.Function function = null;
+        private int frameSize = -1;
+        private List<String> globalNames = null;
         
         public Function(String name, List<String> parameters, List<Statement> statements) {
             this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
@@ -142,6 +217,31 @@ public abstract class Ast {
             this.statements = statements;
         }
 
+        /**
+         * Creates a function whose statements are only created by the body the
+         * first time they are requested, as with {@link #Function(String, List, List)}.
+         */
+        public Function(String name, List<String> parameters, Supplier<List<Statement>> body) {
+            this(name, parameters, new ArrayList<>(), Optional.of("Any"), body);
+            for (int i = 0; i < parameters.size(); i++) {
+                parameterTypeNames.add("Any");
+            }
+        }
+
+        /**
+         * Creates a function whose statements are only created by the body the
+         * first time they are requested. If the body throws, it is tried again
+         * on the next request.
+         */
+        public Function(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, Supplier<List<Statement>> body) {
+
+            this.name = name;
+            this.parameters = parameters;
+            this.parameterTypeNames = parameterTypeNames;
+            this.returnTypeName = returnTypeName;
+            this.body = body;
+        }
+
         public String getName() {
             return name;
         }
@@ -159,9 +259,50 @@ public abstract class Ast {
         }
 
         public List<Statement> getStatements() {
+            List<Statement> statements = this.statements;
+            if (statements == null) {
+                synchronized (this) {
+                    if (this.statements == null) {
+                        //the statements are only published once they are analyzed
+                        List<Statement> parsed = body.get();
+                        if (analysis != null) {
+                            analysis.accept(parsed);
+                        }
+                        this.statements = parsed;
+                        body = null;
+                        analysis = null;
+                    }
+                    statements = this.statements;
+                }
+            }
             return statements;
         }
 
+        /**
+         * Returns true if the statements have been created, which is always the
+         * case unless the function was created with a lazy body.
+         */
+        public boolean isParsed() {
+            return statements != null;
+        }
+
+        /**
+         * Analyzes the statements, right away if they have been created or
+         * else when they are first requested, before any caller sees them. If
+         * the analysis throws, the body is parsed and analyzed again on the
+         * next request. A later analysis replaces one which has not run yet.
+         */
+        void analyze(Consumer<List<Statement>> analysis) {
+            synchronized (this) {
+                if (statements == null) {
+                    checkMutable();
+                    this.analysis = analysis;
+                    return;
+                }
+            }
+            analysis.accept(statements);
+        }
+
         public Environment.Function getFunction() {
             if (function == null) {
                 throw new IllegalStateException("function is uninitialized");
@@ -170,9 +311,64 @@ public abstract class Ast {
         }
 
         public void setFunction(Environment.Function function) {
+            checkMutable();
             this.function = function;
         }
 
+        /**
+         * Returns true if the {@link Resolver} has given each local of the
+         * function a slot in its frame.
+         */
+        public boolean isResolved() {
+            return frameSize >= 0;
+        }
+
+        /**
+         * Returns the number of slots in a frame of the function.
+         */
+        public int getFrameSize() {
+            if (frameSize < 0) {
+                throw new IllegalStateException("frame is unresolved");
+            }
+            return frameSize;
+        }
+
+        /**
+         * Returns the names of the variables the function uses which are not
+         * its own locals, indexed by the slot of an {@link Expression.Access}
+         * with depth 1.
+         */
+        public List<String> getGlobalNames() {
+            if (globalNames == null) {
+                throw new IllegalStateException("frame is unresolved");
+            }
+            return globalNames;
+        }
+
+        public void setFrame(int frameSize, List<String> globalNames) {
+            checkMutable();
+            this.frameSize = frameSize;
+            this.globalNames = globalNames;
+        }
+
+        @Override
+        void freeze() {
+            //a lazy body is parsed and analyzed before the function is frozen
+            List<Statement> statements = getStatements();
+            super.freeze();
+            parameters = Collections.unmodifiableList(parameters);
+            parameterTypeNames = Collections.unmodifiableList(parameterTypeNames);
+            this.statements = Collections.unmodifiableList(statements);
+            if (globalNames != null) {
+                globalNames = Collections.unmodifiableList(globalNames);
+            }
+        }
+
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
 
         @Override
         public boolean equals(Object obj) {
@@ -181,7 +377,7 @@ public abstract class Ast {
                     parameters.equals(((Ast.Function) obj).parameters) &&
                     parameterTypeNames.equals(((Ast.Function) obj).parameterTypeNames) &&
                     returnTypeName.equals(((Ast.Function) obj).returnTypeName) &&
-                    statements.equals(((Ast.Function) obj).statements) &&
+                    getStatements().equals(((Ast.Function) obj).getStatements()) &&
                     Objects.equals(function, ((Ast.Function) obj).function);
         }
 
@@ -193,7 +389,7 @@ public abstract class Ast {
                     ", parameters=" + parameters +
                     ", parameterTypeNames=" + parameterTypeNames +
                     ", returnTypeName='" + returnTypeName + '\'' +
-                    ", statements=" + statements +
+                    ", statements=" + getStatements() +
                     ", function=" + function +
                     '}';
         }
@@ -214,6 +410,11 @@ public abstract class Ast {
                 return expression;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Statement.Expression &&
@@ -235,6 +436,7 @@ public abstract class Ast {
             private final Optional<String> typeName;
             private Optional<Ast.Expression> value;
             private Environment.Variable variable = null;
+            private int slot = -1;
 
             public Declaration(String name, Optional<Ast.Expression> value) {
                 this(name, Optional.empty(), value);
@@ -266,10 +468,29 @@ public abstract class Ast {
             }
 
             public void setVariable(Environment.Variable variable) {
+                checkMutable();
                 this.variable = variable;
             }
+
+            /**
+             * Returns the slot of the variable in the frame of its function,
+             * or -1 if it is not resolved or is already defined in its block.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
+            public void setSlot(int slot) {
+                checkMutable();
+                this.slot = slot;
+            }
             
             
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Declaration &&
@@ -309,6 +530,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Assignment &&
@@ -329,8 +555,8 @@ public abstract class Ast {
         public static final class If extends Statement {
 
             private final Ast.Expression condition;
-            private final List<Statement> thenStatements;
-            private final List<Statement> elseStatements;
+            private List<Statement> thenStatements;
+            private List<Statement> elseStatements;
 
 
             public If(Ast.Expression condition, List<Statement> thenStatements, List<Statement> elseStatements) {
@@ -351,6 +577,18 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            @Override
+            void freeze() {
+                super.freeze();
+                thenStatements = Collections.unmodifiableList(thenStatements);
+                elseStatements = Collections.unmodifiableList(elseStatements);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof If &&
@@ -373,7 +611,8 @@ public abstract class Ast {
         public static final class Switch extends Statement {
 
             private final Ast.Expression condition;
-            private final List<Ast.Statement.Case> cases;
+            private List<Ast.Statement.Case> cases;
+            private int slot = -1;
 
             public Switch(Ast.Expression condition, List<Ast.Statement.Case> cases) {
                 this.condition = condition;
@@ -386,6 +625,30 @@ public abstract class Ast {
 
             public List<Ast.Statement.Case> getCases() { return cases; }
 
+            @Override
+            void freeze() {
+                super.freeze();
+                cases = Collections.unmodifiableList(cases);
+            }
+
+            /**
+             * Returns the slot of the hidden {@code condition} variable in the
+             * frame of its function, or -1 if it is not resolved.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
+            public void setSlot(int slot) {
+                checkMutable();
+                this.slot = slot;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Switch &&
@@ -406,7 +669,7 @@ public abstract class Ast {
         public static final class Case extends Statement {
 
             private final Optional<Ast.Expression> value;
-            private final List<Statement> statements;
+            private List<Statement> statements;
 
             public Case(Optional<Ast.Expression> value, List<Statement> statements) {
                 this.value = value;
@@ -421,6 +684,17 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            void freeze() {
+                super.freeze();
+                statements = Collections.unmodifiableList(statements);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Case &&
@@ -441,7 +715,7 @@ public abstract class Ast {
         public static final class While extends Statement {
 
             private final Ast.Expression condition;
-            private final List<Statement> statements;
+            private List<Statement> statements;
 
             public While(Ast.Expression condition, List<Statement> statements) {
                 this.condition = condition;
@@ -456,6 +730,17 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            void freeze() {
+                super.freeze();
+                statements = Collections.unmodifiableList(statements);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof While &&
@@ -485,6 +770,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Return &&
@@ -508,17 +798,101 @@ public abstract class Ast {
 
         public static final class Literal extends Ast.Expression {
 
-            private final Object literal;
+            private static final int OBJECT = 0;
+            private static final int INTEGER = 1;
+            private static final int DECIMAL = 2;
+
+            private Object literal;
             private Environment.Type type = null;
-            
+
+            /**
+             * The compact form of numeric literals which fit in a long, from
+             * which {@link #literal} is created the first time it is needed.
+             * Decimals are stored as an unscaled value and scale, as with
+             * {@link BigDecimal#valueOf(long, int)}.
+             */
+            private final int form;
+            private final long unscaled;
+            private final int scale;
+
             public Literal(Object literal) {
                 this.literal = literal;
+                this.form = OBJECT;
+                this.unscaled = 0;
+                this.scale = 0;
             }
 
+            private Literal(int form, long unscaled, int scale) {
+                this.form = form;
+                this.unscaled = unscaled;
+                this.scale = scale;
+            }
+
+            /**
+             * Creates an integer literal in compact form, equal to a literal of
+             * {@code BigInteger.valueOf(value)}.
+             */
+            public static Literal integer(long value) {
+                return new Literal(INTEGER, value, 0);
+            }
+
+            /**
+             * Creates a decimal literal in compact form, equal to a literal of
+             * {@code BigDecimal.valueOf(unscaled, scale)}.
+             */
+            public static Literal decimal(long unscaled, int scale) {
+                return new Literal(DECIMAL, unscaled, scale);
+            }
+
+            /**
+             * Returns the value, creating it from the compact form on the
+             * first call. {@link FrozenAst#freeze(Ast.Source)} makes that call
+             * before the tree is shared, so a frozen literal is never written.
+             */
             public Object getLiteral() {
+                if (literal == null && form != OBJECT) {
+                    literal = form == INTEGER ? BigInteger.valueOf(unscaled) : BigDecimal.valueOf(unscaled, scale);
+                }
                 return literal;
             }
 
+            /**
+             * Returns true if this is an integer literal in compact form, whose
+             * value is given by {@link #getLongValue()}.
+             */
+            public boolean isCompactInteger() {
+                return form == INTEGER;
+            }
+
+            /**
+             * Returns true if this is a decimal literal in compact form.
+             */
+            public boolean isCompactDecimal() {
+                return form == DECIMAL;
+            }
+
+            /**
+             * Returns the value of a compact integer, or the unscaled value of a
+             * compact decimal.
+             */
+            public long getLongValue() {
+                if (form == OBJECT) {
+                    throw new IllegalStateException("literal is not compact");
+                }
+                return unscaled;
+            }
+
+            /**
+             * Returns the scale of a compact decimal, or 0 for a compact
+             * integer.
+             */
+            public int getScale() {
+                if (form == OBJECT) {
+                    throw new IllegalStateException("literal is not compact");
+                }
+                return scale;
+            }
+
             @Override
             public Environment.Type getType() {
                 if (type == null) {
@@ -528,22 +902,28 @@ public abstract class Ast {
             }
 
             public void setType(Environment.Type type) {
+                checkMutable();
                 this.type = type;
             }
 
 
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Literal &&
-                        Objects.equals(literal, ((Literal) obj).literal) &&
+                        Objects.equals(getLiteral(), ((Literal) obj).getLiteral()) &&
                         Objects.equals(type, ((Literal) obj).type);
             }
 
             @Override
             public String toString() {
                 return "Ast.Expression.Literal{" +
-                        "literal=" + literal +
+                        "literal=" + getLiteral() +
                         ", type=" + type +
                         '}';
             }
@@ -572,10 +952,16 @@ public abstract class Ast {
             }
 
             public void setType(Environment.Type type) {
+                checkMutable();
                 this.type = type;
             }
 
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Group &&
@@ -628,9 +1014,15 @@ public abstract class Ast {
             }
 
             public void setType(Environment.Type type) {
+                checkMutable();
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Binary &&
@@ -658,6 +1050,8 @@ public abstract class Ast {
             private final Optional<Ast.Expression> offset;
             private final String name;
             private Environment.Variable variable = null;
+            private int depth = -1;
+            private int slot = -1;
 
             public Access(Optional<Ast.Expression> offset, String name) {
                 this.offset = offset;
@@ -680,14 +1074,43 @@ public abstract class Ast {
             }
 
             public void setVariable(Environment.Variable variable) {
+                checkMutable();
                 this.variable = variable;
             }
 
+            /**
+             * Returns where the variable is found within a function: 0 for a
+             * local in the frame of the function, or 1 for a variable of the
+             * scope the function is defined in (see
+             * {@link Ast.Function#getGlobalNames()}). -1 if it is unresolved.
+             */
+            public int getDepth() {
+                return depth;
+            }
+
+            /**
+             * Returns the index of the variable at its depth.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
+            public void setSlot(int depth, int slot) {
+                checkMutable();
+                this.depth = depth;
+                this.slot = slot;
+            }
+
             @Override
             public Environment.Type getType() {
                 return getVariable().getType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Access &&
@@ -711,7 +1134,7 @@ public abstract class Ast {
         public static final class Function extends Ast.Expression {
 
             private final String name;
-            private final List<Ast.Expression> arguments;
+            private List<Ast.Expression> arguments;
             private Environment.Function function = null;
 
             public Function(String name, List<Ast.Expression> arguments) {
@@ -727,6 +1150,12 @@ public abstract class Ast {
                 return arguments;
             }
 
+            @Override
+            void freeze() {
+                super.freeze();
+                arguments = Collections.unmodifiableList(arguments);
+            }
+
             public Environment.Function getFunction() {
                 if (function == null) {
                     throw new IllegalStateException("function is uninitialized");
@@ -735,6 +1164,7 @@ public abstract class Ast {
             }
 
             public void setFunction(Environment.Function function) {
+                checkMutable();
                 this.function = function;
             }
 
@@ -743,6 +1173,11 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Expression.Function &&
@@ -764,7 +1199,7 @@ public abstract class Ast {
 
         public static final class PlcList extends Ast.Expression {
 
-            private final List<Ast.Expression> values;
+            private List<Ast.Expression> values;
             private Environment.Type type = null;
 
 
@@ -776,6 +1211,12 @@ public abstract class Ast {
                 return values;
             }
 
+            @Override
+            void freeze() {
+                super.freeze();
+                values = Collections.unmodifiableList(values);
+            }
+
             @Override
             public Environment.Type getType() {
                 if (type == null) {
@@ -785,9 +1226,15 @@ public abstract class Ast {
             }
 
             public void setType(Environment.Type type) {
+                checkMutable();
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Expression.PlcList &&
@@ -810,43 +1257,7 @@ public abstract class Ast {
     public interface Visitor<T> {
 
         default T visit(Ast ast) {
-            if (ast instanceof Ast.Source) {
-                return visit((Ast.Source) ast);
-            } else if (ast instanceof Ast.Global) {
-                return visit((Ast.Global) ast);
-            } else if (ast instanceof Ast.Function) {
-                return visit((Ast.Function) ast);
-            } else if (ast instanceof Ast.Statement.Expression) {
-                return visit((Ast.Statement.Expression) ast);
-            } else if (ast instanceof Ast.Statement.Declaration) {
-                return visit((Ast.Statement.Declaration) ast);
-            } else if (ast instanceof Ast.Statement.Assignment) {
-                return visit((Ast.Statement.Assignment) ast);
-            } else if (ast instanceof Ast.Statement.If) {
-                return visit((Ast.Statement.If) ast);
-            } else if (ast instanceof Ast.Statement.Switch) {
-                return visit((Ast.Statement.Switch) ast);
-            } else if (ast instanceof Ast.Statement.Case) {
-                return visit((Ast.Statement.Case) ast);
-            } else if (ast instanceof Ast.Statement.While) {
-                return visit((Ast.Statement.While) ast);
-            } else if (ast instanceof Ast.Statement.Return) {
-                return visit((Ast.Statement.Return) ast);
-            } else if (ast instanceof Ast.Expression.Literal) {
-                return visit((Ast.Expression.Literal) ast);
-            } else if (ast instanceof Ast.Expression.Group) {
-                return visit((Ast.Expression.Group) ast);
-            } else if (ast instanceof Ast.Expression.Binary) {
-                return visit((Ast.Expression.Binary) ast);
-            } else if (ast instanceof Ast.Expression.Access) {
-                return visit((Ast.Expression.Access) ast);
-            } else if (ast instanceof Ast.Expression.Function) {
-                return visit((Ast.Expression.Function) ast);
-            } else if (ast instanceof Ast.Expression.PlcList) {
-                return visit((Ast.Expression.PlcList) ast);
-            } else {
-                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
-            }
+            return ast.accept(this);
         }
 
         T visit(Ast.Source ast);
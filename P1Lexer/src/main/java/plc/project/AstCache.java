@@ -0,0 +1,308 @@
+package plc.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A directory of analyzed sources, so that unchanged sources do not have to
+ * be lexed, parsed and analyzed again.
+ *
+ * Each entry is a file named by the SHA-256 hash of the compiler version and
+ * the source, holding the {@link FlatAst} of the source followed by its
+ * annotations: the {@link Environment.Type}s of expressions and the
+ * {@link Environment.Variable}s and {@link Environment.Function}s of
+ * declarations and references. An entry is read with a single read of the
+ * file, and its arrays are decoded in bulk.
+ *
+ * Types are stored by name and must be registered with the
+ * {@link Environment}. Loaded variables always have the value
+ * {@link Environment#NIL}, and loaded functions return
+ * {@link Environment#NIL} when invoked, as with the ones defined by the
+ * {@link Analyzer}. Variables and functions shared by several nodes are
+ * still shared after loading.
+ *
+ * Entries are written to a temporary file and then moved into place, so
+ * several processes can share a directory. A file which cannot be read, or
+ * which was written with another format or compiler version, is treated as a
+ * miss.
+ */
+public final class AstCache {
+
+    /**
+     * The version of the compiler, which is part of the key of every entry so
+     * that changes to the parser or analyzer do not reuse stale entries.
+     */
+    public static final String COMPILER_VERSION = "1.0";
+
+    private static final int MAGIC = 0x504C4341;
+    private static final int FORMAT = 1;
+
+    private final Path directory;
+    private final String version;
+
+    public AstCache(Path directory) {
+        this(directory, COMPILER_VERSION);
+    }
+
+    public AstCache(Path directory, String version) {
+        this.directory = directory;
+        this.version = version;
+    }
+
+    /**
+     * Returns the analyzed source cached for the given source, if any.
+     */
+    public Optional<Ast.Source> load(String source) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path(source));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(decode(bytes));
+        } catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Caches the given analyzed source for the source it was created from.
+     */
+    public void store(String source, Ast.Source ast) throws IOException {
+        byte[] bytes = encode(ast);
+        Files.createDirectories(directory);
+        Path path = path(source);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, bytes);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Returns the path of the entry for the given source.
+     */
+    Path path(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(version.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return directory.resolve(name.append(".ast").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private byte[] encode(Ast.Source source) throws IOException {
+        List<Ast> nodes = new ArrayList<>();
+        FlatAst ast = FlatAst.of(source, nodes);
+        Table<Environment.Type> types = new Table<>();
+        Table<Environment.Variable> variables = new Table<>();
+        Table<Environment.Function> functions = new Table<>();
+        int[] annotations = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            Ast node = nodes.get(i);
+            if (node instanceof Ast.Global || node instanceof Ast.Statement.Declaration || node instanceof Ast.Expression.Access) {
+                annotations[i] = variables.id(variable(node));
+            } else if (node instanceof Ast.Function || node instanceof Ast.Expression.Function) {
+                annotations[i] = functions.id(function(node));
+            } else if (node instanceof Ast.Expression) {
+                annotations[i] = types.id(type((Ast.Expression) node));
+            } else {
+                annotations[i] = -1;
+            }
+        }
+        for (Environment.Variable variable : variables.values) {
+            types.id(variable.getType());
+        }
+        for (Environment.Function function : functions.values) {
+            function.getParameterTypes().forEach(types::id);
+            types.id(function.getReturnType());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        FlatAst.writeString(out, version);
+        ast.write(out);
+        out.writeInt(types.values.size());
+        for (Environment.Type type : types.values) {
+            if (Environment.getType(type.getName()) != type) {
+                throw new IllegalArgumentException("The type " + type.getName() + " is not registered.");
+            }
+            FlatAst.writeString(out, type.getName());
+        }
+        out.writeInt(variables.values.size());
+        for (Environment.Variable variable : variables.values) {
+            FlatAst.writeString(out, variable.getName());
+            FlatAst.writeString(out, variable.getJvmName());
+            out.writeInt(types.id(variable.getType()));
+            out.writeBoolean(variable.getMutable());
+        }
+        out.writeInt(functions.values.size());
+        for (Environment.Function function : functions.values) {
+            FlatAst.writeString(out, function.getName());
+            FlatAst.writeString(out, function.getJvmName());
+            out.writeInt(function.getParameterTypes().size());
+            for (Environment.Type type : function.getParameterTypes()) {
+                out.writeInt(types.id(type));
+            }
+            out.writeInt(types.id(function.getReturnType()));
+        }
+        FlatAst.writeInts(out, annotations, annotations.length);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private Ast.Source decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT || !FlatAst.readString(in).equals(version)) {
+            return null;
+        }
+        FlatAst ast = FlatAst.read(in);
+        Environment.Type[] types = new Environment.Type[FlatAst.readLength(in, 4)];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = Environment.getType(FlatAst.readString(in));
+        }
+        //a variable takes two strings, a type and a boolean, at least 13 bytes
+        Environment.Variable[] variables = new Environment.Variable[FlatAst.readLength(in, 13)];
+        for (int i = 0; i < variables.length; i++) {
+            String name = FlatAst.readString(in);
+            String jvmName = FlatAst.readString(in);
+            variables[i] = new Environment.Variable(name, jvmName, types[in.readInt()], in.readBoolean(), Environment.NIL);
+        }
+        //a function takes two strings, a count and a type, at least 16 bytes
+        Environment.Function[] functions = new Environment.Function[FlatAst.readLength(in, 16)];
+        for (int i = 0; i < functions.length; i++) {
+            String name = FlatAst.readString(in);
+            String jvmName = FlatAst.readString(in);
+            List<Environment.Type> parameterTypes = new ArrayList<>();
+            for (int j = in.readInt(); j > 0; j--) {
+                parameterTypes.add(types[in.readInt()]);
+            }
+            functions[i] = new Environment.Function(name, jvmName, parameterTypes, types[in.readInt()], args -> Environment.NIL);
+        }
+        int[] annotations = FlatAst.readInts(in, ast.size());
+        if (in.available() != 0) {
+            throw new IOException("Trailing bytes.");
+        }
+
+        Ast[] nodes = ast.materializeAll();
+        for (int i = 0; i < nodes.length; i++) {
+            int id = annotations[i];
+            if (id < 0) {
+                continue;
+            }
+            Ast node = nodes[i];
+            if (node instanceof Ast.Global) {
+                ((Ast.Global) node).setVariable(variables[id]);
+            } else if (node instanceof Ast.Statement.Declaration) {
+                ((Ast.Statement.Declaration) node).setVariable(variables[id]);
+            } else if (node instanceof Ast.Expression.Access) {
+                ((Ast.Expression.Access) node).setVariable(variables[id]);
+            } else if (node instanceof Ast.Function) {
+                ((Ast.Function) node).setFunction(functions[id]);
+            } else if (node instanceof Ast.Expression.Function) {
+                ((Ast.Expression.Function) node).setFunction(functions[id]);
+            } else if (node instanceof Ast.Expression.Literal) {
+                ((Ast.Expression.Literal) node).setType(types[id]);
+            } else if (node instanceof Ast.Expression.Group) {
+                ((Ast.Expression.Group) node).setType(types[id]);
+            } else if (node instanceof Ast.Expression.Binary) {
+                ((Ast.Expression.Binary) node).setType(types[id]);
+            } else if (node instanceof Ast.Expression.PlcList) {
+                ((Ast.Expression.PlcList) node).setType(types[id]);
+            }
+        }
+        //frame slots are not stored, but resolved again as the analyzer does
+        Ast.Source source = (Ast.Source) nodes[ast.getRoot()];
+        source.getFunctions().forEach(Resolver::resolve);
+        return source;
+    }
+
+    /**
+     * Returns the variable of a node, or null if it was never set (such as in
+     * a body the analyzer did not reach), as with the functions and types
+     * below.
+     */
+    private static Environment.Variable variable(Ast node) {
+        try {
+            if (node instanceof Ast.Global) {
+                return ((Ast.Global) node).getVariable();
+            } else if (node instanceof Ast.Statement.Declaration) {
+                return ((Ast.Statement.Declaration) node).getVariable();
+            }
+            return ((Ast.Expression.Access) node).getVariable();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private static Environment.Function function(Ast node) {
+        try {
+            if (node instanceof Ast.Function) {
+                return ((Ast.Function) node).getFunction();
+            }
+            return ((Ast.Expression.Function) node).getFunction();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private static Environment.Type type(Ast.Expression node) {
+        try {
+            return node.getType();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Assigns ids to objects by identity, in the order they are first seen,
+     * with null having the id -1.
+     */
+    private static final class Table<T> {
+
+        private final Map<T, Integer> ids = new IdentityHashMap<>();
+        private final List<T> values = new ArrayList<>();
+
+        private int id(T value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                values.add(value);
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+    }
+
+}
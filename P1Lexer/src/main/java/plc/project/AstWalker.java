@@ -0,0 +1,319 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Runs passes over the functions of a source in parallel on a
+ * {@link ForkJoinPool}, merging the results of the functions in source order
+ * with a combiner supplied with the pass.
+ *
+ * A pass is either a function of each {@link Ast.Function} (such as one
+ * creating a visitor for it, see {@link #reduce}), or a {@link Collector}
+ * which is given every node (see {@link #walk}). Several collectors can be
+ * fused with {@link #fuse(List)}, so read-only passes share one traversal
+ * rather than walking the tree once each.
+ *
+ * Functions are visited concurrently, so a pass must not share mutable state
+ * between functions other than through its results. A lazily parsed body is
+ * parsed by the task visiting its function.
+ */
+public final class AstWalker {
+
+    private final ForkJoinPool pool;
+
+    public AstWalker() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public AstWalker(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Applies the pass to each function of the source in parallel and
+     * combines the results in source order, starting from the identity. The
+     * combiner must be associative.
+     */
+    public <R> R reduce(Ast.Source source, R identity, Function<Ast.Function, ? extends R> pass, BinaryOperator<R> combiner) {
+        List<Ast.Function> functions = source.getFunctions();
+        if (functions.isEmpty()) {
+            return identity;
+        }
+        return combiner.apply(identity, pool.invoke(new Reduce<R>(functions, 0, functions.size(), pass, combiner)));
+    }
+
+    /**
+     * Gives every node of the source to the collector, in the order of a
+     * recursive walk: the source and its globals first, then each function in
+     * parallel with its own container, and the containers are combined in
+     * source order.
+     */
+    public <A, R> R walk(Ast.Source source, Collector<Ast, A, R> collector) {
+        Supplier<A> supplier = collector.supplier();
+        BiConsumer<A, Ast> accumulator = collector.accumulator();
+        A container = supplier.get();
+        accumulator.accept(container, source);
+        for (Ast.Global global : source.getGlobals()) {
+            forEachNode(global, node -> accumulator.accept(container, node));
+        }
+        A functions = reduce(source, container, function -> {
+            A result = supplier.get();
+            forEachNode(function, node -> accumulator.accept(result, node));
+            return result;
+        }, collector.combiner());
+        return collector.finisher().apply(functions);
+    }
+
+    /**
+     * Fuses the collectors into one, whose result is the list of their
+     * results, so the passes are run with a single traversal.
+     */
+    @SuppressWarnings("unchecked")
+    public static Collector<Ast, ?, List<Object>> fuse(List<? extends Collector<Ast, ?, ?>> collectors) {
+        List<Collector<Ast, Object, Object>> passes = new ArrayList<>();
+        for (Collector<Ast, ?, ?> collector : collectors) {
+            passes.add((Collector<Ast, Object, Object>) collector);
+        }
+        return Collector.of(
+                () -> {
+                    Object[] containers = new Object[passes.size()];
+                    for (int i = 0; i < containers.length; i++) {
+                        containers[i] = passes.get(i).supplier().get();
+                    }
+                    return containers;
+                },
+                (containers, node) -> {
+                    for (int i = 0; i < containers.length; i++) {
+                        passes.get(i).accumulator().accept(containers[i], node);
+                    }
+                },
+                (left, right) -> {
+                    for (int i = 0; i < left.length; i++) {
+                        left[i] = passes.get(i).combiner().apply(left[i], right[i]);
+                    }
+                    return left;
+                },
+                containers -> {
+                    List<Object> results = new ArrayList<>();
+                    for (int i = 0; i < containers.length; i++) {
+                        results.add(passes.get(i).finisher().apply(containers[i]));
+                    }
+                    return Collections.unmodifiableList(results);
+                }
+        );
+    }
+
+    /**
+     * Calls the action with the node and each node below it, in the order of
+     * a recursive walk, using an explicit stack so deep expressions do not
+     * overflow the thread's stack.
+     */
+    static void forEachNode(Ast root, Consumer<Ast> action) {
+        Children children = new Children();
+        children.stack.push(root);
+        while (!children.stack.isEmpty()) {
+            Ast node = children.stack.pop();
+            action.accept(node);
+            children.visit(node);
+        }
+    }
+
+    /**
+     * Calls the action with each node below the root and then the root, with
+     * every node after its children and the children in source order, using
+     * explicit stacks as {@link #forEachNode(Ast, Consumer)} does.
+     */
+    static void forEachNodeAfterChildren(Ast root, Consumer<Ast> action) {
+        Children children = new Children();
+        ArrayDeque<Ast> parents = new ArrayDeque<>();
+        //the size of the stack below the children of each parent
+        ArrayDeque<Integer> bases = new ArrayDeque<>();
+        children.stack.push(root);
+        while (!parents.isEmpty() || !children.stack.isEmpty()) {
+            if (!bases.isEmpty() && bases.peek() == children.stack.size()) {
+                bases.pop();
+                action.accept(parents.pop());
+            } else {
+                Ast node = children.stack.pop();
+                parents.push(node);
+                bases.push(children.stack.size());
+                children.visit(node);
+            }
+        }
+    }
+
+    /**
+     * Pushes the children of a node onto the stack in reverse, so they are
+     * popped in source order.
+     */
+    private static final class Children implements Ast.Visitor<Void> {
+
+        private final ArrayDeque<Ast> stack = new ArrayDeque<>();
+
+        private void push(List<? extends Ast> nodes) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                stack.push(nodes.get(i));
+            }
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            push(ast.getFunctions());
+            push(ast.getGlobals());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            ast.getValue().ifPresent(stack::push);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            push(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            stack.push(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            ast.getValue().ifPresent(stack::push);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            stack.push(ast.getValue());
+            stack.push(ast.getReceiver());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            push(ast.getElseStatements());
+            push(ast.getThenStatements());
+            stack.push(ast.getCondition());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            push(ast.getCases());
+            stack.push(ast.getCondition());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            push(ast.getStatements());
+            ast.getValue().ifPresent(stack::push);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            push(ast.getStatements());
+            stack.push(ast.getCondition());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            if (ast.getValue() != null) {
+                stack.push(ast.getValue());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            stack.push(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            stack.push(ast.getRight());
+            stack.push(ast.getLeft());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            ast.getOffset().ifPresent(stack::push);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            push(ast.getArguments());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            push(ast.getValues());
+            return null;
+        }
+
+    }
+
+    /**
+     * Applies a pass to a range of functions, splitting it in halves until
+     * each task has one function, and combines the results in order.
+     */
+    private static final class Reduce<R> extends RecursiveTask<R> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Ast.Function> functions;
+        private final int start;
+        private final int end;
+        private final Function<Ast.Function, ? extends R> pass;
+        private final BinaryOperator<R> combiner;
+
+        private Reduce(List<Ast.Function> functions, int start, int end, Function<Ast.Function, ? extends R> pass, BinaryOperator<R> combiner) {
+            this.functions = functions;
+            this.start = start;
+            this.end = end;
+            this.pass = pass;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected R compute() {
+            if (end - start == 1) {
+                return pass.apply(functions.get(start));
+            }
+            int middle = (start + end) >>> 1;
+            Reduce<R> left = new Reduce<>(functions, start, middle, pass, combiner);
+            left.fork();
+            R right = new Reduce<>(functions, middle, end, pass, combiner).compute();
+            return combiner.apply(left.join(), right);
+        }
+
+    }
+
+}
@@ -0,0 +1,1083 @@
+package plc.project;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntFunction;
+
+/**
+ * A compact encoding of a parsed {@link Ast.Source}, with every node stored
+ * in a few primitive arrays instead of as an object.
+ *
+ * Nodes are identified by an int, and each node has a {@link Kind} and a
+ * record of ints in a shared array holding its names (as indices into a pool
+ * of strings), its children (as node ids, or -1 if absent) and lists of
+ * children (as a count followed by the ids). Numeric literals which fit in a
+ * long are stored inline, and any other literal is an index into a pool of
+ * objects, so equal names and literals are only stored once. Children are
+ * always added before their parent, so the source is the last node.
+ *
+ * The nodes can be read through the accessors below, which are valid for the
+ * kinds listed on each method, and walked with a {@link Cursor} without
+ * creating any objects per node. {@link #materialize(int)} creates the
+ * {@link Ast} of a node when it is needed, such as to use an
+ * {@link Ast.Visitor} with {@link #visit(int, Ast.Visitor)}. The statements
+ * of materialized functions are only created when they are first requested.
+ *
+ * Only the parsed tree is encoded: annotations set by the {@link Analyzer},
+ * such as types and variables, are not stored. An instance is not
+ * thread-safe while nodes are being added.
+ */
+public final class FlatAst {
+
+    public enum Kind {
+        SOURCE, GLOBAL, FUNCTION,
+        EXPRESSION_STATEMENT, DECLARATION, ASSIGNMENT, IF, SWITCH, CASE, WHILE, RETURN,
+        LITERAL, GROUP, BINARY, ACCESS, CALL, LIST
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    /**
+     * The forms of literals, the first field of a {@link Kind#LITERAL} record.
+     * Compact integers store their value as two ints, and compact decimals
+     * also store their scale.
+     */
+    private static final int OBJECT = 0;
+    private static final int INTEGER = 1;
+    private static final int DECIMAL = 2;
+
+    /**
+     * The tags of the literals in the object pool when written.
+     */
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte CHARACTER = 2;
+    private static final byte STRING = 3;
+    private static final byte BIG_INTEGER = 4;
+    private static final byte BIG_DECIMAL = 5;
+
+    private byte[] kinds = new byte[64];
+    private int[] offsets = new int[64];
+    private int size = 0;
+    private int[] data = new int[256];
+    private int length = 0;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<Object> objects = new ArrayList<>();
+    private final Map<Object, Integer> objectIds = new HashMap<>();
+
+    /**
+     * The nodes added by {@link #add(Ast)} in the order of their ids, if they
+     * are being recorded.
+     */
+    private List<Ast> added = null;
+
+    /**
+     * Creates an empty encoding, to which the parser adds nodes as they are
+     * parsed (see {@link Parser#parseFlatSource()}).
+     */
+    FlatAst() {}
+
+    /**
+     * Encodes the given source.
+     */
+    public static FlatAst of(Ast.Source source) {
+        FlatAst ast = new FlatAst();
+        ast.add(source);
+        return ast;
+    }
+
+    /**
+     * Encodes the given source, adding each node to the given list so that
+     * its index is the node's id.
+     */
+    static FlatAst of(Ast.Source source, List<Ast> nodes) {
+        FlatAst ast = new FlatAst();
+        ast.added = nodes;
+        ast.add(source);
+        ast.added = null;
+        return ast;
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id of the source, which is the last node.
+     */
+    public int getRoot() {
+        if (size == 0 || kinds[size - 1] != Kind.SOURCE.ordinal()) {
+            throw new IllegalStateException("The source has not been added.");
+        }
+        return size - 1;
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[kinds[check(node)]];
+    }
+
+    /**
+     * Returns the name of a {@link Kind#GLOBAL}, {@link Kind#FUNCTION},
+     * {@link Kind#DECLARATION}, {@link Kind#ACCESS} or {@link Kind#CALL}, or
+     * the operator of a {@link Kind#BINARY}.
+     */
+    public String getName(int node) {
+        return string(field(node, 0, Kind.GLOBAL, Kind.FUNCTION, Kind.DECLARATION, Kind.ACCESS, Kind.CALL, Kind.BINARY));
+    }
+
+    /**
+     * Returns the type name of a {@link Kind#GLOBAL} or {@link Kind#DECLARATION},
+     * or the return type name of a {@link Kind#FUNCTION}, or null if there is
+     * none.
+     */
+    public String getTypeName(int node) {
+        int id = field(node, 1, Kind.GLOBAL, Kind.FUNCTION, Kind.DECLARATION);
+        return id < 0 ? null : strings.get(id);
+    }
+
+    /**
+     * Returns whether a {@link Kind#GLOBAL} is mutable.
+     */
+    public boolean isMutable(int node) {
+        return field(node, 2, Kind.GLOBAL) != 0;
+    }
+
+    /**
+     * Returns the number of parameters of a {@link Kind#FUNCTION}.
+     */
+    public int getParameterCount(int node) {
+        return field(node, 2, Kind.FUNCTION);
+    }
+
+    public String getParameter(int node, int i) {
+        return strings.get(data[offsets[node] + 3 + checkIndex(i, getParameterCount(node))]);
+    }
+
+    /**
+     * Returns the number of parameter type names of a {@link Kind#FUNCTION},
+     * which is usually but not always the number of parameters.
+     */
+    public int getParameterTypeNameCount(int node) {
+        return data[offsets[node] + 3 + getParameterCount(node)];
+    }
+
+    public String getParameterTypeName(int node, int i) {
+        return strings.get(data[offsets[node] + 4 + getParameterCount(node) + checkIndex(i, getParameterTypeNameCount(node))]);
+    }
+
+    /**
+     * Returns the only (or first) child of a node, or -1 if it is absent:
+     * the value of a {@link Kind#GLOBAL}, {@link Kind#DECLARATION} or
+     * {@link Kind#RETURN}; the expression of an
+     * {@link Kind#EXPRESSION_STATEMENT} or {@link Kind#GROUP}; the receiver of
+     * an {@link Kind#ASSIGNMENT}; the condition of an {@link Kind#IF},
+     * {@link Kind#SWITCH} or {@link Kind#WHILE}; the value of a
+     * {@link Kind#CASE} (absent for the default case); the left operand of a
+     * {@link Kind#BINARY}; or the offset of an {@link Kind#ACCESS}.
+     */
+    public int getChild(int node) {
+        switch (getKind(node)) {
+            case GLOBAL:
+                return data[offsets[node] + 3];
+            case DECLARATION:
+                return data[offsets[node] + 2];
+            case BINARY:
+            case ACCESS:
+                return data[offsets[node] + 1];
+            case EXPRESSION_STATEMENT:
+            case ASSIGNMENT:
+            case IF:
+            case SWITCH:
+            case CASE:
+            case WHILE:
+            case RETURN:
+            case GROUP:
+                return data[offsets[node]];
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " has no single child.");
+        }
+    }
+
+    /**
+     * Returns the second child of a node: the value of an
+     * {@link Kind#ASSIGNMENT} or the right operand of a {@link Kind#BINARY}.
+     */
+    public int getSecondChild(int node) {
+        return field(node, getKind(node) == Kind.BINARY ? 2 : 1, Kind.ASSIGNMENT, Kind.BINARY);
+    }
+
+    /**
+     * Returns the number of lists of children of the node. The lists are the
+     * globals and functions of a {@link Kind#SOURCE}; the then and else
+     * statements of an {@link Kind#IF}; and the statements of a
+     * {@link Kind#FUNCTION}, {@link Kind#CASE} or {@link Kind#WHILE}, the
+     * cases of a {@link Kind#SWITCH}, the arguments of a {@link Kind#CALL}
+     * and the values of a {@link Kind#LIST}.
+     */
+    public int getListCount(int node) {
+        switch (getKind(node)) {
+            case SOURCE:
+            case IF:
+                return 2;
+            case FUNCTION:
+            case CASE:
+            case WHILE:
+            case SWITCH:
+            case CALL:
+            case LIST:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the number of children in the given list of the node.
+     */
+    public int getListSize(int node, int list) {
+        return data[list(node, list)];
+    }
+
+    /**
+     * Returns the i-th child in the given list of the node.
+     */
+    public int getListElement(int node, int list, int i) {
+        int start = list(node, list);
+        return data[start + 1 + checkIndex(i, data[start])];
+    }
+
+    /**
+     * Returns the value of a {@link Kind#LITERAL}, as
+     * {@link Ast.Expression.Literal#getLiteral()}.
+     */
+    public Object getLiteral(int node) {
+        int form = field(node, 0, Kind.LITERAL);
+        int offset = offsets[node];
+        switch (form) {
+            case INTEGER:
+                return BigInteger.valueOf(toLong(data[offset + 1], data[offset + 2]));
+            case DECIMAL:
+                return BigDecimal.valueOf(toLong(data[offset + 1], data[offset + 2]), data[offset + 3]);
+            default:
+                return objects.get(data[offset + 1]);
+        }
+    }
+
+    /**
+     * Creates the {@link Ast} of the node. The nodes below it are created in
+     * order of id, so each child is created before its parent without
+     * recursing, except the statements of functions, which are created when
+     * they are first requested.
+     */
+    public Ast materialize(int node) {
+        int[] subtree = new int[16];
+        int count = 0;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = check(node);
+        while (top > 0) {
+            int next = stack[--top];
+            if (count == subtree.length) {
+                subtree = Arrays.copyOf(subtree, 2 * count);
+            }
+            subtree[count++] = next;
+            for (int slot = 0; slot < slots(next); slot++) {
+                int child = slot(next, slot);
+                if (child >= 0) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * top);
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+        Arrays.sort(subtree, 0, count);
+        //the nodes of the subtree have ids from its first node to the node itself
+        int first = subtree[0];
+        Ast[] nodes = new Ast[node - first + 1];
+        for (int i = 0; i < count; i++) {
+            nodes[subtree[i] - first] = create(subtree[i], child -> nodes[child - first], true);
+        }
+        return nodes[node - first];
+    }
+
+    /**
+     * Returns the number of slots of the children of the node, other than
+     * the statements of a function when materializing (see
+     * {@link #slot(int, int)}).
+     */
+    private int slots(int node) {
+        if (KINDS[kinds[node]] == Kind.FUNCTION) {
+            return 2;
+        }
+        return slotsWithStatements(node);
+    }
+
+    private int slotsWithStatements(int node) {
+        int slots = 2;
+        for (int list = 0; list < getListCount(node); list++) {
+            slots += getListSize(node, list);
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the child of the node in the given slot, or -1 if there is
+     * none. Slot 0 holds the only (or first) child (see
+     * {@link #getChild(int)}), slot 1 the second child, and the children in
+     * the lists follow in order from slot 2.
+     */
+    private int slot(int node, int slot) {
+        Kind kind = KINDS[kinds[node]];
+        if (slot == 0) {
+            switch (kind) {
+                case SOURCE:
+                case FUNCTION:
+                case LITERAL:
+                case CALL:
+                case LIST:
+                    return -1;
+                default:
+                    return getChild(node);
+            }
+        } else if (slot == 1) {
+            return kind == Kind.ASSIGNMENT || kind == Kind.BINARY ? getSecondChild(node) : -1;
+        }
+        slot -= 2;
+        for (int list = 0; list < getListCount(node); list++) {
+            int size = getListSize(node, list);
+            if (slot < size) {
+                return getListElement(node, list, slot);
+            }
+            slot -= size;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a cursor at the root.
+     */
+    public Cursor cursor() {
+        return new Cursor(getRoot());
+    }
+
+    /**
+     * Returns a cursor at the given node.
+     */
+    public Cursor cursor(int node) {
+        return new Cursor(check(node));
+    }
+
+    /**
+     * A position in the nodes which moves between a node and its children,
+     * so a pass can read the tree without materializing it. The cursor keeps
+     * the nodes it moved down through, so it can move back up and on to the
+     * next child, and {@link #toNext()} walks the nodes below the one it
+     * started at without recursing.
+     *
+     * The children of a node are in the order of the accessors: the only (or
+     * first) child, the second child, and then the children in each list,
+     * including the statements of functions.
+     */
+    public final class Cursor {
+
+        private int node;
+        private int depth = 0;
+        /**
+         * The nodes above the current one, and the slot of the child moved to
+         * from each.
+         */
+        private int[] parents = new int[16];
+        private int[] slots = new int[16];
+
+        private Cursor(int node) {
+            this.node = node;
+        }
+
+        public int getNode() {
+            return node;
+        }
+
+        public Kind getKind() {
+            return FlatAst.this.getKind(node);
+        }
+
+        /**
+         * Returns the number of nodes the cursor is below the one it started
+         * at.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns the name of the node (see {@link FlatAst#getName(int)}).
+         */
+        public String getName() {
+            return FlatAst.this.getName(node);
+        }
+
+        /**
+         * Returns the value of a {@link Kind#LITERAL} (see
+         * {@link FlatAst#getLiteral(int)}).
+         */
+        public Object getLiteral() {
+            return FlatAst.this.getLiteral(node);
+        }
+
+        /**
+         * Moves to the only (or first) child (see {@link FlatAst#getChild(int)}),
+         * returning false if it is absent.
+         */
+        public boolean toChild() {
+            int child = getChild(node);
+            if (child < 0) {
+                return false;
+            }
+            push(0, child);
+            return true;
+        }
+
+        /**
+         * Moves to the second child (see {@link FlatAst#getSecondChild(int)}).
+         */
+        public void toSecondChild() {
+            push(1, getSecondChild(node));
+        }
+
+        /**
+         * Moves to the i-th child in the given list of the node.
+         */
+        public void toElement(int list, int i) {
+            int child = getListElement(node, list, i);
+            int slot = 2 + i;
+            for (int previous = 0; previous < list; previous++) {
+                slot += getListSize(node, previous);
+            }
+            push(slot, child);
+        }
+
+        /**
+         * Moves to the first child of the node, returning false if it has
+         * none.
+         */
+        public boolean toFirstChild() {
+            for (int slot = 0; slot < slotsWithStatements(node); slot++) {
+                int child = slot(node, slot);
+                if (child >= 0) {
+                    push(slot, child);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves to the next child of the parent, returning false if there is
+         * none or the cursor is at the node it started at.
+         */
+        public boolean toNextSibling() {
+            if (depth == 0) {
+                return false;
+            }
+            int parent = parents[depth - 1];
+            for (int slot = slots[depth - 1] + 1; slot < slotsWithStatements(parent); slot++) {
+                int child = slot(parent, slot);
+                if (child >= 0) {
+                    node = child;
+                    slots[depth - 1] = slot;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves to the parent, returning false if the cursor is at the node
+         * it started at.
+         */
+        public boolean toParent() {
+            if (depth == 0) {
+                return false;
+            }
+            node = parents[--depth];
+            return true;
+        }
+
+        /**
+         * Moves to the next node below the one the cursor started at, with
+         * each node before its children, returning false (and moving back to
+         * the node it started at) once every node has been visited.
+         */
+        public boolean toNext() {
+            if (toFirstChild()) {
+                return true;
+            }
+            while (depth > 0) {
+                if (toNextSibling()) {
+                    return true;
+                }
+                toParent();
+            }
+            return false;
+        }
+
+        private void push(int slot, int child) {
+            if (depth == parents.length) {
+                parents = Arrays.copyOf(parents, 2 * depth);
+                slots = Arrays.copyOf(slots, 2 * depth);
+            }
+            parents[depth] = node;
+            slots[depth] = slot;
+            depth++;
+            node = child;
+        }
+
+    }
+
+    /**
+     * Creates the {@link Ast} of every node, indexed by id, with the children
+     * of each node being the ones created before it. Function statements are
+     * created eagerly.
+     */
+    Ast[] materializeAll() {
+        Ast[] nodes = new Ast[size];
+        for (int node = 0; node < size; node++) {
+            nodes[node] = create(node, child -> nodes[child], false);
+        }
+        return nodes;
+    }
+
+    /**
+     * Creates the {@link Ast} of the node, getting its children from the given
+     * function and creating function statements lazily if requested.
+     */
+    private Ast create(int node, IntFunction<Ast> children, boolean lazy) {
+        int offset = offsets[check(node)];
+        switch (KINDS[kinds[node]]) {
+            case SOURCE: {
+                List<Ast.Global> globals = new ArrayList<>();
+                List<Ast.Function> functions = new ArrayList<>();
+                for (int i = 0; i < getListSize(node, 0); i++) {
+                    globals.add((Ast.Global) children.apply(getListElement(node, 0, i)));
+                }
+                for (int i = 0; i < getListSize(node, 1); i++) {
+                    functions.add((Ast.Function) children.apply(getListElement(node, 1, i)));
+                }
+                return new Ast.Source(globals, functions);
+            }
+            case GLOBAL:
+                return new Ast.Global(getName(node), getTypeName(node), isMutable(node), expression(getChild(node), children));
+            case FUNCTION: {
+                List<String> parameters = new ArrayList<>();
+                List<String> parameterTypeNames = new ArrayList<>();
+                for (int i = 0; i < getParameterCount(node); i++) {
+                    parameters.add(getParameter(node, i));
+                }
+                for (int i = 0; i < getParameterTypeNameCount(node); i++) {
+                    parameterTypeNames.add(getParameterTypeName(node, i));
+                }
+                if (lazy) {
+                    return new Ast.Function(getName(node), parameters, parameterTypeNames,
+                            Optional.ofNullable(getTypeName(node)), () -> statements(node, 0, this::materialize));
+                }
+                return new Ast.Function(getName(node), parameters, parameterTypeNames,
+                        Optional.ofNullable(getTypeName(node)), statements(node, 0, children));
+            }
+            case EXPRESSION_STATEMENT:
+                return new Ast.Statement.Expression((Ast.Expression) children.apply(data[offset]));
+            case DECLARATION:
+                return new Ast.Statement.Declaration(getName(node), Optional.ofNullable(getTypeName(node)), expression(getChild(node), children));
+            case ASSIGNMENT:
+                return new Ast.Statement.Assignment((Ast.Expression) children.apply(data[offset]), (Ast.Expression) children.apply(data[offset + 1]));
+            case IF:
+                return new Ast.Statement.If((Ast.Expression) children.apply(data[offset]), statements(node, 0, children), statements(node, 1, children));
+            case SWITCH: {
+                List<Ast.Statement.Case> cases = new ArrayList<>();
+                for (int i = 0; i < getListSize(node, 0); i++) {
+                    cases.add((Ast.Statement.Case) children.apply(getListElement(node, 0, i)));
+                }
+                return new Ast.Statement.Switch((Ast.Expression) children.apply(data[offset]), cases);
+            }
+            case CASE:
+                return new Ast.Statement.Case(expression(data[offset], children), statements(node, 0, children));
+            case WHILE:
+                return new Ast.Statement.While((Ast.Expression) children.apply(data[offset]), statements(node, 0, children));
+            case RETURN:
+                return new Ast.Statement.Return(data[offset] < 0 ? null : (Ast.Expression) children.apply(data[offset]));
+            case LITERAL:
+                switch (data[offset]) {
+                    case INTEGER:
+                        return Ast.Expression.Literal.integer(toLong(data[offset + 1], data[offset + 2]));
+                    case DECIMAL:
+                        return Ast.Expression.Literal.decimal(toLong(data[offset + 1], data[offset + 2]), data[offset + 3]);
+                    default:
+                        return new Ast.Expression.Literal(objects.get(data[offset + 1]));
+                }
+            case GROUP:
+                return new Ast.Expression.Group((Ast.Expression) children.apply(data[offset]));
+            case BINARY:
+                return new Ast.Expression.Binary(getName(node), (Ast.Expression) children.apply(data[offset + 1]), (Ast.Expression) children.apply(data[offset + 2]));
+            case ACCESS:
+                return new Ast.Expression.Access(expression(data[offset + 1], children), getName(node));
+            case CALL:
+                return new Ast.Expression.Function(getName(node), expressions(node, children));
+            case LIST:
+                return new Ast.Expression.PlcList(expressions(node, children));
+            default:
+                throw new AssertionError("Unimplemented node kind: " + KINDS[kinds[node]] + ".");
+        }
+    }
+
+    /**
+     * Materializes the node and visits it with the given visitor.
+     */
+    public <T> T visit(int node, Ast.Visitor<T> visitor) {
+        return visitor.visit(materialize(node));
+    }
+
+    /**
+     * Adds the node and its children, returning its id. The nodes are
+     * encoded after their children with an explicit stack, so deep
+     * expressions do not overflow the thread's stack.
+     */
+    int add(Ast ast) {
+        Map<Ast, Integer> ids = new IdentityHashMap<>();
+        AstWalker.forEachNodeAfterChildren(ast, node -> {
+            ids.put(node, encode(node, ids));
+            if (added != null) {
+                added.add(node);
+            }
+        });
+        return ids.get(ast);
+    }
+
+    private int encode(Ast ast, Map<Ast, Integer> ids) {
+        if (ast instanceof Ast.Source) {
+            Ast.Source source = (Ast.Source) ast;
+            int[] globals = new int[source.getGlobals().size()];
+            for (int i = 0; i < globals.length; i++) {
+                globals[i] = id(ids, source.getGlobals().get(i));
+            }
+            int[] functions = new int[source.getFunctions().size()];
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = id(ids, source.getFunctions().get(i));
+            }
+            return addSource(globals, functions);
+        } else if (ast instanceof Ast.Global) {
+            Ast.Global global = (Ast.Global) ast;
+            int value = id(ids, global.getValue());
+            return node(Kind.GLOBAL, string(global.getName()), string(global.getTypeName()), global.getMutable() ? 1 : 0, value);
+        } else if (ast instanceof Ast.Function) {
+            Ast.Function function = (Ast.Function) ast;
+            int[] statements = ids(ids, function.getStatements());
+            int start = node(Kind.FUNCTION, string(function.getName()), string(function.getReturnTypeName().orElse(null)));
+            appendStrings(function.getParameters());
+            appendStrings(function.getParameterTypeNames());
+            appendList(statements);
+            return start;
+        } else if (ast instanceof Ast.Statement.Expression) {
+            return node(Kind.EXPRESSION_STATEMENT, id(ids, ((Ast.Statement.Expression) ast).getExpression()));
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+            int value = id(ids, declaration.getValue());
+            return node(Kind.DECLARATION, string(declaration.getName()), string(declaration.getTypeName().orElse(null)), value);
+        } else if (ast instanceof Ast.Statement.Assignment) {
+            Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) ast;
+            int receiver = id(ids, assignment.getReceiver());
+            return node(Kind.ASSIGNMENT, receiver, id(ids, assignment.getValue()));
+        } else if (ast instanceof Ast.Statement.If) {
+            Ast.Statement.If statement = (Ast.Statement.If) ast;
+            int condition = id(ids, statement.getCondition());
+            int[] thenStatements = ids(ids, statement.getThenStatements());
+            int[] elseStatements = ids(ids, statement.getElseStatements());
+            int node = node(Kind.IF, condition);
+            appendList(thenStatements);
+            appendList(elseStatements);
+            return node;
+        } else if (ast instanceof Ast.Statement.Switch) {
+            Ast.Statement.Switch statement = (Ast.Statement.Switch) ast;
+            int condition = id(ids, statement.getCondition());
+            int[] cases = ids(ids, statement.getCases());
+            int node = node(Kind.SWITCH, condition);
+            appendList(cases);
+            return node;
+        } else if (ast instanceof Ast.Statement.Case) {
+            Ast.Statement.Case statement = (Ast.Statement.Case) ast;
+            int value = id(ids, statement.getValue());
+            int[] statements = ids(ids, statement.getStatements());
+            int node = node(Kind.CASE, value);
+            appendList(statements);
+            return node;
+        } else if (ast instanceof Ast.Statement.While) {
+            Ast.Statement.While statement = (Ast.Statement.While) ast;
+            int condition = id(ids, statement.getCondition());
+            int[] statements = ids(ids, statement.getStatements());
+            int node = node(Kind.WHILE, condition);
+            appendList(statements);
+            return node;
+        } else if (ast instanceof Ast.Statement.Return) {
+            Ast.Expression value = ((Ast.Statement.Return) ast).getValue();
+            return node(Kind.RETURN, value == null ? -1 : id(ids, value));
+        } else if (ast instanceof Ast.Expression.Literal) {
+            Ast.Expression.Literal literal = (Ast.Expression.Literal) ast;
+            if (literal.isCompactInteger()) {
+                long value = literal.getLongValue();
+                return node(Kind.LITERAL, INTEGER, (int) (value >>> 32), (int) value);
+            } else if (literal.isCompactDecimal()) {
+                long value = literal.getLongValue();
+                return node(Kind.LITERAL, DECIMAL, (int) (value >>> 32), (int) value, literal.getScale());
+            }
+            return node(Kind.LITERAL, OBJECT, object(literal.getLiteral()));
+        } else if (ast instanceof Ast.Expression.Group) {
+            return node(Kind.GROUP, id(ids, ((Ast.Expression.Group) ast).getExpression()));
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            int left = id(ids, binary.getLeft());
+            int right = id(ids, binary.getRight());
+            return node(Kind.BINARY, string(binary.getOperator()), left, right);
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            return node(Kind.ACCESS, string(access.getName()), id(ids, access.getOffset()));
+        } else if (ast instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            int[] arguments = ids(ids, function.getArguments());
+            int node = node(Kind.CALL, string(function.getName()));
+            appendList(arguments);
+            return node;
+        } else if (ast instanceof Ast.Expression.PlcList) {
+            int[] values = ids(ids, ((Ast.Expression.PlcList) ast).getValues());
+            int node = node(Kind.LIST);
+            appendList(values);
+            return node;
+        } else {
+            throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+        }
+    }
+
+    /**
+     * Adds the source from the ids of its already added globals and
+     * functions, returning its id.
+     */
+    int addSource(int[] globals, int[] functions) {
+        int node = node(Kind.SOURCE);
+        appendList(globals);
+        appendList(functions);
+        return node;
+    }
+
+    /**
+     * Writes the nodes and pools, to be read back by {@link #read(DataInputStream)}.
+     * The arrays are written as blocks, so they can be read in bulk.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+        out.writeInt(objects.size());
+        for (Object object : objects) {
+            if (object == null) {
+                out.writeByte(NULL);
+            } else if (object instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) object);
+            } else if (object instanceof Character) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) object);
+            } else if (object instanceof String) {
+                out.writeByte(STRING);
+                writeString(out, (String) object);
+            } else if (object instanceof BigInteger) {
+                out.writeByte(BIG_INTEGER);
+                writeString(out, object.toString());
+            } else if (object instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL);
+                writeString(out, object.toString());
+            } else {
+                throw new IllegalArgumentException("Cannot write a literal of " + object.getClass().getName() + ".");
+            }
+        }
+        out.writeInt(size);
+        out.write(kinds, 0, size);
+        writeInts(out, offsets, size);
+        out.writeInt(length);
+        writeInts(out, data, length);
+    }
+
+    /**
+     * Reads nodes and pools written by {@link #write(DataOutputStream)}.
+     */
+    static FlatAst read(DataInputStream in) throws IOException {
+        FlatAst ast = new FlatAst();
+        int strings = in.readInt();
+        for (int i = 0; i < strings; i++) {
+            ast.string(readString(in));
+        }
+        int objects = in.readInt();
+        for (int i = 0; i < objects; i++) {
+            switch (in.readByte()) {
+                case NULL:
+                    ast.object(null);
+                    break;
+                case BOOLEAN:
+                    ast.object(in.readBoolean());
+                    break;
+                case CHARACTER:
+                    ast.object(in.readChar());
+                    break;
+                case STRING:
+                    ast.object(readString(in));
+                    break;
+                case BIG_INTEGER:
+                    ast.object(new BigInteger(readString(in)));
+                    break;
+                case BIG_DECIMAL:
+                    ast.object(new BigDecimal(readString(in)));
+                    break;
+                default:
+                    throw new IOException("Unknown literal tag.");
+            }
+        }
+        if (ast.strings.size() != strings || ast.objects.size() != objects) {
+            throw new IOException("Duplicate pool entries.");
+        }
+        ast.size = readLength(in, 1);
+        ast.kinds = new byte[ast.size];
+        in.readFully(ast.kinds);
+        ast.offsets = readInts(in, ast.size);
+        ast.length = readLength(in, 4);
+        ast.data = readInts(in, ast.length);
+        return ast;
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in, 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the length of an array whose elements take at least {@code width}
+     * bytes each, rejecting a length the remaining bytes cannot hold so a
+     * corrupt file cannot allocate an array of any size.
+     */
+    static int readLength(DataInputStream in, int width) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available() / width) {
+            throw new IOException("Length exceeds the remaining bytes.");
+        }
+        return length;
+    }
+
+    static void writeInts(DataOutputStream out, int[] ints, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * length);
+        buffer.asIntBuffer().put(ints, 0, length);
+        out.write(buffer.array());
+    }
+
+    static int[] readInts(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > in.available() / 4) {
+            throw new IOException("Length exceeds the remaining bytes.");
+        }
+        byte[] bytes = new byte[4 * length];
+        in.readFully(bytes);
+        int[] ints = new int[length];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(ints);
+        return ints;
+    }
+
+    /**
+     * Returns the id of an already encoded child.
+     */
+    private static int id(Map<Ast, Integer> ids, Ast ast) {
+        return ids.get(ast);
+    }
+
+    /**
+     * Returns the id of an already encoded child, or -1 if it is absent.
+     */
+    private static int id(Map<Ast, Integer> ids, Optional<? extends Ast> ast) {
+        return ast.isPresent() ? ids.get(ast.get()) : -1;
+    }
+
+    private static int[] ids(Map<Ast, Integer> ids, List<? extends Ast> asts) {
+        int[] result = new int[asts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(asts.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Starts a new node with the given fields, to which lists may then be
+     * appended, returning its id.
+     */
+    private int node(Kind kind, int... fields) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        offsets[size] = length;
+        for (int field : fields) {
+            append(field);
+        }
+        return size++;
+    }
+
+    private void append(int value) {
+        if (length == data.length) {
+            data = Arrays.copyOf(data, length * 2);
+        }
+        data[length++] = value;
+    }
+
+    private void appendList(int[] ids) {
+        append(ids.length);
+        for (int id : ids) {
+            append(id);
+        }
+    }
+
+    private void appendStrings(List<String> strings) {
+        append(strings.size());
+        for (String string : strings) {
+            append(string(string));
+        }
+    }
+
+    private int string(String string) {
+        if (string == null) {
+            return -1;
+        }
+        Integer id = stringIds.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.add(string);
+            stringIds.put(string, id);
+        }
+        return id;
+    }
+
+    private String string(int id) {
+        return id < 0 ? null : strings.get(id);
+    }
+
+    private int object(Object object) {
+        Integer id = objectIds.get(object);
+        if (id == null) {
+            id = objects.size();
+            objects.add(object);
+            objectIds.put(object, id);
+        }
+        return id;
+    }
+
+    private Optional<Ast.Expression> expression(int node, IntFunction<Ast> children) {
+        return node < 0 ? Optional.empty() : Optional.of((Ast.Expression) children.apply(node));
+    }
+
+    private List<Ast.Expression> expressions(int node, IntFunction<Ast> children) {
+        List<Ast.Expression> expressions = new ArrayList<>();
+        for (int i = 0; i < getListSize(node, 0); i++) {
+            expressions.add((Ast.Expression) children.apply(getListElement(node, 0, i)));
+        }
+        return expressions;
+    }
+
+    private List<Ast.Statement> statements(int node, int list, IntFunction<Ast> children) {
+        List<Ast.Statement> statements = new ArrayList<>();
+        for (int i = 0; i < getListSize(node, list); i++) {
+            statements.add((Ast.Statement) children.apply(getListElement(node, list, i)));
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the given field of the node, checking that it is one of the
+     * given kinds.
+     */
+    private int field(int node, int field, Kind... allowed) {
+        Kind kind = getKind(node);
+        for (Kind k : allowed) {
+            if (k == kind) {
+                return data[offsets[node] + field];
+            }
+        }
+        throw new IllegalArgumentException("A " + kind + " has no such field.");
+    }
+
+    /**
+     * Returns the index of the count of the given list of the node.
+     */
+    private int list(int node, int list) {
+        checkIndex(list, getListCount(node));
+        int start = offsets[node];
+        switch (KINDS[kinds[node]]) {
+            case SOURCE:
+            case LIST:
+                break;
+            case FUNCTION:
+                start += 2;
+                start += 1 + data[start];
+                start += 1 + data[start];
+                break;
+            case CALL:
+            case IF:
+            case SWITCH:
+            case CASE:
+            case WHILE:
+                start += 1;
+                break;
+            default:
+                throw new AssertionError();
+        }
+        for (int i = 0; i < list; i++) {
+            start += 1 + data[start];
+        }
+        return start;
+    }
+
+    private static long toLong(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private int check(int node) {
+        if (node < 0 || node >= size) {
+            throw new IndexOutOfBoundsException("Node " + node + " out of bounds for size " + size);
+        }
+        return node;
+    }
+
+    private static int checkIndex(int i, int size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        }
+        return i;
+    }
+
+}
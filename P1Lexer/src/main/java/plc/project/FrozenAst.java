@@ -0,0 +1,53 @@
+package plc.project;
+
+/**
+ * An analyzed source which can no longer change, so that one tree can be
+ * shared by any number of threads (such as interpreters running the same
+ * program concurrently) without copying it.
+ *
+ * {@link #freeze(Ast.Source)} parses any lazy function bodies, resolves the
+ * variables of every function (see {@link Resolver}) and creates the values
+ * of compact literals, so no thread writes to the tree later. It then marks
+ * every node so that the setters of its annotations throw an
+ * {@link IllegalStateException}, and replaces the lists of the nodes with
+ * unmodifiable views which throw an {@link UnsupportedOperationException}. The source is published through a final
+ * field, so a thread which sees a {@code FrozenAst} sees the whole tree as it
+ * was frozen, however the {@code FrozenAst} reached it.
+ *
+ * The tree is frozen in place rather than copied, so the lists given to the
+ * nodes must not be changed through other references either.
+ */
+public final class FrozenAst {
+
+    private final Ast.Source source;
+
+    private FrozenAst(Ast.Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Freezes the source, which should have been analyzed. A lazy function
+     * body which fails to parse throws its {@link ParseException} from here.
+     */
+    public static FrozenAst freeze(Ast.Source source) {
+        for (Ast.Function function : source.getFunctions()) {
+            //reading a lazy body analyzes it, which resolves the function
+            function.getStatements();
+            if (!function.isResolved()) {
+                Resolver.resolve(function);
+            }
+        }
+        AstWalker.forEachNode(source, node -> {
+            if (node instanceof Ast.Expression.Literal) {
+                ((Ast.Expression.Literal) node).getLiteral();
+            }
+            node.freeze();
+        });
+        return new FrozenAst(source);
+    }
+
+    public Ast.Source getSource() {
+        return source;
+    }
+
+}
@@ -2,6 +2,9 @@ package plc.project;
 
 import java.beans.Expression;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -9,18 +12,61 @@ public final class Generator implements Ast.Visitor<Void> {
 
     private final PrintWriter writer;
     private int indent = 0;
+    /**
+     * The objects printed by the visit being run from {@link #print}, or null
+     * if objects are printed right away.
+     */
+    private List<Object> printed = null;
+    private final Runnable enter = () -> indent++;
+    private final Runnable exit = () -> indent--;
+    private final Runnable line = () -> newline(indent);
 
     public Generator(PrintWriter writer) {
         this.writer = writer;
     }
 
+    /**
+     * Prints the objects, visiting nodes and running {@link Runnable}s (which
+     * change the indent or start a line) in order.
+     *
+     * Nodes are visited without recursing: the objects still to be printed
+     * are kept on an explicit stack, and the visit of a node only collects
+     * the objects it prints, which then take its place on the stack. Deeply
+     * nested expressions and blocks are therefore limited by the heap rather
+     * than the thread's stack.
+     */
     private void print(Object... objects) {
-        for (Object object : objects) {
-            if (object instanceof Ast) {
-                visit((Ast) object);
-            } else {
-                writer.write(object.toString());
+        if (printed != null) {
+            Collections.addAll(printed, objects);
+            return;
+        }
+        ArrayDeque<Object> parts = new ArrayDeque<>();
+        push(parts, objects);
+        try {
+            while (!parts.isEmpty()) {
+                Object part = parts.pop();
+                if (part instanceof Ast) {
+                    printed = new ArrayList<>();
+                    visit((Ast) part);
+                    push(parts, printed.toArray());
+                    printed = null;
+                } else if (part instanceof Runnable) {
+                    ((Runnable) part).run();
+                } else {
+                    writer.write(part.toString());
+                }
             }
+        } finally {
+            printed = null;
+        }
+    }
+
+    /**
+     * Pushes the objects so that they are popped in order.
+     */
+    private static void push(ArrayDeque<Object> parts, Object... objects) {
+        for (int i = objects.length - 1; i >= 0; i--) {
+            parts.push(objects[i]);
         }
     }
 
@@ -284,121 +330,105 @@ public final class Generator implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Statement.If ast) {
-        print("if (");
-        visit(ast.getCondition());
-        print(") {");
-        indent++;
+        List<Object> objects = new ArrayList<>();
+        Collections.addAll(objects, "if (", ast.getCondition(), ") {", enter);
         List<Ast.Statement> stat = ast.getThenStatements();
 
         for (Ast.Statement statement : stat)
         {
-            newline(indent);
-            visit(statement);
+            Collections.addAll(objects, line, statement);
         }
         //print(";");
-        indent--;
-        newline(indent);
-        print("}");
+        Collections.addAll(objects, exit, line, "}");
         if (!ast.getElseStatements().isEmpty())
         {
-            print(" else {");
-            indent++;
+            Collections.addAll(objects, " else {", enter);
             for (Ast.Statement statement : ast.getElseStatements())
             {
-                newline(indent);
-                visit(statement);
+                Collections.addAll(objects, line, statement);
             }
             //print(";");
-            indent--;
-            newline(indent);
-            print("}");
+            Collections.addAll(objects, exit, line, "}");
         }
+        print(objects.toArray());
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Switch ast)
     {
-        print("switch (");
-        visit(ast.getCondition());
-        print(") {");
-        indent++;
+        List<Object> objects = new ArrayList<>();
+        Collections.addAll(objects, "switch (", ast.getCondition(), ") {", enter);
 
         for (Ast.Statement.Case caseStmt : ast.getCases())
         {
-            newline(indent);
-            visit(caseStmt);
+            Collections.addAll(objects, line, caseStmt);
         }
 
-        newline(indent - 1);
-        print("}");
+        Runnable close = () -> newline(indent - 1);
+        Collections.addAll(objects, close, "}");
+        print(objects.toArray());
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Case ast)
     {
+        List<Object> objects = new ArrayList<>();
+        Runnable open = () -> newline(++indent);
         if (ast.getValue().isPresent())
         {
-            print("case ");
-            visit(ast.getValue().get());
-            print(":");
-            newline(++indent);
+            Collections.addAll(objects, "case ", ast.getValue().get(), ":", open);
             for (Ast.Statement statement : ast.getStatements())
             {
-                visit(statement);
-                newline(indent);
+                Collections.addAll(objects, statement, line);
             }
 
             if (!ast.getStatements().isEmpty())
-                print("break;");
+                objects.add("break;");
 
-            --indent;
+            objects.add(exit);
             //if (!ast.getStatements().isEmpty())
             //    newline(indent);
         }
         else
         {
-            print("default:");
-            newline(++indent);
+            Collections.addAll(objects, "default:", open);
             for (Ast.Statement statement : ast.getStatements())
             {
-                visit(statement);
+                objects.add(statement);
                 if (ast.getStatements().indexOf(statement) < ast.getStatements().size() - 1)
-                    newline(indent);
+                    objects.add(line);
             }
-            --indent;
+            objects.add(exit);
         }
+        print(objects.toArray());
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.While ast)
     {
-        print("while (");
-        visit(ast.getCondition());
-        print(") {");
-        indent++;
+        List<Object> objects = new ArrayList<>();
+        Collections.addAll(objects, "while (", ast.getCondition(), ") {", enter);
         List<Ast.Statement> stats = ast.getStatements();
         for (Ast.Statement statement : stats)
         {
-            newline(indent);
-            visit(statement);
+            Collections.addAll(objects, line, statement);
         }
-        indent--;
+        objects.add(exit);
         if(!(stats.isEmpty())){
-            newline(indent);
+            objects.add(line);
             }
-        print("}");
+        objects.add("}");
+        print(objects.toArray());
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Return ast) {
         Ast.Expression ret = ast.getValue();
-        print("return ");
-        visit(ret);
-        print(";");
+        print("return ", ret, ";");
         return null;
     }
 
@@ -438,8 +468,7 @@ public final class Generator implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Expression.Group ast) {
-        Ast.Expression expression = ast.getExpression();
-        print("(",expression,")");
+        print("(", ast.getExpression(), ")");
         return null;
     }
 
@@ -448,17 +477,10 @@ public final class Generator implements Ast.Visitor<Void> {
         Ast.Expression leftexp = ast.getLeft();
         Ast.Expression rightexp = ast.getRight();
         String oper = ast.getOperator();
-        if(oper.equals("^")){
-            print("Math.pow(");
-            print(leftexp);
-            print(", ");
-            print(rightexp);
-            print(")");
-        }
-        else{
-            print(leftexp);
-            print(" ",oper," ");
-            print(rightexp);
+        if (oper.equals("^")) {
+            print("Math.pow(", leftexp, ", ", rightexp, ")");
+        } else {
+            print(leftexp, " ", oper, " ", rightexp);
         }
         return null;
     }
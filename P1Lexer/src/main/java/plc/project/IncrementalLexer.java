@@ -0,0 +1,323 @@
+package plc.project;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Updates the tokens of a source after an edit without lexing the whole
+ * source again.
+ *
+ * Lexing only depends on the characters from the current position onwards,
+ * so tokens which end well before the edit are unchanged. Lexing restarts at
+ * the first token which could read the edited range and continues until it
+ * starts a token exactly where an old token (past the edit) started; from
+ * there on the old tokens are reused with their indices shifted.
+ *
+ * The result is a view over the old tokens and the relexed ones, so an edit
+ * costs time in proportion to the relexed tokens rather than the source: the
+ * reused tokens are not copied, and a reused token whose index moved is only
+ * shifted the first time it is read. Each edit adds a few pieces to the view,
+ * and once there are {@link #MAX_PIECES} the tokens are copied into a single
+ * list.
+ */
+public final class IncrementalLexer {
+
+    /**
+     * How far past the end of a token {@link TableLexer} may look, plus one.
+     * The furthest case is {@code 0} followed by {@code .}, which checks for
+     * a digit after the {@code .}.
+     */
+    private static final int LOOKAHEAD = 2;
+
+    /**
+     * The number of pieces a result may have before it is copied, which
+     * bounds the cost of {@link List#get(int)} on a result.
+     */
+    private static final int MAX_PIECES = 32;
+
+    private IncrementalLexer() {}
+
+    /**
+     * Returns the tokens of the source after replacing {@code removed}
+     * characters at {@code offset} with {@code inserted}, given the tokens of
+     * the original source. The result is read-only and shares the tokens
+     * given, which must not be changed afterwards.
+     */
+    public static List<Token> relex(String source, List<Token> tokens, int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > source.length()) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " is outside of the source.");
+        }
+        int delta = inserted.length() - removed;
+        //lexing must restart at or before the edit, since the whitespace
+        //before the first affected token may have been edited as well
+        int restart = firstAffected(tokens, offset);
+        if (restart > 0 && (restart == tokens.size() || tokens.get(restart).getIndex() > offset)) {
+            restart--;
+        }
+        int index = restart < tokens.size() && tokens.get(restart).getIndex() <= offset ? tokens.get(restart).getIndex() : 0;
+        //old tokens which may be reused start at or after the end of the edit
+        int reuse = firstStartingAt(tokens, offset + removed);
+
+        Pieces result = new Pieces();
+        result.addRange(tokens, 0, restart, 0);
+        List<Token> relexed = new ArrayList<>();
+        Iterator<Token> lexer = new TableLexer(new EditedStream(source, offset, removed, inserted), index).iterator();
+        while (lexer.hasNext()) {
+            Token token = lexer.next();
+            int start = token.getIndex();
+            if (start >= offset + inserted.length()) {
+                while (reuse < tokens.size() && tokens.get(reuse).getIndex() < start - delta) {
+                    reuse++;
+                }
+                if (reuse < tokens.size() && tokens.get(reuse).getIndex() == start - delta) {
+                    result.add(relexed, 0, relexed.size(), 0);
+                    result.addRange(tokens, reuse, tokens.size(), delta);
+                    return result.toList(new Edit(tokens, restart, restart + relexed.size(), reuse));
+                }
+            }
+            relexed.add(token);
+        }
+        result.add(relexed, 0, relexed.size(), 0);
+        return result.toList(new Edit(tokens, restart, restart + relexed.size(), tokens.size()));
+    }
+
+    /**
+     * Returns the edit which produced a result of {@link #relex}, or null if
+     * it is not known (such as for a result which was lexed entirely again).
+     */
+    static Edit getEdit(List<Token> tokens) {
+        return tokens instanceof PieceList ? ((PieceList) tokens).edit : null;
+    }
+
+    /**
+     * Returns the index of the first token which may read characters at or
+     * after offset, using that token ends never decrease.
+     */
+    private static int firstAffected(List<Token> tokens, int offset) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Token token = tokens.get(mid);
+            if (token.getIndex() + token.getLiteral().length() + LOOKAHEAD > offset) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private static int firstStartingAt(List<Token> tokens, int offset) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.get(mid).getIndex() >= offset) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Which tokens of a result of {@link #relex} were lexed again. The tokens
+     * before {@link #start} are the tokens of {@link #previous} at the same
+     * indices, and the tokens from {@link #end} are the tokens of
+     * {@link #previous} from {@link #reuse}, with their indices shifted.
+     */
+    static final class Edit {
+
+        final List<Token> previous;
+        final int start;
+        final int end;
+        final int reuse;
+
+        private Edit(List<Token> previous, int start, int end, int reuse) {
+            this.previous = previous;
+            this.start = start;
+            this.end = end;
+            this.reuse = reuse;
+        }
+
+    }
+
+    /**
+     * The pieces of a result, each a range of a list of tokens whose indices
+     * are shifted by the same amount.
+     */
+    private static final class Pieces {
+
+        private final List<List<Token>> lists = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>();
+
+        private void add(List<Token> list, int from, int to, int delta) {
+            if (from < to) {
+                lists.add(list);
+                ranges.add(new int[] {from, to, delta});
+            }
+        }
+
+        /**
+         * Adds the tokens from {@code from} to {@code to} of a list, which may
+         * itself be a result, shifted by delta.
+         */
+        private void addRange(List<Token> tokens, int from, int to, int delta) {
+            if (!(tokens instanceof PieceList)) {
+                add(tokens, from, to, delta);
+                return;
+            }
+            PieceList pieces = (PieceList) tokens;
+            for (int i = 0; i < pieces.lists.length; i++) {
+                int start = Math.max(from, pieces.starts[i]);
+                int end = Math.min(to, pieces.starts[i + 1]);
+                if (start < end) {
+                    int base = pieces.froms[i] - pieces.starts[i];
+                    add(pieces.lists[i], base + start, base + end, pieces.deltas[i] + delta);
+                }
+            }
+        }
+
+        private List<Token> toList(Edit edit) {
+            if (lists.size() == 1 && ranges.get(0)[2] == 0 && ranges.get(0)[0] == 0 && ranges.get(0)[1] == lists.get(0).size()) {
+                return lists.get(0);
+            }
+            if (lists.size() <= MAX_PIECES) {
+                return new PieceList(this, edit);
+            }
+            List<Token> copy = new ArrayList<>(new PieceList(this, null));
+            Pieces pieces = new Pieces();
+            pieces.add(copy, 0, copy.size(), 0);
+            return new PieceList(pieces, edit);
+        }
+
+    }
+
+    /**
+     * A read-only list of tokens made of pieces, which shifts a token of a
+     * piece with a delta the first time it is read and keeps the shifted
+     * token for later reads.
+     */
+    private static final class PieceList extends AbstractList<Token> implements RandomAccess {
+
+        private final List<Token>[] lists;
+        private final int[] froms;
+        private final int[] deltas;
+        /**
+         * The index in this list of the first token of each piece, followed
+         * by the size.
+         */
+        private final int[] starts;
+        /**
+         * The tokens of each piece with a delta which have been shifted so
+         * far, created when the piece is first read.
+         */
+        private final Token[][] shifted;
+        private final Edit edit;
+
+        @SuppressWarnings("unchecked")
+        private PieceList(Pieces pieces, Edit edit) {
+            this.edit = edit;
+            int count = pieces.lists.size();
+            lists = (List<Token>[]) pieces.lists.toArray(new List<?>[count]);
+            shifted = new Token[count][];
+            froms = new int[count];
+            deltas = new int[count];
+            starts = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                int[] range = pieces.ranges.get(i);
+                froms[i] = range[0];
+                deltas[i] = range[2];
+                starts[i + 1] = starts[i] + range[1] - range[0];
+            }
+        }
+
+        @Override
+        public Token get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + size() + " tokens.");
+            }
+            //the last piece starting at or before the index
+            int low = 0;
+            int high = lists.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (starts[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int offset = index - starts[low];
+            if (deltas[low] == 0) {
+                return lists[low].get(froms[low] + offset);
+            }
+            if (shifted[low] == null) {
+                shifted[low] = new Token[starts[low + 1] - starts[low]];
+            }
+            Token token = shifted[low][offset];
+            if (token == null) {
+                token = lists[low].get(froms[low] + offset).shift(deltas[low]);
+                shifted[low][offset] = token;
+            }
+            return token;
+        }
+
+        @Override
+        public int size() {
+            return starts[lists.length];
+        }
+
+    }
+
+    /**
+     * The edited source, read through the original source and the inserted
+     * text without copying either.
+     */
+    private static final class EditedStream extends TableLexer.CharStream {
+
+        private final String source;
+        private final int offset;
+        private final int removed;
+        private final String inserted;
+
+        private EditedStream(String source, int offset, int removed, String inserted) {
+            this.source = source;
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        @Override
+        public boolean has(int index) {
+            return index < source.length() - removed + inserted.length();
+        }
+
+        @Override
+        public char get(int index) {
+            if (index < offset) {
+                return source.charAt(index);
+            } else if (index < offset + inserted.length()) {
+                return inserted.charAt(index - offset);
+            } else {
+                return source.charAt(index - inserted.length() + removed);
+            }
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            StringBuilder builder = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                builder.append(get(i));
+            }
+            return builder.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,274 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses successive versions of a source, reusing the {@link Ast.Global} and
+ * {@link Ast.Function} nodes whose tokens have not changed.
+ *
+ * Each global and function is parsed from its own range of tokens, so a node
+ * parsed from the same tokens is equal to the one parsed before. The ranges
+ * of the last successful parse are kept with a hash of their tokens. When the
+ * tokens are a result of {@link IncrementalLexer#relex} from the last parsed
+ * tokens, a range outside of the relexed tokens is reused without reading its
+ * tokens, so the cost of a parse depends on the edit and the number of globals
+ * and functions rather than the number of tokens.
+ * Otherwise, a range starting with the same name is reused if the hash of the
+ * new tokens matches and the tokens compare equal, and everything else is
+ * parsed again. The token after each range is compared as well, since the
+ * parser may have peeked at it.
+ *
+ * Reused nodes are the same objects as before, so they keep any annotations
+ * from the {@link Analyzer} (which sets them again when the new source is
+ * analyzed), and they keep the {@link Ast#getStart() starts} from the source
+ * they were parsed from, so an edit before them leaves those out of date. An
+ * instance is not thread-safe.
+ */
+public final class IncrementalParser {
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The ranges of the last parsed source by the name after their first
+     * token (the name of the global or function for valid sources).
+     */
+    private Map<String, List<Range>> ranges = new HashMap<>();
+    /**
+     * The ranges of the last parsed source in order, and its tokens.
+     */
+    private List<Range> order = new ArrayList<>();
+    private List<Token> tokens = null;
+    private Ast.Source source = null;
+    private int reused = 0;
+
+    /**
+     * Returns the last successfully parsed source, or null if there is none.
+     */
+    public Ast.Source getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the number of globals and functions reused by the last parse.
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    /**
+     * Parses the tokens, reusing unchanged globals and functions of the last
+     * parsed source. The result and any {@link ParseException} are the same
+     * as with {@link Parser#parseSource()}; after an exception, the last
+     * successfully parsed source is kept for the next parse.
+     */
+    public Ast.Source parse(List<Token> tokens) throws ParseException {
+        IncrementalLexer.Edit edit = IncrementalLexer.getEdit(tokens);
+        if (edit != null && edit.previous != this.tokens) {
+            edit = null;
+        }
+        Map<String, List<Range>> parsed = new HashMap<>();
+        List<Range> parsedOrder = new ArrayList<>();
+        List<Ast.Global> globals = new ArrayList<>();
+        List<Ast.Function> functions = new ArrayList<>();
+        Parser parser = null;
+        int count = 0;
+        int index = 0;
+        //a reused range is found before reading the token it starts with, so
+        //the ranges the edit did not touch are reused without reading tokens
+        while (index < tokens.size()) {
+            Range range = find(tokens, edit, index, false);
+            if (range == null) {
+                if (!isGlobal(tokens.get(index))) {
+                    break;
+                }
+                if (parser == null) {
+                    parser = new Parser(tokens);
+                }
+                parser.setIndex(index);
+                Ast.Global global = parser.parseGlobal();
+                range = new Range(tokens, index, parser.getIndex(), global);
+            } else {
+                range = range.move(tokens, index);
+                count++;
+            }
+            add(parsed, parsedOrder, range);
+            globals.add((Ast.Global) range.node);
+            index += range.length;
+        }
+        while (index < tokens.size()) {
+            Range range = find(tokens, edit, index, true);
+            if (range == null) {
+                if (!is(tokens.get(index), "FUN")) {
+                    break;
+                }
+                if (parser == null) {
+                    parser = new Parser(tokens);
+                }
+                parser.setIndex(index + 1);
+                Ast.Function function = parser.parseFunction();
+                range = new Range(tokens, index, parser.getIndex(), function);
+            } else {
+                range = range.move(tokens, index);
+                count++;
+            }
+            add(parsed, parsedOrder, range);
+            functions.add((Ast.Function) range.node);
+            index += range.length;
+        }
+        ranges = parsed;
+        order = parsedOrder;
+        this.tokens = tokens;
+        source = new Ast.Source(globals, functions);
+        reused = count;
+        return source;
+    }
+
+    /**
+     * Returns the range of the last parsed source which can be reused at the
+     * given index, or null if there is none.
+     */
+    private Range find(List<Token> tokens, IncrementalLexer.Edit edit, int index, boolean function) {
+        Range unchanged = unchanged(tokens, edit, index);
+        if (unchanged != null) {
+            return unchanged.node instanceof Ast.Function == function ? unchanged : null;
+        }
+        List<Range> candidates = ranges.get(key(tokens, index));
+        if (candidates == null) {
+            return null;
+        }
+        for (Range range : candidates) {
+            if (range.node instanceof Ast.Function == function
+                    && index + range.span <= tokens.size()
+                    && range.last == (index + range.span == tokens.size())
+                    && range.hash == hash(tokens, index, index + range.span)
+                    && range.equals(tokens, index)) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the range of the last parsed source whose tokens were reused by
+     * the edit at the given index, or null if there is none.
+     */
+    private Range unchanged(List<Token> tokens, IncrementalLexer.Edit edit, int index) {
+        if (edit == null || (index >= edit.start && index < edit.end)) {
+            return null;
+        }
+        int previous = index < edit.start ? index : index - edit.end + edit.reuse;
+        int low = 0;
+        int high = order.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (order.get(mid).start < previous) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == order.size() || order.get(low).start != previous) {
+            return null;
+        }
+        Range range = order.get(low);
+        if (index < edit.start && previous + range.span > edit.start) {
+            return null;
+        }
+        return range.last == (index + range.span == tokens.size()) ? range : null;
+    }
+
+    private static void add(Map<String, List<Range>> ranges, List<Range> order, Range range) {
+        ranges.computeIfAbsent(range.key, k -> new ArrayList<>(1)).add(range);
+        order.add(range);
+    }
+
+    private static String key(List<Token> tokens, int index) {
+        return index + 1 < tokens.size() ? tokens.get(index + 1).getLiteral() : "";
+    }
+
+    private static boolean isGlobal(Token token) {
+        return is(token, "LIST") || is(token, "VAL") || is(token, "VAR");
+    }
+
+    private static boolean is(Token token, String literal) {
+        return token.getType() == Token.Type.IDENTIFIER && token.getLiteral().equals(literal);
+    }
+
+    /**
+     * Returns the hash of the tokens from start to end, which is independent
+     * of where the range starts.
+     */
+    private static long hash(List<Token> tokens, int start, int end) {
+        long hash = 0;
+        for (int i = start; i < end; i++) {
+            Token token = tokens.get(i);
+            hash = hash * MULTIPLIER + (31L * token.getType().ordinal() + token.getLiteral().hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * The tokens of a global or function and the node parsed from them.
+     */
+    private static final class Range {
+
+        private final int start;
+        /**
+         * The number of tokens of the node, and of the node plus the token
+         * after it (if any) which the parser may have peeked at.
+         */
+        private final int length;
+        private final int span;
+        private final boolean last;
+        private final long hash;
+        private final String key;
+        private final List<Token> tokens;
+        private final Ast node;
+
+        private Range(List<Token> tokens, int start, int end, Ast node) {
+            this.start = start;
+            this.key = key(tokens, start);
+            this.length = end - start;
+            this.last = end == tokens.size();
+            this.span = last ? length : length + 1;
+            this.hash = hash(tokens, start, start + span);
+            this.tokens = tokens.subList(start, start + span);
+            this.node = node;
+        }
+
+        private Range(Range range, List<Token> tokens, int start) {
+            this.start = start;
+            this.length = range.length;
+            this.last = range.last;
+            this.span = range.span;
+            this.hash = range.hash;
+            this.key = range.key;
+            this.tokens = tokens.subList(start, start + span);
+            this.node = range.node;
+        }
+
+        /**
+         * Returns the same range over the given tokens, so the tokens of
+         * older sources are not kept alive.
+         */
+        private Range move(List<Token> tokens, int start) {
+            return new Range(this, tokens, start);
+        }
+
+        private boolean equals(List<Token> tokens, int index) {
+            for (int i = 0; i < span; i++) {
+                Token token = tokens.get(index + i);
+                Token other = this.tokens.get(i);
+                if (token != other && (token.getType() != other.getType() || !token.getLiteral().equals(other.getLiteral()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -9,12 +9,37 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     private Scope scope = new Scope(null);
 
+    /**
+     * The frame of the function being run, with the variables it uses from
+     * the scope it was defined in (see {@link Resolver}), or null outside of
+     * a function.
+     */
+    private Environment.PlcObject[] frame = null;
+    private Environment.Variable[] globals = null;
+    private List<String> globalNames = null;
+    /**
+     * The steps left of the statements with blocks being run, or null if
+     * there are none (see {@link #visitBlocks(Runnable)}).
+     */
+    private ArrayDeque<Runnable> steps = null;
+    private final SourceMap sourceMap;
+
     public Interpreter(Scope parent) {
+        this(parent, null);
+    }
+
+    /**
+     * Creates an interpreter whose errors give the position of the statement
+     * (or global) they are thrown from through the given map of the source,
+     * as a {@link SourceException}.
+     */
+    public Interpreter(Scope parent, SourceMap sourceMap) {
         scope = new Scope(parent);
         scope.defineFunction("print", 1, args -> {
             System.out.println(args.get(0).getValue());
             return Environment.NIL;
         });
+        this.sourceMap = sourceMap;
     }
 
     public Scope getScope() {
@@ -28,7 +53,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
 
         for(int i = 0; i<globals.size(); i++){
-            visit(globals.get(i));
+            visitAt(globals.get(i));
         }
         for(int i = 0; i<functions.size(); i++) {
             Ast.Function fun = functions.get(i);
@@ -71,98 +96,101 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Function ast) {
-
-        Scope currentScope = getScope();
-
-
-
-            scope.defineFunction(ast.getName(), ast.getParameters().size(), args -> {
-                scope = new Scope(getScope());
-                try {
-                    for (int i = 0; i < ast.getParameters().size(); i++) {
+        //the function runs in the scope it is defined in, with its own frame if
+        //it was resolved, or its own scope otherwise
+        Scope definition = scope;
+        //the variables it uses outside of its frame, looked up once per definition
+        Environment.Variable[][] variables = new Environment.Variable[1][];
+
+        scope.defineFunction(ast.getName(), ast.getParameters().size(), args -> {
+            //a lazy body is analyzed, and so resolved, when it is first read
+            List<Ast.Statement> statements = ast.getStatements();
+            boolean resolved = ast.isResolved();
+            if (resolved && variables[0] == null) {
+                variables[0] = new Environment.Variable[ast.getGlobalNames().size()];
+            }
+            Scope callerScope = scope;
+            Environment.PlcObject[] callerFrame = frame;
+            Environment.Variable[] callerGlobals = globals;
+            List<String> callerNames = globalNames;
+            ArrayDeque<Runnable> callerSteps = steps;
+            scope = resolved ? definition : new Scope(definition);
+            frame = resolved ? new Environment.PlcObject[ast.getFrameSize()] : null;
+            globals = variables[0];
+            globalNames = resolved ? ast.getGlobalNames() : null;
+            //the blocks of the body are run by steps of its own
+            steps = null;
+            try {
+                for (int i = 0; i < ast.getParameters().size(); i++) {
+                    if (resolved)
+                        frame[i] = args.get(i);
+                    else
                         scope.defineVariable(ast.getParameters().get(i), true, args.get(i));
-                    }
-
-                    List<Ast.Statement> statements = ast.getStatements();
-                    for (int i = 0; i < statements.size(); i++) {
-                        Ast.Statement statement = statements.get(i);
-                        visit(statement);
-                    }
-                } catch (Return returnValue) {
-                    scope = currentScope;
-                    return returnValue.value;
                 }
-                scope = currentScope;
-                return Environment.NIL;
-            });
-
-
-
-
-
-        return Environment.NIL;
-    }
 
-    @Override
-    public Environment.PlcObject visit(Ast.Statement.Expression ast) {
-        ast.getExpression();
-        //System.out.println("Hello, World!");
-        Ast.Expression.Function exp = null;
-        if(ast.getExpression().getClass().equals(Ast.Expression.Binary.class)){
-            visit(ast.getExpression());
-        }
-        else if(ast.getExpression().getClass().equals(Ast.Expression.Function.class)){
-            exp = (Ast.Expression.Function) ast.getExpression();
-            if(true) {
-                Environment.Function function = scope.lookupFunction(exp.getName(), exp.getArguments().size());
-                List<Environment.PlcObject> obs = new ArrayList<>();
-                for (int i = 0; i<exp.getArguments().size(); i++){
-                    Environment.PlcObject ob;
-
-                    ob = visit(exp.getArguments().get(i));
-
-                    //ob = Environment.create(exp.getArguments());
-                    obs.add(ob);
+                for (int i = 0; i < statements.size(); i++) {
+                    visitAt(statements.get(i));
                 }
-
-                function.invoke(obs);
-                return Environment.NIL;
+            } catch (Return returnValue) {
+                return returnValue.value;
+            } finally {
+                scope = callerScope;
+                frame = callerFrame;
+                globals = callerGlobals;
+                globalNames = callerNames;
+                steps = callerSteps;
             }
+            return Environment.NIL;
+        });
 
-            if(exp.getName().equals("print")){
-
-                for(int i = 0; i<exp.getArguments().size(); i++){
-                    Class<? extends Ast.Expression> t = exp.getArguments().get(i).getClass();
-                    if(t.getName().equals("plc.project.Ast$Expression$Access")){
-
-                    }
-                    else if(t.getName().equals("plc.project.Literal")){
-                        Ast.Expression.Literal lit = (Ast.Expression.Literal) exp.getArguments().get(i);
-                        System.out.println(lit.getLiteral());
-                        //Environment.PlcObject obk = new Environment.PlcObject(scope, lit);
-                        //return obk;
-                    }
+        return Environment.NIL;
+    }
 
-                }
-            }
-            else{
-                visit(exp);
-            }
+    /**
+     * Returns the variable of an access with depth 1, looking it up by name
+     * only the first time the function uses it.
+     */
+    private Environment.Variable global(int index) {
+        Environment.Variable variable = globals[index];
+        if (variable == null) {
+            variable = scope.lookupVariable(globalNames.get(index));
+            globals[index] = variable;
         }
+        return variable;
+    }
 
+    /**
+     * Returns the value of the variable of an access, from the frame within a
+     * function or the scope outside of one.
+     */
+    private Environment.PlcObject lookup(Ast.Expression.Access ast) {
+        if (frame == null)
+            return scope.lookupVariable(ast.getName()).getValue();
+        else if (ast.getDepth() == 0)
+            return frame[ast.getSlot()];
+        return global(ast.getSlot()).getValue();
+    }
 
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Expression ast) {
+        visit(ast.getExpression());
         return Environment.NIL;
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.Declaration ast) {
-        if(ast.getValue().isPresent())
+        Environment.PlcObject value = ast.getValue().isPresent() ? visit(ast.getValue().get()) : Environment.NIL;
+        if (frame == null)
         {
-            scope.defineVariable(ast.getName(), true, visit(ast.getValue().get()));
+            scope.defineVariable(ast.getName(), true, value);
+        }
+        else if (ast.getSlot() < 0)
+        {
+            throw new RuntimeException("The variable " + ast.getName() + " is already defined in this scope.");
         }
         else
         {
-            scope.defineVariable(ast.getName(), true, Environment.NIL);
+            frame[ast.getSlot()] = value;
         }
         return Environment.NIL;
     }
@@ -185,19 +213,23 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         ob = visit(ast.getValue());
 
         if (ax.getOffset().equals(Optional.empty())) {
-            Environment.Variable var = scope.lookupVariable(ax.getName());
-            var.setValue(ob);
+            if (frame == null)
+                scope.lookupVariable(ax.getName()).setValue(ob);
+            else if (ax.getDepth() == 0)
+                frame[ax.getSlot()] = ob;
+            else
+                global(ax.getSlot()).setValue(ob);
         } else {
             //make sure offset is a Literal before casting
             if (ax.getOffset().get() instanceof Ast.Expression.Literal) {
                 Ast.Expression.Literal offset = (Ast.Expression.Literal) ax.getOffset().get();
                 try {
                     int lit = Integer.parseInt(offset.getLiteral().toString());
-                    Environment.Variable var = scope.lookupVariable(ax.getName());
+                    Environment.PlcObject var = lookup(ax);
                     List<Object> list;
                     //make sure var value is a list before cast
-                    if (var.getValue().getValue() instanceof List) {
-                        list = (List<Object>) var.getValue().getValue();
+                    if (var.getValue() instanceof List) {
+                        list = (List<Object>) var.getValue();
                         Object val = ob.getValue();
                         list.set(lit, val);
                     } else {
@@ -214,30 +246,26 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     }
     @Override
     public Environment.PlcObject visit(Ast.Statement.If ast) {
-        Class<Ast.Expression.Literal> lit = Ast.Expression.Literal.class;
-        Object ob = ast.getCondition();
-        Environment.PlcObject boolcondition = new Environment.PlcObject(scope, ob);
-        System.out.println(boolcondition.getValue());
-        requireType(lit, boolcondition);
-        Ast.Expression.Literal condition = (Ast.Expression.Literal) boolcondition.getValue();
-        Scope oldscope = scope;
-
-        if(condition.getLiteral().equals(true)){
-            scope = new Scope(scope);
-            List<Ast.Statement> then = ast.getThenStatements();
-            for(int i = 0; i<then.size(); i++){
-                visit(then.get(i));
+        visitBlocks(() -> {
+            Class<Ast.Expression.Literal> lit = Ast.Expression.Literal.class;
+            Object ob = ast.getCondition();
+            Environment.PlcObject boolcondition = new Environment.PlcObject(scope, ob);
+            System.out.println(boolcondition.getValue());
+            requireType(lit, boolcondition);
+            Ast.Expression.Literal condition = (Ast.Expression.Literal) boolcondition.getValue();
+            Scope oldscope = scope;
+
+            if(condition.getLiteral().equals(true)){
+                steps.push(() -> scope = oldscope);
+                push(ast.getThenStatements());
+                scope = new Scope(scope);
             }
-            scope = oldscope;
-        }
-        else if(condition.getLiteral().equals(false)){
-            scope = new Scope(scope);
-            List<Ast.Statement> then = ast.getElseStatements();
-            for(int i = 0; i<then.size(); i++){
-                visit(then.get(i));
+            else if(condition.getLiteral().equals(false)){
+                steps.push(() -> scope = oldscope);
+                push(ast.getElseStatements());
+                scope = new Scope(scope);
             }
-            scope = oldscope;
-        }
+        });
 
 
         return Environment.NIL;
@@ -245,44 +273,39 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.Switch ast) {
-        List <Ast.Statement.Case> cases = ast.getCases();
-
-        Scope oldscope = scope;
-        scope = new Scope(scope);
-        Environment.PlcObject ob = visit(ast.getCondition());
-        //Ast.Expression.Literal lit = new Ast.Expression.Literal(ob);
-
-        scope.defineVariable("condition", true, ob);
-
+        visitBlocks(() -> {
+            List <Ast.Statement.Case> cases = ast.getCases();
 
-        for (int i = 0; i<cases.size(); i++){
-            Ast.Expression.Literal val = (Ast.Expression.Literal) cases.get(i).getValue().get();
-            Environment.Variable var = scope.lookupVariable("condition");
-            if (var.getValue().getValue().equals(val.getLiteral())) {
-                visit(cases.get(i));
-                break;
+            Scope oldscope = scope;
+            //within a function, the condition and the locals of the cases have their own slots in the frame
+            if (frame == null)
+                scope = new Scope(scope);
+            Environment.PlcObject ob = visit(ast.getCondition());
+            //Ast.Expression.Literal lit = new Ast.Expression.Literal(ob);
+
+            if (frame == null)
+                scope.defineVariable("condition", true, ob);
+            else
+                frame[ast.getSlot()] = ob;
+
+
+            steps.push(() -> scope = oldscope);
+            for (int i = 0; i<cases.size(); i++){
+                Ast.Expression.Literal val = (Ast.Expression.Literal) cases.get(i).getValue().get();
+                Environment.PlcObject condition = frame == null ? scope.lookupVariable("condition").getValue() : frame[ast.getSlot()];
+                if (condition.getValue().equals(val.getLiteral())) {
+                    visit(cases.get(i));
+                    break;
+                }
             }
-        }
+        });
 
-        scope = oldscope;
         return Environment.NIL;
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.Case ast) {
-        if(ast.getValue().equals(Optional.empty())){
-            List<Ast.Statement> statements = ast.getStatements();
-            for (int i = 0; i<statements.size(); i++){
-                visit(statements.get(i));
-            }
-        }
-        else {
-
-            List<Ast.Statement> statements = ast.getStatements();
-            for (int i = 0; i < statements.size(); i++) {
-                    visit(statements.get(i));
-            }
-        }
+        visitBlocks(() -> push(ast.getStatements()));
         //System.out.println(ast.getStatements());
         return Environment.NIL;
 
@@ -290,21 +313,86 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.While ast) {
-        while(requireType(Boolean.class, visit(ast.getCondition())))
+        visitBlocks(() -> iterate(ast));
+        return Environment.NIL;
+    }
+
+    /**
+     * Runs the next iteration of the loop if its condition holds, pushing
+     * the step of the iteration after it.
+     */
+    private void iterate(Ast.Statement.While ast) {
+        if(requireType(Boolean.class, visit(ast.getCondition())))
         {
-            try
+            steps.push(() -> iterate(ast));
+            //within a function, the locals of the body have their own slots in the frame
+            if (frame != null)
             {
-                scope = new Scope(scope);
-                ast.getStatements().forEach(this::visit);
+                push(ast.getStatements());
+                return;
             }
+            steps.push(() -> scope = scope.getParent());
+            push(ast.getStatements());
+            scope = new Scope(scope);
 
-            finally
-            {
-                scope = scope.getParent();
+        }
+    }
+
+    /**
+     * Runs the visit of a statement with blocks, which pushes the steps of
+     * its blocks (see {@link #push(List)}) rather than running them.
+     * Statements with blocks within those push their own steps in turn, and
+     * the outermost visit runs the steps until there are none left, so deeply
+     * nested blocks are limited by the heap rather than the thread's stack.
+     * The statements run in the same order as by recursion, and a call runs
+     * the blocks of its body with steps of its own.
+     */
+    private void visitBlocks(Runnable visit) {
+        if (steps != null) {
+            visit.run();
+            return;
+        }
+        Scope oldscope = scope;
+        steps = new ArrayDeque<>();
+        try {
+            visit.run();
+            while (!steps.isEmpty()) {
+                steps.pop().run();
             }
+        } finally {
+            steps = null;
+            scope = oldscope;
+        }
+    }
 
+    /**
+     * Pushes the steps running the statements, so they run in order before
+     * the steps pushed earlier.
+     */
+    private void push(List<Ast.Statement> statements) {
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            Ast.Statement statement = statements.get(i);
+            steps.push(() -> visitAt(statement));
+        }
+    }
+
+    /**
+     * Visits the node, and when the source map is known gives an error
+     * thrown from it the position of the node, unless a node within it has
+     * already done so. A {@link Return} is not an error and is left as is.
+     */
+    private void visitAt(Ast ast) {
+        if (sourceMap == null || ast.getStart() < 0) {
+            visit(ast);
+            return;
+        }
+        try {
+            visit(ast);
+        } catch (Return | SourceException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new SourceException(sourceMap.format(ast.getStart()) + ": " + e.getMessage(), ast.getStart(), e);
         }
-        return Environment.NIL;
     }
 
     @Override
@@ -331,48 +419,269 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Expression.Group ast)
     {
-        return visit(ast.getExpression());
+        return evaluateNested(ast);
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Expression.Binary ast)
     {
-        //get the operator (+, -, &&) from the AST node
-        String operator = ast.getOperator();
+        return evaluateNested(ast);
+    }
 
-        //calculate the left side expression
-        Environment.PlcObject left = visit(ast.getLeft());
-        //temp to hold the right
-        Environment.PlcObject right;
+    /**
+     * Evaluates nested groups, binary expressions and calls in the same order
+     * as recursive visits would, but with an explicit stack of the binary
+     * expressions and calls waiting for an operand, so deep nesting is limited
+     * by the heap rather than the thread's stack.
+     *
+     * Compact integer literals and the integer results computed from them
+     * are kept as a long (with a null value) rather than a BigInteger, and
+     * only turned into one when they are used other than as the operand of
+     * another binary expression (see {@link #evaluateCompact}).
+     */
+    private Environment.PlcObject evaluateNested(Ast.Expression root)
+    {
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        Ast.Expression ast = root;
+        while (true)
+        {
+            //descend the left operands and first arguments to the first other expression
+            while (ast instanceof Ast.Expression.Group || ast instanceof Ast.Expression.Binary
+                    || (ast instanceof Ast.Expression.Function && !((Ast.Expression.Function) ast).getArguments().isEmpty()))
+            {
+                if (ast instanceof Ast.Expression.Group)
+                    ast = ((Ast.Expression.Group) ast).getExpression();
+                else if (ast instanceof Ast.Expression.Binary)
+                {
+                    stack.push(new Operands((Ast.Expression.Binary) ast));
+                    ast = ((Ast.Expression.Binary) ast).getLeft();
+                }
+                else
+                {
+                    stack.push(new Arguments((Ast.Expression.Function) ast));
+                    ast = ((Ast.Expression.Function) ast).getArguments().get(0);
+                }
+            }
+            Environment.PlcObject value = null;
+            long number = 0;
+            if (ast instanceof Ast.Expression.Literal && ((Ast.Expression.Literal) ast).isCompactInteger())
+                number = ((Ast.Expression.Literal) ast).getLongValue();
+            else if (ast instanceof Ast.Expression.Function)
+                value = call((Ast.Expression.Function) ast, new ArrayList<>());
+            else
+                value = visit(ast);
+            ast = null;
+            //apply each operator and call whose operands are done, until one needs another operand
+            while (ast == null)
+            {
+                if (stack.isEmpty())
+                    return materialize(value, number);
+                if (stack.peek() instanceof Arguments)
+                {
+                    Arguments arguments = (Arguments) stack.peek();
+                    arguments.values.add(Environment.create(value != null ? value.getValue() : BigInteger.valueOf(number)));
+                    List<Ast.Expression> args = arguments.function.getArguments();
+                    if (arguments.values.size() < args.size())
+                        ast = args.get(arguments.values.size());
+                    else
+                    {
+                        stack.pop();
+                        value = call(arguments.function, arguments.values);
+                    }
+                    continue;
+                }
+                Operands operands = (Operands) stack.peek();
+                String operator = operands.binary.getOperator();
+                if (!operands.evaluated)
+                {
+                    //an integer never short-circuits, and the logical operators fail on it as before
+                    Environment.PlcObject shortCircuit = value != null || operator.equals("&&") || operator.equals("||")
+                            ? evaluateLeft(operator, materialize(value, number))
+                            : evaluateLeft(operator, null);
+                    if (shortCircuit != null)
+                    {
+                        stack.pop();
+                        value = shortCircuit;
+                    }
+                    else
+                    {
+                        operands.evaluated = true;
+                        operands.left = value;
+                        operands.number = number;
+                        ast = operands.binary.getRight();
+                    }
+                }
+                else
+                {
+                    stack.pop();
+                    if (operands.left == null && value == null && evaluateCompact(operator, operands, number))
+                    {
+                        value = operands.left;
+                        number = operands.number;
+                    }
+                    else
+                        value = evaluateBinary(operator, materialize(operands.left, operands.number), materialize(value, number));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the value, or a new BigInteger of the number if it is null.
+     */
+    private static Environment.PlcObject materialize(Environment.PlcObject value, long number)
+    {
+        return value != null ? value : Environment.create(BigInteger.valueOf(number));
+    }
+
+    /**
+     * A binary expression being evaluated, with its left operand once it is
+     * known (as the number if the value is null).
+     */
+    private static final class Operands
+    {
+
+        private final Ast.Expression.Binary binary;
+        private boolean evaluated = false;
+        private Environment.PlcObject left = null;
+        private long number = 0;
+
+        private Operands(Ast.Expression.Binary binary)
+        {
+            this.binary = binary;
+        }
+
+    }
 
+    /**
+     * A call being evaluated, with the values of its arguments so far.
+     */
+    private static final class Arguments
+    {
+
+        private final Ast.Expression.Function function;
+        private final List<Environment.PlcObject> values = new ArrayList<>();
+
+        private Arguments(Ast.Expression.Function function)
+        {
+            this.function = function;
+        }
+
+    }
+
+    /**
+     * Returns the value of a binary expression which is decided by its left
+     * operand, or null if the right operand must be evaluated. The left
+     * operand is only read by the logical operators.
+     */
+    private static Environment.PlcObject evaluateLeft(String operator, Environment.PlcObject left)
+    {
         switch (operator)
         {
             //and - left cant be false
             case "&&":
                 if (!(Boolean) left.getValue()) return Environment.create(false);
-                right = visit(ast.getRight());
-                return Environment.create((Boolean) left.getValue() && (Boolean) right.getValue());
+                return null;
 
             //or - left cant be false
             case "||":
                 if ((Boolean) left.getValue()) return Environment.create(true);
-                right = visit(ast.getRight());
+                return null;
+
+            case "==":
+            case "!=":
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "^":
+            case "<":
+            case ">":
+                return null;
+
+            //if the operator is not supported, throw
+            default:
+                throw new RuntimeException("Unsupported operator: " + operator);
+        }
+    }
+
+    /**
+     * Applies the operator to the integer left operand of the binary
+     * expression and the given right operand, leaving an integer result in
+     * its number and a boolean one in its left value. Returns false if the
+     * result must be computed by {@link #evaluateBinary} instead, which is
+     * the case when the operator is not arithmetic or a comparison, for
+     * {@code ^}, and when the result overflows a long.
+     */
+    private static boolean evaluateCompact(String operator, Operands operands, long right)
+    {
+        long left = operands.number;
+        try
+        {
+            switch (operator)
+            {
+                case "+":
+                    operands.number = Math.addExact(left, right);
+                    return true;
+                case "-":
+                    operands.number = Math.subtractExact(left, right);
+                    return true;
+                case "*":
+                    operands.number = Math.multiplyExact(left, right);
+                    return true;
+                case "/":
+                    if (right == 0)
+                        throw new RuntimeException("Division by zero");
+                    if (left == Long.MIN_VALUE && right == -1)
+                        return false;
+                    //truncates towards zero, as BigInteger does
+                    operands.number = left / right;
+                    return true;
+                case "<":
+                    operands.left = Environment.create(left < right);
+                    return true;
+                case ">":
+                    operands.left = Environment.create(left > right);
+                    return true;
+                case "==":
+                    operands.left = Environment.create(left == right);
+                    return true;
+                case "!=":
+                    operands.left = Environment.create(left != right);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        catch (ArithmeticException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the value of a binary expression from its operands.
+     */
+    private static Environment.PlcObject evaluateBinary(String operator, Environment.PlcObject left, Environment.PlcObject right)
+    {
+        switch (operator)
+        {
+            case "&&":
+                return Environment.create((Boolean) left.getValue() && (Boolean) right.getValue());
+
+            case "||":
                 return Environment.create((Boolean) left.getValue() || (Boolean) right.getValue());
 
             //equality
             case "==":
-                right = visit(ast.getRight());
                 return Environment.create(Objects.equals(left.getValue(), right.getValue()));
 
             //inequality
             case "!=":
-                right = visit(ast.getRight());
                 return Environment.create(!Objects.equals(left.getValue(), right.getValue()));
 
             //addition - needs string concatenation and number addition
             case "+":
-                right = visit(ast.getRight());
-
                 //string concatenation if either operand is a string
                 if (left.getValue() instanceof String || right.getValue() instanceof String)
                     return Environment.create(left.getValue().toString() + right.getValue().toString());
@@ -387,7 +696,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                     throw new RuntimeException("Invalid operands for '+' operation");
 
             case "-":
-                right = visit(ast.getRight());
                 //if both are BigIntegers, subtract
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger)
                     return Environment.create(((BigInteger) left.getValue()).subtract((BigInteger) right.getValue()));
@@ -400,8 +708,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                     throw new RuntimeException("Invalid operands for '-' operation");
 
             case "*":
-                right = visit(ast.getRight());
-
                 //if both are BigIntegers, multiply
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger)
                     return Environment.create(((BigInteger) left.getValue()).multiply((BigInteger) right.getValue()));
@@ -414,8 +720,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                     throw new RuntimeException("Invalid operands for '*' operation");
 
             case "/":
-                right = visit(ast.getRight());
-
                 //check if operands are of numbers and division by zero
                 if ((left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger) ||
                         (left.getValue() instanceof BigDecimal && right.getValue() instanceof BigDecimal))
@@ -440,7 +744,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
                 //power - only for BigInteger
             case "^":
-                right = visit(ast.getRight());
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger)
                     return Environment.create(((BigInteger) left.getValue()).pow(((BigInteger) right.getValue()).intValueExact()));
                 else
@@ -450,7 +753,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 //comparison
             case "<":
             case ">":
-                right = visit(ast.getRight());
                 //check if both sides are comparable and in same class
                 if (left.getValue() instanceof Comparable && right.getValue().getClass().equals(left.getValue().getClass()))
                 {
@@ -476,16 +778,14 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
         Ast.Expression.Access ax = ast;
         if(ax.getOffset().equals(Optional.empty())) {
-            Environment.Variable var = scope.lookupVariable(ax.getName());
-            return var.getValue();
+            return lookup(ax);
         }
         else{
             Ast.Expression.Literal offset = (Ast.Expression.Literal) ax.getOffset().get();
             String strlit = offset.getLiteral().toString();
             int lit = Integer.parseInt(strlit);
-            Environment.Variable var = scope.lookupVariable(ax.getName());
             List<Object> list;
-            list = (List<Object>) var.getValue().getValue();
+            list = (List<Object>) lookup(ax).getValue();
 
             Object value = list.get(lit);
             Environment.PlcObject ob = new Environment.PlcObject(scope,value);
@@ -497,14 +797,14 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Expression.Function ast) {
-        List<Ast.Expression> args= ast.getArguments();
-        List<Environment.PlcObject> obs = new ArrayList<>();
-        for(int i = 0; i<args.size(); i++) {
-            Object x = visit(args.get(i)).getValue();
-            Environment.PlcObject ob = Environment.create(x);
-            obs.add(ob);
-        }
-        Environment.Function fun = scope.lookupFunction(ast.getName(), args.size());
+        return evaluateNested(ast);
+    }
+
+    /**
+     * Calls the function with the values of its arguments.
+     */
+    private Environment.PlcObject call(Ast.Expression.Function ast, List<Environment.PlcObject> obs) {
+        Environment.Function fun = scope.lookupFunction(ast.getName(), obs.size());
         return fun.invoke(obs);
 
     }
@@ -159,15 +159,18 @@ public final class Lexer {
 
         match("[']");
         ind_new = ind_new+1;
-        if (match("\\\\")){
-            if(match("[b]|[n]|[r]|[t]|[']|[\"]|[\\\\]]", "[']")){
-                ind_new = ind_new+3;
-            }
-            else{
-                throw new ParseException("Invalid char!", chars.index);
+        char value;
+        if (peek("\\\\")){
+            if(!peek("\\\\", "[bnrt'\"]", "[']")){
+                throw new ParseException("Invalid char!", chars.index + 1);
             }
+            value = lexEscape();
+            match("[']");
+            ind_new = ind_new+3;
         }
-        else if (match(".","[']")){
+        else if (peek(".","[']")){
+            value = chars.get(0);
+            match(".","[']");
             ind_new = ind_new+2;
         }
         else{
@@ -175,7 +178,7 @@ public final class Lexer {
         }
 
         String lit = chars.input.substring(ind_old,ind_new);
-        Token ret = new Token(idtype, lit, ind_old);
+        Token ret = new Token(idtype, lit, ind_old, String.valueOf(value));
         return ret;
     }
 
@@ -187,18 +190,16 @@ public final class Lexer {
 
         match("[\"]");
         ind_new = ind_new+1;
+        StringBuilder value = new StringBuilder();
         while ((!match("[\"]"))){
 
-            if (match("\\\\")){
-                if(match("[b]|[n]|[r]|[t]|[']|[\"]|[\\\\]]")){
-                    ind_new = ind_new+2;
-
-                }
-                else{
-                    throw new ParseException("Invalid string!", chars.index);
-                }
+            if (peek("\\\\")){
+                value.append(lexEscape());
+                ind_new = ind_new+2;
             }
-            else if (match("[A-Za-z0-9,!?. ]")){
+            else if (peek("[A-Za-z0-9,!?. ]")){
+                value.append(chars.get(0));
+                match("[A-Za-z0-9,!?. ]");
                 ind_new = ind_new+1;
                 if(!peek(".")){
                     throw new ParseException("Invalid string!", chars.index);
@@ -212,12 +213,37 @@ public final class Lexer {
 
         String lit = chars.input.substring(ind_old,ind_new);
         //System.out.println(lit);
-        Token ret = new Token(idtype, lit, ind_old);
+        Token ret = new Token(idtype, lit, ind_old, value.toString());
         return ret;
     }
 
-    public void lexEscape() {
-        throw new UnsupportedOperationException(); //TODO
+    /**
+     * Lexes an escape starting at the backslash and returns the character it
+     * stands for, throwing at the character after the backslash if it is not
+     * a valid escape.
+     */
+    public char lexEscape() {
+        match("\\\\");
+        if (!peek("[bnrt'\"]")) {
+            throw new ParseException("Invalid escape!", chars.index);
+        }
+        char escape = chars.get(0);
+        match(".");
+        return unescape(escape);
+    }
+
+    /**
+     * Returns the character a valid escape (the character after the
+     * backslash) stands for.
+     */
+    static char unescape(char escape) {
+        switch (escape) {
+            case 'b': return '\b';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            default: return escape;
+        }
     }
 
     public Token lexOperator() {
@@ -0,0 +1,194 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Lexes large inputs on a {@link ForkJoinPool}, producing exactly the same
+ * tokens (or the same exception) as {@link Lexer#lex()}.
+ *
+ * No token contains a {@code \n} or looks past one (strings and characters
+ * reject it), so the lexer always starts fresh after a newline. The input is
+ * split into chunks ending just after a newline and each chunk is lexed by its
+ * own {@link TableLexer} bounded to that chunk. Tokens are indexed in the
+ * whole input, so the chunks are merged by concatenation.
+ *
+ * Two cases need care when merging. A chunk which stops early at a line
+ * terminator such as {@code \r} ends lexing, so all later chunks are dropped.
+ * Otherwise the exception of the earliest failing chunk is thrown, as that is
+ * the first one a sequential lexer would reach.
+ */
+public final class ParallelLexer {
+
+    /**
+     * The default minimum chunk size, in characters. Smaller chunks are not
+     * worth the overhead of a task.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private final TableLexer.CharStream chars;
+    private final int length;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelLexer(String input) {
+        this(input, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a lexer using the given pool, splitting the input into chunks of
+     * at least chunkSize characters (and about four per thread).
+     */
+    public ParallelLexer(String input, ForkJoinPool pool, int chunkSize) {
+        this(new TableLexer.StringStream(input), pool, chunkSize);
+    }
+
+    /**
+     * Creates a lexer over a memory-mapped file, as with
+     * {@link TableLexer#TableLexer(Path)}.
+     */
+    public ParallelLexer(Path path, ForkJoinPool pool, int chunkSize) throws IOException {
+        this(TableLexer.map(path), pool, chunkSize);
+    }
+
+    private ParallelLexer(TableLexer.CharStream chars, ForkJoinPool pool, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        this.chars = chars;
+        this.length = chars.length();
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Lexes the entire input, equivalent to {@link Lexer#lex()}.
+     */
+    public List<Token> lex() {
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+        int size = Math.max(chunkSize, length / (4 * pool.getParallelism()) + 1);
+        int start = 0;
+        while (start < length) {
+            int end = boundary(start + size);
+            int from = start;
+            tasks.add(pool.submit(() -> lexChunk(from, end)));
+            start = end;
+        }
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            Chunk chunk = tasks.get(i).join();
+            if (chunk.exception != null) {
+                cancel(tasks, i + 1);
+                throw chunk.exception;
+            }
+            tokens.addAll(chunk.tokens);
+            if (chunk.stopped) {
+                cancel(tasks, i + 1);
+                break;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the index just after the first newline at or after index, or the
+     * length of the input if there is none.
+     */
+    private int boundary(int index) {
+        while (index < length) {
+            if (chars.get(index++) == '\n') {
+                return index;
+            }
+        }
+        return length;
+    }
+
+    private Chunk lexChunk(int start, int end) {
+        TableLexer lexer = new TableLexer(new Range(chars, end), start);
+        try {
+            List<Token> tokens = lexer.lex();
+            return new Chunk(tokens, lexer.getIndex() < end, null);
+        } catch (ParseException e) {
+            return new Chunk(null, false, e);
+        }
+    }
+
+    private static void cancel(List<ForkJoinTask<Chunk>> tasks, int from) {
+        for (int i = from; i < tasks.size(); i++) {
+            tasks.get(i).cancel(false);
+        }
+    }
+
+    /**
+     * The result of lexing a chunk: its tokens and whether lexing stopped
+     * before the end of the chunk, or the exception it failed with.
+     */
+    private static final class Chunk {
+
+        private final List<Token> tokens;
+        private final boolean stopped;
+        private final ParseException exception;
+
+        private Chunk(List<Token> tokens, boolean stopped, ParseException exception) {
+            this.tokens = tokens;
+            this.stopped = stopped;
+            this.exception = exception;
+        }
+
+    }
+
+    /**
+     * A view of a stream which ends at the given index.
+     */
+    private static final class Range extends TableLexer.CharStream {
+
+        private final TableLexer.CharStream chars;
+        private final int end;
+
+        private Range(TableLexer.CharStream chars, int end) {
+            this.chars = chars;
+            this.end = end;
+        }
+
+        @Override
+        public boolean has(int index) {
+            return index < end;
+        }
+
+        @Override
+        public char get(int index) {
+            return chars.get(index);
+        }
+
+        @Override
+        public int skipWhitespace(int index) {
+            return Math.min(chars.skipWhitespace(index), end);
+        }
+
+        @Override
+        public int skipIdentifier(int index) {
+            return Math.min(chars.skipIdentifier(index), end);
+        }
+
+        @Override
+        public int skipDigits(int index) {
+            return Math.min(chars.skipDigits(index), end);
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            return chars.slice(start, end);
+        }
+
+        @Override
+        public Token emit(Token.Type type, int start, int end, String value, int symbol) {
+            return chars.emit(type, start, end, value, symbol);
+        }
+
+    }
+
+}
@@ -1,10 +1,14 @@
 package plc.project;
 import java.math.BigInteger;
 import java.math.BigDecimal;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -21,25 +25,393 @@ import java.util.List;
  */
 public final class Parser {
 
+    private static final int LOGICAL = 1;
+    private static final int COMPARISON = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
+    /**
+     * The precedence of each binary operator by symbol id, or 0 for symbols
+     * which are not binary operators, with {@link #OPERATORS} holding their
+     * literals. All operators are left-associative.
+     */
+    private static final int[] PRECEDENCE = new int[SymbolTable.CARET + 1];
+    private static final String[] OPERATORS = new String[SymbolTable.CARET + 1];
+
+    static {
+        operator(SymbolTable.AND, "&&", LOGICAL);
+        operator(SymbolTable.OR, "||", LOGICAL);
+        operator(SymbolTable.LESS, "<", COMPARISON);
+        operator(SymbolTable.GREATER, ">", COMPARISON);
+        operator(SymbolTable.DOUBLE_EQUALS, "==", COMPARISON);
+        operator(SymbolTable.NOT_EQUALS, "!=", COMPARISON);
+        operator(SymbolTable.PLUS, "+", ADDITIVE);
+        operator(SymbolTable.MINUS, "-", ADDITIVE);
+        operator(SymbolTable.STAR, "*", MULTIPLICATIVE);
+        operator(SymbolTable.SLASH, "/", MULTIPLICATIVE);
+        operator(SymbolTable.CARET, "^", MULTIPLICATIVE);
+    }
+
+    private static final byte EXPRESSION = 0;
+    private static final byte DECLARATION = 1;
+    private static final byte SWITCH = 2;
+    private static final byte IF = 3;
+    private static final byte WHILE = 4;
+    private static final byte RETURN = 5;
+    private static final byte BLOCK_END = 6;
+    //the kinds of nested blocks which are not statements of their own
+    private static final byte CASE = 7;
+    private static final byte BLOCK = 8;
+
+    /**
+     * The kind of statement started by each symbol (its FIRST set), or
+     * {@link #BLOCK_END} for the symbols which end a block (its FOLLOW set).
+     * Any other token starts an expression or assignment statement.
+     */
+    private static final byte[] STATEMENTS = new byte[SymbolTable.CARET + 1];
+
+    static {
+        STATEMENTS[SymbolTable.LET] = DECLARATION;
+        STATEMENTS[SymbolTable.SWITCH] = SWITCH;
+        STATEMENTS[SymbolTable.IF] = IF;
+        STATEMENTS[SymbolTable.WHILE] = WHILE;
+        STATEMENTS[SymbolTable.RETURN] = RETURN;
+        STATEMENTS[SymbolTable.END] = BLOCK_END;
+        STATEMENTS[SymbolTable.DEFAULT] = BLOCK_END;
+        STATEMENTS[SymbolTable.SEMICOLON] = BLOCK_END;
+        STATEMENTS[SymbolTable.ELSE] = BLOCK_END;
+        STATEMENTS[SymbolTable.CASE] = BLOCK_END;
+    }
+
+    /**
+     * The symbols after which a new statement starts within a block.
+     */
+    private static final boolean[] STATEMENT_STARTS = new boolean[SymbolTable.CARET + 1];
+
+    static {
+        for (int symbol : new int[] {SymbolTable.DO, SymbolTable.SEMICOLON, SymbolTable.END,
+                SymbolTable.ELSE, SymbolTable.DEFAULT, SymbolTable.COLON}) {
+            STATEMENT_STARTS[symbol] = true;
+        }
+    }
+
+    private static void operator(int symbol, String literal, int precedence) {
+        PRECEDENCE[symbol] = precedence;
+        OPERATORS[symbol] = literal;
+    }
+
     private final TokenStream tokens;
+    private final SourceMap sourceMap;
+    private List<ParseException> diagnostics = null;
 
     public Parser(List<Token> tokens) {
+        this(tokens, null);
+    }
+
+    /**
+     * Creates a parser whose positions are reported through the given map of
+     * the source the tokens were lexed from.
+     */
+    public Parser(List<Token> tokens, SourceMap sourceMap) {
+        this.tokens = new TokenStream(tokens);
+        this.sourceMap = sourceMap;
+    }
+
+    private Parser(TokenStream tokens, SourceMap sourceMap) {
+        this.tokens = tokens;
+        this.sourceMap = sourceMap;
+    }
+
+    /**
+     * Creates a parser reading directly from a {@link TokenBuffer}, which
+     * avoids creating a {@link Token} for every token that is only peeked.
+     */
+    public Parser(TokenBuffer tokens) {
         this.tokens = new TokenStream(tokens);
+        this.sourceMap = tokens.getSourceMap();
+    }
+
+    /**
+     * Returns the map of the source, if it is known.
+     */
+    public Optional<SourceMap> getSourceMap() {
+        return Optional.ofNullable(sourceMap);
+    }
+
+    /**
+     * Returns the offset in the source of the token at the given index, such
+     * as the index of a {@link ParseException} thrown by the parser. An index
+     * past the last token maps to the end of the last token.
+     */
+    public int getOffset(int index) {
+        return tokens.offset(index);
+    }
+
+    /**
+     * Formats the position of the token at the given index as
+     * {@code line:column}, using the map of the source.
+     */
+    public String getPosition(int index) {
+        if (sourceMap == null) {
+            throw new IllegalStateException("The source map is unknown.");
+        }
+        return sourceMap.format(tokens.offset(index));
+    }
+
+    /**
+     * Records the offset of the token at the given index as the start of the
+     * node, which is returned.
+     */
+    private <T extends Ast> T at(int start, T ast) {
+        ast.setStart(tokens.offset(start));
+        return ast;
+    }
+
+    /**
+     * Returns the index of the next token to be parsed.
+     */
+    int getIndex() {
+        return tokens.index;
+    }
+
+    /**
+     * Moves the parser to the token at the given index, so a single rule can
+     * be parsed from there (as done by {@link IncrementalParser}).
+     */
+    void setIndex(int index) {
+        tokens.index = index;
     }
 
     /**
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
+        return parseSource(false);
+    }
+
+    /**
+     * Parses the {@code source} rule, but only parses the signature of each
+     * function up front. The body is skipped to its matching {@code END} and
+     * parsed the first time {@link Ast.Function#getStatements()} is called,
+     * so any {@link ParseException} in a body is thrown from there instead.
+     *
+     * The body is skipped by following the statement and expression rules
+     * without creating nodes (see {@link #skipBody()}), so every source
+     * accepted by {@link #parseSource()} gives the same functions. A body
+     * which does not parse is instead skipped to an {@code END} found by
+     * counting, and its error is thrown when its statements are requested;
+     * if that count finds the wrong {@code END}, the rest of the source may
+     * fail to parse with an error of its own.
+     *
+     * The {@link Analyzer} only checks the signature of a skipped function,
+     * and analyzes the body when it is first read, such as by a call; errors
+     * in the body are then thrown from there as well. A body which is never
+     * read is neither parsed nor analyzed.
+     */
+    public Ast.Source parseSourceLazily() throws ParseException {
+        return parseSource(true);
+    }
+
+    /**
+     * Parses the {@code source} rule into a {@link FlatAst}. Each global and
+     * function is added to the encoding as soon as it is parsed, so only the
+     * objects of one function are alive at a time.
+     */
+    public FlatAst parseFlatSource() throws ParseException {
+        FlatAst ast = new FlatAst();
+        List<Integer> globals = new ArrayList<>();
+        List<Integer> functions = new ArrayList<>();
+
+        while (peek(SymbolTable.LIST)|peek(SymbolTable.VAL)|peek(SymbolTable.VAR)){
+            globals.add(ast.add(parseGlobal()));
+        }
+        while (match(SymbolTable.FUN)){
+            functions.add(ast.add(parseFunction()));
+        }
+        ast.addSource(globals.stream().mapToInt(Integer::intValue).toArray(), functions.stream().mapToInt(Integer::intValue).toArray());
+        return ast;
+    }
+
+    /**
+     * Parses the {@code source} rule, parsing the functions in parallel on the
+     * common pool (see {@link #parseSourceInParallel(ForkJoinPool)}).
+     */
+    public Ast.Source parseSourceInParallel() throws ParseException {
+        return parseSourceInParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the {@code source} rule, parsing the functions in parallel on the
+     * given pool. The result and any {@link ParseException} are the same as
+     * with {@link #parseSource()}.
+     *
+     * The tokens are scanned for the {@code FUN} starting each function by
+     * counting the blocks of each body (see {@link #skipToEnd(TokenStream)}),
+     * and each function is submitted to be parsed on its own stream as soon
+     * as its start is found, so the scan runs alongside the parsing. Results
+     * are taken in source order, so the first failing function's exception
+     * is thrown. The count is only an estimate, so if a function does not end
+     * where the scan expected, the rest of the source is parsed sequentially.
+     */
+    public Ast.Source parseSourceInParallel(ForkJoinPool pool) throws ParseException {
         List<Ast.Global> globals = new ArrayList<>();
         List<Ast.Function> functions = new ArrayList<>();
 
-        while (peek("LIST")|peek("VAL")|peek("VAR")){
+        while (peek(SymbolTable.LIST)|peek(SymbolTable.VAL)|peek(SymbolTable.VAR)){
             globals.add(parseGlobal());
         }
-        while (match("FUN")){
+        List<Integer> ends = new ArrayList<>();
+        List<ForkJoinTask<ParsedFunction>> tasks = new ArrayList<>();
+        TokenStream scan = new TokenStream(tokens, tokens.index);
+        while (scan.has(0) && scan.getSymbol(0) == SymbolTable.FUN) {
+            int start = scan.index;
+            scan.advance();
+            while (scan.has(0) && scan.getSymbol(0) != SymbolTable.DO && scan.getSymbol(0) != SymbolTable.FUN && scan.getSymbol(0) != SymbolTable.END)
+                scan.advance();
+            if (!scan.has(0) || scan.getSymbol(0) != SymbolTable.DO)
+                break;
+            scan.advance();
+            if (!skipToEnd(scan))
+                break;
+            scan.advance();
+            TokenStream stream = new TokenStream(tokens, start);
+            tasks.add(pool.submit(() -> parseFunction(stream)));
+            ends.add(scan.index);
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            ParsedFunction parsed = tasks.get(i).join();
+            if (parsed.exception == null && parsed.end != ends.get(i)) {
+                break;
+            } else if (parsed.exception != null) {
+                for (int j = i + 1; j < tasks.size(); j++)
+                    tasks.get(j).cancel(false);
+                throw parsed.exception;
+            }
+            functions.add(parsed.function);
+            tokens.index = parsed.end;
+        }
+        for (int i = functions.size(); i < tasks.size(); i++)
+            tasks.get(i).cancel(false);
+        while (match(SymbolTable.FUN)){
             functions.add(parseFunction());
         }
+        return new Ast.Source(globals, functions);
+    }
+
+    /**
+     * Parses a function starting at its {@code FUN} on the given stream the
+     * same way {@link #parseSource()} does, recording where it ended or the
+     * exception it failed with.
+     */
+    private ParsedFunction parseFunction(TokenStream stream) {
+        Parser parser = new Parser(stream, sourceMap);
+        try {
+            parser.match(SymbolTable.FUN);
+            Ast.Function function = parser.parseFunction();
+            return new ParsedFunction(function, parser.tokens.index, null);
+        } catch (RuntimeException e) {
+            return new ParsedFunction(null, parser.tokens.index, e);
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule, recovering from errors instead of
+     * throwing the first one, so every error is found in a single pass. Each
+     * error is added to the given diagnostics in source order, and parsing
+     * resumes at the next statement or declaration boundary (see
+     * {@link #synchronize()}).
+     *
+     * The result is partial: a global or statement with an error is left out,
+     * as is a function whose signature has an error, so its diagnostic is the
+     * only record of it. A function whose {@code END} is missing is closed at
+     * the next {@code FUN} (or the end of the tokens) with the statements
+     * parsed up to there. If no diagnostics were added, the
+     * result is the same as with {@link #parseSource()}, except that tokens
+     * left after the last function are reported rather than ignored.
+     */
+    public Ast.Source parseSourceRecovering(List<ParseException> diagnostics) {
+        this.diagnostics = diagnostics;
+        try {
+            List<Ast.Global> globals = new ArrayList<>();
+            List<Ast.Function> functions = new ArrayList<>();
+            boolean declarations = true;
+
+            while (tokens.has(0)) {
+                int start = tokens.index;
+                try {
+                    if (declarations && (peek(SymbolTable.LIST)|peek(SymbolTable.VAL)|peek(SymbolTable.VAR))) {
+                        globals.add(parseGlobal());
+                    } else if (match(SymbolTable.FUN)) {
+                        declarations = false;
+                        functions.add(parseFunction());
+                    } else {
+                        throw new ParseException("Expected FUN", tokens.index);
+                    }
+                } catch (RuntimeException e) {
+                    report(e);
+                    if (tokens.index == start)
+                        tokens.advance();
+                    //skip to the next global or function
+                    while (tokens.has(0) && !peek(SymbolTable.FUN)
+                            && !(declarations && (peek(SymbolTable.LIST)|peek(SymbolTable.VAL)|peek(SymbolTable.VAR))))
+                        tokens.advance();
+                }
+            }
+            return new Ast.Source(globals, functions);
+        } finally {
+            this.diagnostics = null;
+        }
+    }
+
+    /**
+     * Adds an error to the diagnostics. An error other than a
+     * {@link ParseException} (such as from a statement which is not
+     * terminated) is reported at the current token.
+     */
+    private void report(RuntimeException e) {
+        if (e instanceof ParseException)
+            diagnostics.add((ParseException) e);
+        else if (!tokens.has(0))
+            diagnostics.add(new ParseException("Unexpected end of input", tokens.index));
+        else
+            diagnostics.add(new ParseException(e.getMessage() != null ? e.getMessage() : "Unexpected token", tokens.index));
+    }
+
+    /**
+     * Skips the rest of a statement with an error, through its {@code ;} or
+     * up to the next token which ends a block or starts a statement or
+     * function. A {@code DO} block in between is skipped through its
+     * {@code END}, so an {@code IF} or {@code WHILE} with an error in its
+     * condition is skipped whole.
+     */
+    private void synchronize() {
+        while (tokens.has(0)) {
+            int symbol = tokens.getSymbol(0);
+            if (symbol == SymbolTable.SEMICOLON) {
+                tokens.advance();
+                return;
+            } else if (symbol == SymbolTable.DO) {
+                tokens.advance();
+                if (skipToEnd(tokens))
+                    tokens.advance();
+                return;
+            } else if (symbol == SymbolTable.FUN || statementKind() != EXPRESSION) {
+                return;
+            }
+            tokens.advance();
+        }
+    }
+
+    private Ast.Source parseSource(boolean lazy) throws ParseException {
+        List<Ast.Global> globals = new ArrayList<>();
+        List<Ast.Function> functions = new ArrayList<>();
+
+        while (peek(SymbolTable.LIST)|peek(SymbolTable.VAL)|peek(SymbolTable.VAR)){
+            globals.add(parseGlobal());
+        }
+        while (match(SymbolTable.FUN)){
+            functions.add(parseFunction(lazy));
+        }
         Ast.Source ret = new Ast.Source(globals, functions);
         return ret;
 
@@ -51,16 +423,17 @@ public final class Parser {
      */
     public Ast.Global parseGlobal() throws ParseException {
         Ast.Global ret = null;
-        if (match("LIST")){
-            ret = parseList();
+        int start = tokens.index;
+        if (match(SymbolTable.LIST)){
+            ret = at(start, parseList());
         }
-        else if (match("VAL")){
-            ret =  parseImmutable();
+        else if (match(SymbolTable.VAL)){
+            ret =  at(start, parseImmutable());
         }
-        else if (match("VAR")){
-            ret =  parseMutable();
+        else if (match(SymbolTable.VAR)){
+            ret =  at(start, parseMutable());
         }
-        if(!match(";")){
+        if(!match(SymbolTable.SEMICOLON)){
             throw new ParseException("Missing ;",tokens.index);
         }
 
@@ -81,7 +454,7 @@ public final class Parser {
         name = tokens.get(0).getLiteral();
         match(Token.Type.IDENTIFIER);
 
-        if(match(":")){
+        if(match(SymbolTable.COLON)){
             if(!peek(Token.Type.IDENTIFIER)){
                 throw new ParseException("No type after :", tokens.index);
             }
@@ -90,20 +463,21 @@ public final class Parser {
             hastype = true;
         }
 
-        if(!match("=","[")){
+        if(!match(SymbolTable.EQUALS, SymbolTable.LEFT_BRACKET)){
             throw new ParseException("No [ after List statement declaration",tokens.index);
         }
+        int start = tokens.index - 1;
 
         List<Ast.Expression> values = new ArrayList<>();
         values.add(parseExpression());
-        while (match(",")){
+        while (match(SymbolTable.COMMA)){
             values.add(parseExpression());
         }
-        if(!match("]")){
+        if(!match(SymbolTable.RIGHT_BRACKET)){
             throw new ParseException("No ] after List statement declaration",tokens.index);
         }
 
-        Ast.Expression.PlcList list = new Ast.Expression.PlcList(values);
+        Ast.Expression.PlcList list = at(start, new Ast.Expression.PlcList(values));
         //list.setType(Environment.Type.);
         if(hastype){
             Ast.Global ret = new Ast.Global(name, type, true, Optional.of(list));
@@ -129,16 +503,16 @@ public final class Parser {
 
         Ast.Expression exp;
         String type = "";
-        if(match("=")){
+        if(match(SymbolTable.EQUALS)){
             exp = parseExpression();
             Ast.Global ret = new Ast.Global(name, true, Optional.ofNullable(exp));
             return ret;
-        } else if (match(":")) {
+        } else if (match(SymbolTable.COLON)) {
             type = tokens.get(0).getLiteral();
             //System.out.println(type);
             match(Token.Type.IDENTIFIER);
-            if(peek("=")) {
-                match("=");
+            if(peek(SymbolTable.EQUALS)) {
+                match(SymbolTable.EQUALS);
             }
             else{
                 //throw new ParseException("Value must be defined for mutable",tokens.index);
@@ -171,16 +545,16 @@ public final class Parser {
 
         Ast.Expression exp;
         String type = "";
-        if(match("=")){
+        if(match(SymbolTable.EQUALS)){
             exp = parseExpression();
             Ast.Global ret = new Ast.Global(name, false, Optional.ofNullable(exp));
             return ret;
-        } else if (match(":")) {
+        } else if (match(SymbolTable.COLON)) {
             type = tokens.get(0).getLiteral();
             //System.out.println(type);
             match(Token.Type.IDENTIFIER);
-            if(peek("=")) {
-                match("=");
+            if(peek(SymbolTable.EQUALS)) {
+                match(SymbolTable.EQUALS);
             }
             else{
                 throw new ParseException("Value must be defined for immutable",tokens.index);
@@ -202,7 +576,13 @@ public final class Parser {
      * next tokens start a method, aka {@code FUN}.
      */
     public Ast.Function parseFunction() throws ParseException {
-        match("FUN");
+        return parseFunction(false);
+    }
+
+    private Ast.Function parseFunction(boolean lazy) throws ParseException {
+        //the FUN is usually matched by the caller already
+        match(SymbolTable.FUN);
+        int start = tokens.index - 1;
         String name;
         String type = "";
         boolean hastype = false;
@@ -212,7 +592,7 @@ public final class Parser {
         name = tokens.get(0).getLiteral();
         //System.out.println(name);
         match(Token.Type.IDENTIFIER);
-        if(!match("(")){
+        if(!match(SymbolTable.LEFT_PAREN)){
             throw new ParseException("No (",tokens.index);
         }
 
@@ -222,28 +602,28 @@ public final class Parser {
 
             values.add(tokens.get(0).getLiteral());
             match(Token.Type.IDENTIFIER);
-            if(match(":")){
+            if(match(SymbolTable.COLON)){
                 parametertypes.add(tokens.get(0).getLiteral());
                 match(Token.Type.IDENTIFIER);
             }
-            while (match(",")) {
+            while (match(SymbolTable.COMMA)) {
                 if (!peek(Token.Type.IDENTIFIER)) {
                     throw new ParseException("Identifier missing", tokens.index);
                 }
                 values.add(tokens.get(0).getLiteral());
                 match(Token.Type.IDENTIFIER);
-                if(match(":")){
+                if(match(SymbolTable.COLON)){
                     parametertypes.add(tokens.get(0).getLiteral());
                     match(Token.Type.IDENTIFIER);
                 }
             }
 
         }
-        if (!match(")")) {
+        if (!match(SymbolTable.RIGHT_PAREN)) {
             throw new ParseException("No )", tokens.index);
         }
 
-        if(match(":")){
+        if(match(SymbolTable.COLON)){
             type = tokens.get(0).getLiteral();
             //System.out.println(type);
             match(Token.Type.IDENTIFIER);
@@ -251,20 +631,32 @@ public final class Parser {
         }
 
 
-        if(!match("DO")){
+        if(!match(SymbolTable.DO)){
             throw new ParseException("Missing DO",tokens.index);
         }
+        if (lazy) {
+            Supplier<List<Ast.Statement>> body = skipBody();
+            if (hastype) {
+                return at(start, new Ast.Function(name, values, parametertypes, Optional.ofNullable(type), body));
+            }
+            return at(start, new Ast.Function(name, values, body));
+        }
         List<Ast.Statement> statements = parseBlock();
-        if(!match("END")){
-            throw new ParseException("Missing END",tokens.index);
+        if(!match(SymbolTable.END)){
+            //when recovering, a body cut off by the next function or the end of
+            //the tokens is closed there, keeping the statements parsed so far
+            if (isBlockEnd() && statementKind() != BLOCK_END)
+                report(new ParseException("Missing END",tokens.index));
+            else
+                throw new ParseException("Missing END",tokens.index);
         }
         if(hastype){
 
-            Ast.Function ret = new Ast.Function(name, values, parametertypes, Optional.ofNullable(type), statements);
+            Ast.Function ret = at(start, new Ast.Function(name, values, parametertypes, Optional.ofNullable(type), statements));
             return ret;
         }
         else {
-            Ast.Function ret = new Ast.Function(name, values, statements);
+            Ast.Function ret = at(start, new Ast.Function(name, values, statements));
             return ret;
         }
 
@@ -275,47 +667,466 @@ public final class Parser {
      * preceding token indicates the opening a block of statements.
      */
     public List<Ast.Statement> parseBlock() throws ParseException {
-        List<Ast.Statement> statements = new ArrayList<>();
-        while(!peek("END") && !peek("DEFAULT")&& !peek(";")&& !peek("ELSE")&& !peek("CASE")){
-            statements.add(parseStatement());
+        return parseNested(new Nested(BLOCK, tokens.index, null)).statements;
+    }
+
+    /**
+     * Parses the blocks of a nested statement (or a block of its own) through
+     * to the end of the statement, and returns it with its
+     * {@link Nested#statement}.
+     *
+     * Instead of recursing for each nested statement, the statements whose
+     * blocks are still open are kept on an explicit stack, so deeply nested
+     * blocks are limited by the heap rather than the thread's stack. The
+     * tokens are consumed in the same order as by recursion, and when
+     * recovering an error is handled by the innermost block containing the
+     * statement it is thrown from.
+     */
+    private Nested parseNested(Nested bottom) throws ParseException {
+        ArrayDeque<Nested> stack = new ArrayDeque<>();
+        stack.push(bottom);
+        while (true) {
+            Nested nested = stack.peek();
+            int start = tokens.index;
+            //whether an error is thrown by a statement within the block of nested,
+            //rather than by nested itself
+            boolean within = false;
+            try {
+                if (nested.kind == SWITCH) {
+                    if (parseCase(nested, stack))
+                        continue;
+                } else if (!isBlockEnd()) {
+                    within = true;
+                    switch (statementKind()) {
+                        case IF:
+                            stack.push(startIf());
+                            break;
+                        case WHILE:
+                            stack.push(startWhile());
+                            break;
+                        case SWITCH:
+                            stack.push(startSwitch());
+                            break;
+                        default:
+                            nested.statements.add(parseStatement());
+                    }
+                    continue;
+                } else if (!endBlock(nested)) {
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                if (!within) {
+                    stack.pop();
+                    start = nested.start;
+                }
+                if (diagnostics == null || stack.isEmpty())
+                    throw e;
+                report(e);
+                if (tokens.index == start)
+                    tokens.advance();
+                synchronize();
+                continue;
+            }
+            //the statement is complete and belongs to the one containing it
+            if (nested.statement != null)
+                at(nested.start, nested.statement);
+            stack.pop();
+            if (stack.isEmpty())
+                return nested;
+            Nested parent = stack.peek();
+            if (parent.kind == SWITCH)
+                parent.cases.add((Ast.Statement.Case) nested.statement);
+            else
+                parent.statements.add(nested.statement);
         }
-        return statements;
     }
 
     /**
-     * Parses the {@code statement} rule and delegates to the necessary method.
-     * If the next tokens do not start a declaration, if, while, or return
-     * statement, then it is an expression/assignment statement.
+     * Returns true if the next token ends the current block. When recovering,
+     * a {@code FUN} or the end of the tokens means the {@code END} is missing.
      */
-    public Ast.Statement parseStatement() throws ParseException {
+    private boolean isBlockEnd() {
+        if (statementKind() == BLOCK_END)
+            return true;
+        return diagnostics != null && (!tokens.has(0) || peek(SymbolTable.FUN));
+    }
 
-        if (peek("LET")){
-            return parseDeclarationStatement();
-        }
-        else if (peek("SWITCH")){
-            return parseSwitchStatement();
+    /**
+     * Ends the current block of the nested statement, returning true if the
+     * statement is complete or false if another of its blocks follows.
+     */
+    private boolean endBlock(Nested nested) throws ParseException {
+        switch (nested.kind) {
+            case IF:
+                if (!nested.last) {
+                    Boolean y = match(SymbolTable.SEMICOLON);
+                    if(match(SymbolTable.END)){
+                        nested.statement = new Ast.Statement.If(
+                                nested.condition,
+                                nested.statements,
+                                Arrays.asList()
+                        );
+                        return true;
+                    }
+                    else if(match(SymbolTable.ELSE)){
+                        if(peek(Token.Type.IDENTIFIER)){
+                            //same thing here
+                            nested.last = true;
+                            nested.thenStatements = nested.statements;
+                            nested.statements = new ArrayList<>();
+                            return false;
+                        }
+                        else{
+                            throw new ParseException("Improper else statement",tokens.index);
+                        }
+                    }
+                    else{
+                        throw new ParseException("Improper Ending to if statement",tokens.index);
+                    }
+                }
+                match(SymbolTable.SEMICOLON, SymbolTable.END);
+                nested.statement = new Ast.Statement.If(
+                        nested.condition,
+                        nested.thenStatements,
+                        nested.statements
+                );
+                return true;
+            case WHILE:
+                if(!match(SymbolTable.END)){
+                    throw new ParseException("No END to while loop",tokens.index);
+                }
+                nested.statement = new Ast.Statement.While(nested.condition, nested.statements);
+                return true;
+            case CASE:
+                nested.statement = new Ast.Statement.Case(Optional.ofNullable(nested.condition), nested.statements);
+                return true;
+            default:
+                return true;
         }
-        else if (peek("IF")){
-            return parseIfStatement();
+    }
+
+    /**
+     * Skips a function body, from after {@code DO} to past its {@code END},
+     * and returns a supplier which parses the body on its own token stream.
+     * The {@code END} is found by {@link #skipToBodyEnd(TokenStream)}.
+     */
+    private Supplier<List<Ast.Statement>> skipBody() throws ParseException {
+        int start = tokens.index;
+        if (!skipToBodyEnd(tokens))
+            throw new ParseException("Missing END", tokens.index);
+        int end = tokens.index;
+        tokens.advance();
+        TokenStream stream = tokens;
+        SourceMap sourceMap = this.sourceMap;
+        return () -> {
+            Parser parser = new Parser(new TokenStream(stream, start), sourceMap);
+            List<Ast.Statement> statements = parser.parseBlock();
+            if (parser.tokens.index != end)
+                throw new ParseException("Missing END", parser.tokens.index);
+            return statements;
+        };
+    }
+
+    /**
+     * Advances the stream from just after a {@code DO} to the {@code END}
+     * closing the function body, returning false if there is none. The body
+     * is skipped with {@link #skipBlock()}, which consumes the same tokens as
+     * {@link #parseBlock()}. If the body does not parse, the stream falls
+     * back to {@link #skipToEnd(TokenStream)} so that the error can be
+     * reported by the parse of the body.
+     */
+    private boolean skipToBodyEnd(TokenStream stream) {
+        int start = stream.index;
+        Parser skipper = new Parser(stream, sourceMap);
+        try {
+            skipper.skipBlock();
+            if (skipper.peek(SymbolTable.END))
+                return true;
+        } catch (ParseException e) {
+            //the body is parsed again when its statements are requested
+        }
+        stream.index = start;
+        return skipToEnd(stream);
+    }
+
+    /**
+     * Advances the stream from just after a {@code DO} to the {@code END}
+     * matching it, returning false if the tokens run out first. The
+     * {@code END} is found by counting {@code IF}, {@code WHILE} and
+     * {@code SWITCH} at the start of a statement, which each end with an
+     * {@code END} of their own, except that an {@code IF} with an
+     * {@code ELSE} leaves its {@code END} to the enclosing block. That is only
+     * an estimate: an {@code ELSE} block ending with {@code ; END} consumes
+     * its {@code END} (see {@link #parseIfStatement()}), and a name such as
+     * {@code IF} is counted wherever it starts a statement.
+     */
+    private static boolean skipToEnd(TokenStream tokens) {
+        int depth = 1;
+        int previous = SymbolTable.DO;
+        while (tokens.has(0)) {
+            int symbol = tokens.getSymbol(0);
+            if (symbol == SymbolTable.END && --depth == 0)
+                return true;
+            if ((symbol == SymbolTable.IF || symbol == SymbolTable.WHILE || symbol == SymbolTable.SWITCH)
+                    && previous >= 0 && previous < STATEMENT_STARTS.length && STATEMENT_STARTS[previous])
+                depth++;
+            else if (symbol == SymbolTable.ELSE && depth > 1)
+                depth--;
+            previous = symbol;
+            tokens.advance();
+        }
+        return false;
+    }
+
+    /**
+     * Skips the tokens {@link #parseBlock()} would consume, without creating
+     * nodes. The skip methods below follow the parse methods of the same
+     * rules token for token, and throw a {@link ParseException} wherever
+     * those would throw, though not always with the same message. Nested
+     * blocks are kept on an explicit stack as in {@link #parseNested(Nested)}.
+     */
+    private void skipBlock() throws ParseException {
+        ArrayDeque<Nested> stack = new ArrayDeque<>();
+        stack.push(new Nested(BLOCK, tokens.index, null));
+        while (true) {
+            Nested nested = stack.peek();
+            if (nested.kind == SWITCH) {
+                if (!nested.last && (peek(SymbolTable.CASE) || peek(SymbolTable.DEFAULT))) {
+                    nested.last = peek(SymbolTable.DEFAULT);
+                    stack.push(skipCase());
+                    continue;
+                }
+                if (!nested.last)
+                    throw new ParseException("No Default Statement", tokens.index);
+                if (!match(SymbolTable.END))
+                    throw new ParseException("No End Statement", tokens.index);
+            } else if (statementKind() != BLOCK_END) {
+                Nested statement = skipStatement();
+                if (statement != null)
+                    stack.push(statement);
+                continue;
+            } else if (!skipBlockEnd(nested)) {
+                continue;
+            }
+            stack.pop();
+            if (stack.isEmpty())
+                return;
         }
-        else if (peek("WHILE")){
-            return parseWhileStatement();
+    }
+
+    /**
+     * Skips a statement, or the start of a statement with blocks, which is
+     * returned to skip its blocks.
+     */
+    private Nested skipStatement() throws ParseException {
+        int start = tokens.index;
+        switch (statementKind()) {
+            case DECLARATION:
+                tokens.advance();
+                if (!match(Token.Type.IDENTIFIER))
+                    throw new ParseException("No identifier!", tokens.index);
+                if (match(SymbolTable.SEMICOLON))
+                    return null;
+                if (match(SymbolTable.COLON)) {
+                    match(Token.Type.IDENTIFIER);
+                    if (match(SymbolTable.EQUALS))
+                        skipExpression();
+                    return null;
+                }
+                if (!match(SymbolTable.EQUALS))
+                    throw new ParseException("Improper Declaration", tokens.index);
+                skipExpression();
+                return null;
+            case SWITCH:
+                tokens.advance();
+                skipExpression();
+                return new Nested(SWITCH, start, null);
+            case IF:
+                tokens.advance();
+                if (!peek(Token.Type.IDENTIFIER))
+                    throw new ParseException("Condition missing", tokens.index);
+                skipExpression();
+                match(SymbolTable.DO);
+                return new Nested(IF, start, null);
+            case WHILE:
+                tokens.advance();
+                skipExpression();
+                if (!match(SymbolTable.DO))
+                    throw new ParseException("No DO expression", tokens.index);
+                return new Nested(WHILE, start, null);
+            case RETURN:
+                tokens.advance();
+                if (match(SymbolTable.SEMICOLON))
+                    throw new ParseException("Return Statement empty", tokens.index);
+                skipExpression();
+                if (!match(SymbolTable.SEMICOLON))
+                    throw new ParseException("No ; at end of Return statement", tokens.index);
+                return null;
+            default:
+                skipExpression();
+                if (match(SymbolTable.EQUALS)) {
+                    skipExpression();
+                    if (!match(SymbolTable.SEMICOLON))
+                        throw new ParseException("Expected ';'", tokens.index);
+                } else if (!match(SymbolTable.SEMICOLON)) {
+                    throw new ParseException("Expected ';'", tokens.index);
+                }
+                return null;
         }
-        else if (peek("RETURN")){
-            return parseReturnStatement();
+    }
+
+    private Nested skipCase() throws ParseException {
+        int start = tokens.index;
+        if (match(SymbolTable.CASE)) {
+            skipExpression();
+            if (!match(SymbolTable.COLON))
+                throw new ParseException("No termination in Case statement", tokens.index);
+        } else {
+            match(SymbolTable.DEFAULT);
+        }
+        if (!peek(Token.Type.IDENTIFIER))
+            throw new ParseException("No statement in Case statement", tokens.index);
+        return new Nested(CASE, start, null);
+    }
+
+    /**
+     * Skips the end of the current block of the nested statement as
+     * {@link #endBlock(Nested)} does, returning false if another of its
+     * blocks follows.
+     */
+    private boolean skipBlockEnd(Nested nested) throws ParseException {
+        switch (nested.kind) {
+            case IF:
+                if (nested.last) {
+                    match(SymbolTable.SEMICOLON, SymbolTable.END);
+                    return true;
+                }
+                match(SymbolTable.SEMICOLON);
+                if (match(SymbolTable.END))
+                    return true;
+                if (!match(SymbolTable.ELSE) || !peek(Token.Type.IDENTIFIER))
+                    throw new ParseException("Improper Ending to if statement", tokens.index);
+                nested.last = true;
+                return false;
+            case WHILE:
+                if (!match(SymbolTable.END))
+                    throw new ParseException("No END to while loop", tokens.index);
+                return true;
+            default:
+                return true;
         }
-        else {
-            Ast.Expression expression = parseExpression();
-            if (match("="))
-            {
-                Ast.Expression value = parseExpression();
-                if (!match(";"))
-                    throw new ParseException("Expected ';'", tokens.index);
+    }
 
-                return new Ast.Statement.Assignment(expression, value);
+    /**
+     * Skips an expression as {@link #parseBinaryExpression(int)} does from
+     * {@link #LOGICAL}, which takes every operator, so only the symbols
+     * closing the open groups, calls and indices need to be kept.
+     */
+    private void skipExpression() throws ParseException {
+        ArrayDeque<Integer> closers = new ArrayDeque<>();
+        while (true) {
+            if (match(SymbolTable.LEFT_PAREN)) {
+                closers.push(SymbolTable.RIGHT_PAREN);
+                continue;
             }
-            else if (match(";"))
-                return new Ast.Statement.Expression(expression);
+            if (peekCallOrIndex()) {
+                tokens.advance();
+                if (match(SymbolTable.LEFT_BRACKET)) {
+                    closers.push(SymbolTable.RIGHT_BRACKET);
+                    continue;
+                }
+                tokens.advance();
+                //the arguments of a call are closed by a comma or a parenthesis
+                if (!match(SymbolTable.RIGHT_PAREN)) {
+                    closers.push(SymbolTable.COMMA);
+                    continue;
+                }
+            } else {
+                skipPrimary();
+            }
+            while (true) {
+                int symbol = tokens.has(0) ? tokens.getSymbol(0) : SymbolTable.NONE;
+                if (symbol >= 0 && symbol < PRECEDENCE.length && PRECEDENCE[symbol] != 0) {
+                    tokens.advance();
+                    if (symbol == SymbolTable.SLASH)
+                        match(SymbolTable.CARET);
+                    break;
+                }
+                if (closers.isEmpty())
+                    return;
+                int closer = closers.pop();
+                if (closer == SymbolTable.COMMA) {
+                    if (match(SymbolTable.COMMA)) {
+                        closers.push(SymbolTable.COMMA);
+                        break;
+                    }
+                    if (!match(SymbolTable.RIGHT_PAREN))
+                        throw new ParseException("Expected ')'", tokens.index);
+                } else if (closer == SymbolTable.RIGHT_BRACKET) {
+                    if (!match(SymbolTable.RIGHT_BRACKET))
+                        throw new ParseException("Expected ']' after index expression", tokens.index);
+                } else if (!match(SymbolTable.RIGHT_PAREN)) {
+                    throw new ParseException("Expected ')'", tokens.index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips a primary expression other than a group, call or index, which
+     * {@link #skipExpression()} handles itself.
+     */
+    private void skipPrimary() throws ParseException {
+        if (match(SymbolTable.NIL) || match(SymbolTable.TRUE) || match(SymbolTable.FALSE)
+                || match(Token.Type.INTEGER) || match(Token.Type.DECIMAL)
+                || match(Token.Type.CHARACTER) || match(Token.Type.STRING)
+                || match(Token.Type.IDENTIFIER))
+            return;
+        throw new ParseException("Expected a primary expression", tokens.index);
+    }
+
+    /**
+     * Returns true if the next tokens start a call or an index, which is an
+     * identifier other than a literal followed by {@code (} or {@code [}.
+     */
+    private boolean peekCallOrIndex() {
+        if (!peek(Token.Type.IDENTIFIER) || peek(SymbolTable.NIL) || peek(SymbolTable.TRUE) || peek(SymbolTable.FALSE) || !tokens.has(1))
+            return false;
+        int symbol = tokens.getSymbol(1);
+        return symbol == SymbolTable.LEFT_PAREN || symbol == SymbolTable.LEFT_BRACKET;
+    }
+
+    /**
+     * Parses the {@code statement} rule and delegates to the necessary method.
+     * If the next tokens do not start a declaration, if, while, or return
+     * statement, then it is an expression/assignment statement.
+     */
+    public Ast.Statement parseStatement() throws ParseException {
+
+        switch (statementKind()) {
+            case DECLARATION:
+                return parseDeclarationStatement();
+            case SWITCH:
+                return parseSwitchStatement();
+            case IF:
+                return parseIfStatement();
+            case WHILE:
+                return parseWhileStatement();
+            case RETURN:
+                return parseReturnStatement();
+            default:
+                int start = tokens.index;
+                Ast.Expression expression = parseExpression();
+                if (match(SymbolTable.EQUALS))
+                {
+                    Ast.Expression value = parseExpression();
+                    if (!match(SymbolTable.SEMICOLON))
+                        throw new ParseException("Expected ';'", tokens.index);
+
+                    return at(start, new Ast.Statement.Assignment(expression, value));
+                }
+                else if (match(SymbolTable.SEMICOLON))
+                    return at(start, new Ast.Statement.Expression(expression));
         }
 
 
@@ -335,7 +1146,8 @@ public final class Parser {
         String name;
         String type= "";
         boolean hastype = false;
-        match("LET");
+        int start = tokens.index;
+        match(SymbolTable.LET);
         if(peek(Token.Type.IDENTIFIER)){
             name = tokens.get(0).getLiteral();
             match(Token.Type.IDENTIFIER);
@@ -343,30 +1155,30 @@ public final class Parser {
         else{
             throw new ParseException("No identifier!",tokens.index);
         }
-        if(match(";")){
-            Ast.Statement.Declaration state = new Ast.Statement.Declaration(name, Optional.empty());
+        if(match(SymbolTable.SEMICOLON)){
+            Ast.Statement.Declaration state = at(start, new Ast.Statement.Declaration(name, Optional.empty()));
             return state;
         }
 
-        if(match(":")){
+        if(match(SymbolTable.COLON)){
             type = tokens.get(0).getLiteral();
             match(Token.Type.IDENTIFIER);
 
-            if(match("=")){
+            if(match(SymbolTable.EQUALS)){
                 Ast.Expression exp = parseExpression();
-                Ast.Statement.Declaration state = new Ast.Statement.Declaration(name, Optional.ofNullable(type), Optional.ofNullable(exp));
+                Ast.Statement.Declaration state = at(start, new Ast.Statement.Declaration(name, Optional.ofNullable(type), Optional.ofNullable(exp)));
                 return state;
             }
             else{
-                Ast.Statement.Declaration state = new Ast.Statement.Declaration(name, Optional.ofNullable(type), Optional.empty());
+                Ast.Statement.Declaration state = at(start, new Ast.Statement.Declaration(name, Optional.ofNullable(type), Optional.empty()));
                 return state;
             }
 
         }
 
-        if(match("=")){
+        if(match(SymbolTable.EQUALS)){
             Ast.Expression exp = parseExpression();
-            Ast.Statement.Declaration state = new Ast.Statement.Declaration(name, Optional.ofNullable(exp));
+            Ast.Statement.Declaration state = at(start, new Ast.Statement.Declaration(name, Optional.ofNullable(exp)));
             return state;
         }
 
@@ -379,52 +1191,26 @@ public final class Parser {
      * {@code IF}.
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
-        match("IF");
-        Ast.Expression name = null;
+        return (Ast.Statement.If) parseNested(startIf()).statement;
+    }
 
-        List<Ast.Statement> statement1;
-        List<Ast.Statement> statement2;
+    /**
+     * Parses an if statement up to its first block.
+     */
+    private Nested startIf() throws ParseException {
+        int start = tokens.index;
+        match(SymbolTable.IF);
+        Ast.Expression name = null;
 
         if(peek(Token.Type.IDENTIFIER)){
             //we need to make generalizable; it might not just be one identifier, there may be much stuff to do
             name = parseExpression();
-            Boolean x = match("DO");
-            statement1 = parseBlock();
-            Boolean y = match(";");
+            Boolean x = match(SymbolTable.DO);
         }
         else{
             throw new ParseException("Condition missing",tokens.index);
         }
-        if(match("END")){
-            Ast.Statement.If ret = new Ast.Statement.If(
-                    name,
-                    statement1,
-                    Arrays.asList()
-            );
-            return ret;
-        }
-        else if(match("ELSE")){
-            if(peek(Token.Type.IDENTIFIER)){
-                //same thing here
-                statement2 = parseBlock();
-                match(";", "END");
-                Ast.Statement.If ret = new Ast.Statement.If(
-                        name,
-                        statement1,
-                        statement2
-                );
-                return ret;
-            }
-            else{
-                throw new ParseException("Improper else statement",tokens.index);
-            }
-        }
-        else{
-            throw new ParseException("Improper Ending to if statement",tokens.index);
-        }
-
-
-
+        return new Nested(IF, start, name);
     }
 
     /**
@@ -433,32 +1219,44 @@ public final class Parser {
      * {@code SWITCH}.
      */
     public Ast.Statement.Switch parseSwitchStatement() throws ParseException {
-        List<Ast.Statement.Case> cases = new ArrayList<>();;
-
+        return (Ast.Statement.Switch) parseNested(startSwitch()).statement;
+    }
 
-        match("SWITCH");
+    /**
+     * Parses a switch statement up to its first case.
+     */
+    private Nested startSwitch() throws ParseException {
+        int start = tokens.index;
+        match(SymbolTable.SWITCH);
         Ast.Expression cond = parseExpression();
+        return new Nested(SWITCH, start, cond);
+    }
 
-        while(peek("CASE")){
-            Ast.Statement.Case newcase = parseCaseStatement();
-            cases.add(newcase);
+    /**
+     * Starts the next case of the switch, returning true, or else ends the
+     * switch after its default case and returns false.
+     */
+    private boolean parseCase(Nested nested, ArrayDeque<Nested> stack) throws ParseException {
+        if (nested.last) {
+            if(match(SymbolTable.END)) {}
+            else{
+                throw new ParseException("No End Statement",tokens.index);
+            }
+            nested.statement = new Ast.Statement.Switch(nested.condition, nested.cases);
+            return false;
         }
-
-        if(peek("DEFAULT")) {
-            Ast.Statement.Case newcase = parseCaseStatement();
-            cases.add(newcase);
+        if(peek(SymbolTable.CASE)){
+            stack.push(startCase());
+            return true;
         }
-        else{
-            throw new ParseException("No Default Statement",tokens.index);
+        if(peek(SymbolTable.DEFAULT)) {
+            nested.last = true;
+            stack.push(startCase());
+            return true;
         }
-        if(match("END")) {}
         else{
-            throw new ParseException("No End Statement",tokens.index);
+            throw new ParseException("No Default Statement",tokens.index);
         }
-
-        Ast.Statement.Switch s = new Ast.Statement.Switch(cond, cases);
-        return s;
-
     }
 
     /**
@@ -467,39 +1265,28 @@ public final class Parser {
      * default block of a switch statement, aka {@code CASE} or {@code DEFAULT}.
      */
     public Ast.Statement.Case parseCaseStatement() throws ParseException {
-        Ast.Expression exp;
-        if(match("CASE")){
+        return (Ast.Statement.Case) parseNested(startCase()).statement;
+    }
+
+    /**
+     * Parses a case or default statement up to its block.
+     */
+    private Nested startCase() throws ParseException {
+        int start = tokens.index;
+        Ast.Expression exp = null;
+        if(match(SymbolTable.CASE)){
             exp = parseExpression();
-            if(!match(":")){
+            if(!match(SymbolTable.COLON)){
                 throw new ParseException("No termination in Case statement",tokens.index);
             }
-            if(!peek(Token.Type.IDENTIFIER)){
-                throw new ParseException("No statement in Case statement",tokens.index);
-            }
-            List<Ast.Statement> statements = parseBlock();
-            //if(!match(";")){
-            //    throw new ParseException("No termination in Case statement",tokens.index);
-            //}
-
-            Ast.Statement.Case ret = new Ast.Statement.Case(Optional.ofNullable(exp), statements);
-            return ret;
         }
-        else if(match("DEFAULT")){
-            if(!peek(Token.Type.IDENTIFIER)){
-                throw new ParseException("No statement in Case statement",tokens.index);
-            }
-            List<Ast.Statement> statements = parseBlock();
-            //if(!match(";")){
-                //throw new ParseException("No termination in Case statement",tokens.index);
-            //}
-
-            Ast.Statement.Case ret = new Ast.Statement.Case(Optional.empty(), statements);
-            return ret;
+        else if(!match(SymbolTable.DEFAULT)){
+            throw new ParseException("Case Statement not working yet",tokens.index);
         }
-
-
-
-        throw new ParseException("Case Statement not working yet",tokens.index);
+        if(!peek(Token.Type.IDENTIFIER)){
+            throw new ParseException("No statement in Case statement",tokens.index);
+        }
+        return new Nested(CASE, start, exp);
     }
 
     /**
@@ -508,18 +1295,20 @@ public final class Parser {
      * {@code WHILE}.
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
-        match("WHILE");
+        return (Ast.Statement.While) parseNested(startWhile()).statement;
+    }
+
+    /**
+     * Parses a while statement up to its block.
+     */
+    private Nested startWhile() throws ParseException {
+        int start = tokens.index;
+        match(SymbolTable.WHILE);
         Ast.Expression exp = parseExpression();
-        if(!match("DO")){
+        if(!match(SymbolTable.DO)){
             throw new ParseException("No DO expression",tokens.index);
         }
-        List<Ast.Statement> statements = parseBlock();
-        if(!match("END")){
-            throw new ParseException("No END to while loop",tokens.index);
-        }
-
-        Ast.Statement.While ret = new Ast.Statement.While(exp, statements);
-        return ret;
+        return new Nested(WHILE, start, exp);
     }
 
     /**
@@ -528,13 +1317,14 @@ public final class Parser {
      * {@code RETURN}.
      */
     public Ast.Statement.Return parseReturnStatement() throws ParseException {
-        match("RETURN");
-        if(match(";")){
+        int start = tokens.index;
+        match(SymbolTable.RETURN);
+        if(match(SymbolTable.SEMICOLON)){
             throw new ParseException("Return Statement empty",tokens.index);
         }
         Ast.Expression exp = parseExpression();
-        Ast.Statement.Return ret = new Ast.Statement.Return(exp);
-        if(!match(";")){
+        Ast.Statement.Return ret = at(start, new Ast.Statement.Return(exp));
+        if(!match(SymbolTable.SEMICOLON)){
             throw new ParseException("No ; at end of Return statement",tokens.index);
         }
         return ret;
@@ -545,7 +1335,7 @@ public final class Parser {
      */
     public Ast.Expression parseExpression() throws ParseException
     {
-        return parseLogicalExpression();
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
@@ -554,16 +1344,7 @@ public final class Parser {
 
     public Ast.Expression parseLogicalExpression() throws ParseException
     {
-        Ast.Expression left = parseComparisonExpression();
-
-        while(match("&&") || match("||"))
-        {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expression right = parseComparisonExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
@@ -573,17 +1354,7 @@ public final class Parser {
 
     public Ast.Expression parseComparisonExpression() throws ParseException
     {
-        Ast.Expression left = parseAdditiveExpression();
-
-        while(match("<") || match( ">") || match( "==") ||
-                match( "!="))
-        {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expression right = parseAdditiveExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseBinaryExpression(COMPARISON);
     }
 
     /**
@@ -592,16 +1363,7 @@ public final class Parser {
     //unary → ( "!" | "-" ) unary | primary ;
     public Ast.Expression parseAdditiveExpression() throws ParseException
     {
-        Ast.Expression left = parseMultiplicativeExpression();
-
-        while(match("+") || match( "-"))
-        {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expression right = parseMultiplicativeExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseBinaryExpression(ADDITIVE);
     }
 
     /**
@@ -609,17 +1371,105 @@ public final class Parser {
      */
     public Ast.Expression parseMultiplicativeExpression() throws ParseException
     {
-        Ast.Expression left = parsePrimaryExpression();
+        return parseBinaryExpression(MULTIPLICATIVE);
+    }
 
-        while(match("*") || match("/") | match( "^"))
+    /**
+     * Parses a chain of binary operators binding at least as tightly as the
+     * given precedence by precedence climbing, which builds the same
+     * left-associative trees as one method per level but goes straight to
+     * {@link #parsePrimaryExpression()} and looks up each operator once in
+     * {@link #PRECEDENCE}.
+     *
+     * Instead of recursing for each right operand, group, argument and index,
+     * the enclosing operators, groups, calls and indices are kept on an
+     * explicit stack, so deeply nested
+     * expressions are limited by the heap rather than the thread's stack.
+     * The tokens are consumed in the same order as by recursion, so any
+     * {@link ParseException} is the same.
+     */
+    private Ast.Expression parseBinaryExpression(int minimum) throws ParseException
+    {
+        ArrayDeque<Operand> stack = new ArrayDeque<>();
+        while (true)
         {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expression right = parsePrimaryExpression();
-
-            left = new Ast.Expression.Binary(operator, left, right);
+            int start = tokens.index;
+            if (match(SymbolTable.LEFT_PAREN))
+            {
+                stack.push(new Operand(start, minimum, null, SymbolTable.LEFT_PAREN));
+                minimum = LOGICAL;
+                continue;
+            }
+            Ast.Expression left;
+            if (peekCallOrIndex())
+            {
+                String name = tokens.get(0).getLiteral();
+                tokens.advance();
+                int symbol = tokens.getSymbol(0);
+                tokens.advance();
+                //the arguments and index are parsed as operands as well
+                if (symbol == SymbolTable.LEFT_BRACKET || !peek(SymbolTable.RIGHT_PAREN))
+                {
+                    stack.push(new Operand(name, start, minimum, symbol));
+                    minimum = LOGICAL;
+                    continue;
+                }
+                tokens.advance();
+                left = at(start, new Ast.Expression.Function(name, new ArrayList<>()));
+            }
+            else
+                left = parsePrimaryExpression();
+            while (true)
+            {
+                int symbol = tokens.has(0) ? tokens.getSymbol(0) : SymbolTable.NONE;
+                int precedence = symbol >= 0 && symbol < PRECEDENCE.length ? PRECEDENCE[symbol] : 0;
+                if (precedence != 0 && precedence >= minimum)
+                {
+                    tokens.advance();
+                    //the multiplicative level used to match "/" and "^" without
+                    //short-circuiting, so "/" directly followed by "^" is one "^"
+                    if (symbol == SymbolTable.SLASH && tokens.has(0) && tokens.getSymbol(0) == SymbolTable.CARET)
+                    {
+                        tokens.advance();
+                        symbol = SymbolTable.CARET;
+                    }
+                    stack.push(new Operand(-1, minimum, left, symbol));
+                    minimum = precedence + 1;
+                    break;
+                }
+                if (stack.isEmpty())
+                    return left;
+                Operand operand = stack.pop();
+                minimum = operand.minimum;
+                if (operand.symbol == SymbolTable.LEFT_PAREN && operand.name == null)
+                {
+                    if (!match(SymbolTable.RIGHT_PAREN)) throw new ParseException("Expected ')'", tokens.index);
+                    left = at(operand.start, new Ast.Expression.Group(left));
+                }
+                else if (operand.symbol == SymbolTable.LEFT_PAREN)
+                {
+                    operand.arguments.add(left);
+                    if (match(SymbolTable.COMMA))
+                    {
+                        stack.push(operand);
+                        minimum = LOGICAL;
+                        break;
+                    }
+                    if (!match(SymbolTable.RIGHT_PAREN)) throw new ParseException("Expected ')'", tokens.index);
+                    left = at(operand.start, new Ast.Expression.Function(operand.name, operand.arguments));
+                }
+                else if (operand.symbol == SymbolTable.LEFT_BRACKET)
+                {
+                    if (!match(SymbolTable.RIGHT_BRACKET)) throw new ParseException("Expected ']' after index expression", tokens.index);
+                    left = at(operand.start, new Ast.Expression.Access(Optional.of(left), operand.name));
+                }
+                else
+                {
+                    left = new Ast.Expression.Binary(OPERATORS[operand.symbol], operand.left, left);
+                    left.setStart(operand.left.getStart());
+                }
+            }
         }
-
-        return left;
     }
 
     /**
@@ -632,79 +1482,110 @@ public final class Parser {
 
     public Ast.Expression parsePrimaryExpression() throws ParseException
     {
-        if (match("NIL"))
-            return new Ast.Expression.Literal(null);
+        int start = tokens.index;
+        if (match(SymbolTable.NIL))
+            return at(start, new Ast.Expression.Literal(null));
             //return parselitExpression(1);
 
-        else if (match("TRUE"))
-            return new Ast.Expression.Literal(true);
+        else if (match(SymbolTable.TRUE))
+            return at(start, new Ast.Expression.Literal(true));
             //return parselitExpression(1);
 
 
-        else if (match("FALSE"))
-            return new Ast.Expression.Literal(false);
+        else if (match(SymbolTable.FALSE))
+            return at(start, new Ast.Expression.Literal(false));
             //return parselitExpression(1);
 
 
         else if (match(Token.Type.INTEGER))
-            return new Ast.Expression.Literal(new BigInteger(tokens.get(-1).getLiteral()));
+            return at(start, parseNumber(false));
 
         else if (match(Token.Type.DECIMAL))
-            return new Ast.Expression.Literal(new BigDecimal(tokens.get(-1).getLiteral()));
+            return at(start, parseNumber(true));
 
         else if (match(Token.Type.CHARACTER))
         {
-            String literal = tokens.get(-1).getLiteral();
-            return new Ast.Expression.Literal(literal.charAt(1));
+            return at(start, new Ast.Expression.Literal(tokens.getValue(-1).charAt(0)));
 
         }
 
         else if (match(Token.Type.STRING))
         {
-            String literal = tokens.get(-1).getLiteral();
-            String unquoted = literal.substring(1, literal.length() - 1).replace("\\n", "\n").replace("\\t", "\t");
-            return new Ast.Expression.Literal(unquoted);
+            return at(start, new Ast.Expression.Literal(tokens.getValue(-1)));
             //return new Ast.Expression.Literal(literal);
         }
         else if (match(Token.Type.IDENTIFIER))
         {
             String identifier = tokens.get(-1).getLiteral();
-            if (match("("))
+            if (match(SymbolTable.LEFT_PAREN))
             {
                 List<Ast.Expression> arguments = new ArrayList<>();
-                if (!peek(")"))
+                if (!peek(SymbolTable.RIGHT_PAREN))
                 {
                     do
                     {
                         arguments.add(parseExpression());
                     }
-                    while (match(","));
+                    while (match(SymbolTable.COMMA));
                 }
-                if (!match(")")) throw new ParseException("Expected ')'", tokens.index);
-                return new Ast.Expression.Function(identifier, arguments);
+                if (!match(SymbolTable.RIGHT_PAREN)) throw new ParseException("Expected ')'", tokens.index);
+                return at(start, new Ast.Expression.Function(identifier, arguments));
             }
-            else if (match("["))
+            else if (match(SymbolTable.LEFT_BRACKET))
             {
                 Ast.Expression index = parseExpression();
-                if (!match("]")) throw new ParseException("Expected ']' after index expression", tokens.index);
+                if (!match(SymbolTable.RIGHT_BRACKET)) throw new ParseException("Expected ']' after index expression", tokens.index);
                 Ast.Expression.Access baseAccess = new Ast.Expression.Access(Optional.empty(), identifier);
-                return new Ast.Expression.Access(Optional.of(index), baseAccess.getName());
+                return at(start, new Ast.Expression.Access(Optional.of(index), baseAccess.getName()));
             }
             else
-                return new Ast.Expression.Access(Optional.empty(), identifier);
+                return at(start, new Ast.Expression.Access(Optional.empty(), identifier));
 
         }
-        else if (match("("))
+        else if (match(SymbolTable.LEFT_PAREN))
         {
             Ast.Expression expression = parseExpression();
-            if (!match(")")) throw new ParseException("Expected ')'", tokens.index);
-            return new Ast.Expression.Group(expression);
+            if (!match(SymbolTable.RIGHT_PAREN)) throw new ParseException("Expected ')'", tokens.index);
+            return at(start, new Ast.Expression.Group(expression));
         }
 
         else
             throw new ParseException("Expected a primary expression", tokens.index);
     }
 
+    /**
+     * Creates a literal for the numeric token just matched, parsing its digits
+     * directly into a long (or an unscaled long and scale for decimals). The
+     * literal only falls back to BigInteger or BigDecimal when the value does
+     * not fit in a long.
+     */
+    private Ast.Expression.Literal parseNumber(boolean decimal)
+    {
+        int length = tokens.length(-1);
+        boolean negative = length > 1 && tokens.charAt(-1, 0) == '-';
+        long value = 0;
+        int scale = -1;
+        for (int i = negative ? 1 : 0; i < length; i++)
+        {
+            char c = tokens.charAt(-1, i);
+            if (c == '.')
+            {
+                scale = 0;
+                continue;
+            }
+            if (c < '0' || c > '9' || value > (Long.MAX_VALUE - (c - '0')) / 10)
+            {
+                String literal = tokens.get(-1).getLiteral();
+                return new Ast.Expression.Literal(decimal ? new BigDecimal(literal) : new BigInteger(literal));
+            }
+            value = value * 10 + (c - '0');
+            if (scale >= 0)
+                scale++;
+        }
+        value = negative ? -value : value;
+        return decimal ? Ast.Expression.Literal.decimal(value, Math.max(scale, 0)) : Ast.Expression.Literal.integer(value);
+    }
+
     //primary → NUMBER | STRING | "true" | "false" | "nil" | "(" expression ")" ;
 
 
@@ -712,8 +1593,9 @@ public final class Parser {
      * As in the lexer, returns {@code true} if the current sequence of tokens
      * matches the given patterns. Unlike the lexer, the pattern is not a regex;
      * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
+     * type is the same, a {@link String}, which matches if the token's
+     * literal is the same, or a {@link SymbolTable} id, which matches if the
+     * token is that identifier or operator.
      *
      * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
      * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
@@ -730,13 +1612,18 @@ public final class Parser {
             }
             else if (patterns[i] instanceof Token.Type)
             {
-                if (patterns[i] != tokens.get(i).getType())
+                if (patterns[i] != tokens.getType(i))
                     return false;
 
             }
             else if (patterns[i] instanceof String)
             {
-                if(!patterns[i].equals(tokens.get(i).getLiteral()))
+                if(!tokens.literalEquals(i, (String) patterns[i]))
+                    return false;
+            }
+            else if (patterns[i] instanceof Integer)
+            {
+                if ((Integer) patterns[i] != tokens.getSymbol(i))
                     return false;
             }
             else
@@ -763,14 +1650,167 @@ public final class Parser {
         return peek;
     }
 
+    /**
+     * Returns the kind of statement the next token starts from
+     * {@link #STATEMENTS}, or {@link #EXPRESSION} if there is no next token.
+     */
+    private int statementKind()
+    {
+        if (!tokens.has(0))
+            return EXPRESSION;
+        int symbol = tokens.getSymbol(0);
+        return symbol >= 0 && symbol < STATEMENTS.length ? STATEMENTS[symbol] : EXPRESSION;
+    }
+
+    /**
+     * Returns {@code true} if the next token is the given {@link SymbolTable}
+     * symbol, which is a single int comparison.
+     */
+    private boolean peek(int symbol)
+    {
+        return tokens.has(0) && tokens.getSymbol(0) == symbol;
+    }
+
+    /**
+     * As {@link #peek(int)}, but also advances the token stream.
+     */
+    private boolean match(int symbol)
+    {
+        boolean peek = peek(symbol);
+
+        if (peek)
+            tokens.advance();
+
+        return peek;
+    }
+
+    /**
+     * An operator (or an open group, for {@link SymbolTable#LEFT_PAREN})
+     * waiting for its right operand in {@link #parseBinaryExpression(int)},
+     * with its left operand and the precedence to return to. A call (with a
+     * name and {@link SymbolTable#LEFT_PAREN}) waits for its next argument
+     * and an index (with {@link SymbolTable#LEFT_BRACKET}) for its offset.
+     * The start is the index of the token a group, call or index starts at,
+     * while a binary expression starts where its left operand does.
+     */
+    private static final class Operand
+    {
+
+        private final int start;
+        private final int minimum;
+        private final Ast.Expression left;
+        private final int symbol;
+        private final String name;
+        private final List<Ast.Expression> arguments;
+
+        private Operand(int start, int minimum, Ast.Expression left, int symbol)
+        {
+            this.start = start;
+            this.minimum = minimum;
+            this.left = left;
+            this.symbol = symbol;
+            this.name = null;
+            this.arguments = null;
+        }
+
+        private Operand(String name, int start, int minimum, int symbol)
+        {
+            this.start = start;
+            this.minimum = minimum;
+            this.left = null;
+            this.symbol = symbol;
+            this.name = name;
+            this.arguments = symbol == SymbolTable.LEFT_PAREN ? new ArrayList<>() : null;
+        }
+
+    }
+
+    /**
+     * A statement whose blocks are being parsed (or skipped) by
+     * {@link #parseNested(Nested)}, or the block of {@link #parseBlock()}.
+     * The condition is the value of a case, and null for a default case.
+     */
+    private static final class Nested
+    {
+
+        private final byte kind;
+        private final int start;
+        private final Ast.Expression condition;
+        /**
+         * The statements of the current block, and of the then block once an
+         * if statement is in its else block.
+         */
+        private List<Ast.Statement> statements = new ArrayList<>();
+        private List<Ast.Statement> thenStatements = null;
+        private final List<Ast.Statement.Case> cases;
+        /**
+         * Whether an if statement is in its else block, or a switch has
+         * started its default case.
+         */
+        private boolean last = false;
+        private Ast.Statement statement = null;
+
+        private Nested(byte kind, int start, Ast.Expression condition)
+        {
+            this.kind = kind;
+            this.start = start;
+            this.condition = condition;
+            this.cases = kind == SWITCH ? new ArrayList<>() : null;
+        }
+
+    }
+
+    /**
+     * The result of parsing one function in parallel: the function and the
+     * index after it, or the exception it failed with.
+     */
+    private static final class ParsedFunction
+    {
+
+        private final Ast.Function function;
+        private final int end;
+        private final RuntimeException exception;
+
+        private ParsedFunction(Ast.Function function, int end, RuntimeException exception) {
+            this.function = function;
+            this.end = end;
+            this.exception = exception;
+        }
+
+    }
+
+    /**
+     * The tokens being parsed, backed by either a list of {@link Token}s or a
+     * {@link TokenBuffer}. With a buffer, {@link #getType(int)},
+     * {@link #getSymbol(int)} and {@link #literalEquals(int, String)} read the
+     * buffer's arrays directly, and with a list they read the symbol each
+     * token was given by its lexer ({@link Token#getSymbol()}).
+     */
     private static final class TokenStream
     {
 
         private final List<Token> tokens;
+        private final TokenBuffer buffer;
         private int index = 0;
 
         private TokenStream(List<Token> tokens) {
             this.tokens = tokens;
+            this.buffer = null;
+        }
+
+        private TokenStream(TokenBuffer buffer) {
+            this.tokens = buffer.asList();
+            this.buffer = buffer;
+        }
+
+        /**
+         * Creates a stream over the same tokens starting at the given index,
+         * which can be read independently (and from another thread).
+         */
+        private TokenStream(TokenStream stream, int index) {
+            this.tokens = stream.tokens;
+            this.buffer = stream.buffer;
+            this.index = index;
         }
 
         /**
@@ -787,6 +1827,64 @@ public final class Parser {
             return tokens.get(index + offset);
         }
 
+        /**
+         * Gets the type of the token at index + offset.
+         */
+        public Token.Type getType(int offset) {
+            return buffer != null ? buffer.getType(index + offset) : tokens.get(index + offset).getType();
+        }
+
+        /**
+         * Gets the symbol id of the token at index + offset.
+         */
+        public int getSymbol(int offset) {
+            return buffer != null ? buffer.getSymbol(index + offset) : tokens.get(index + offset).getSymbol();
+        }
+
+        /**
+         * Returns true if the literal of the token at index + offset equals the
+         * given string.
+         */
+        public boolean literalEquals(int offset, String literal) {
+            return buffer != null ? buffer.literalEquals(index + offset, literal) : literal.equals(tokens.get(index + offset).getLiteral());
+        }
+
+        /**
+         * Gets the offset in the source of the token at the given (absolute)
+         * index, or of the end of the last token if it is past the end.
+         */
+        public int offset(int i) {
+            int size = buffer != null ? buffer.size() : tokens.size();
+            if (i < size) {
+                return buffer != null ? buffer.getIndex(i) : tokens.get(i).getIndex();
+            } else if (size == 0) {
+                return 0;
+            }
+            return buffer != null ? buffer.getIndex(size - 1) + buffer.getLength(size - 1) : tokens.get(size - 1).getIndex() + tokens.get(size - 1).getLiteral().length();
+        }
+
+        /**
+         * Gets the length of the literal of the token at index + offset.
+         */
+        public int length(int offset) {
+            return buffer != null ? buffer.getLength(index + offset) : tokens.get(index + offset).getLiteral().length();
+        }
+
+        /**
+         * Gets a character of the literal of the token at index + offset.
+         */
+        public char charAt(int offset, int i) {
+            return buffer != null ? buffer.charAt(index + offset, i) : tokens.get(index + offset).getLiteral().charAt(i);
+        }
+
+        /**
+         * Gets the decoded value of the token at index + offset, as
+         * {@link Token#getValue()}.
+         */
+        public String getValue(int offset) {
+            return buffer != null ? buffer.getValue(index + offset) : tokens.get(index + offset).getValue();
+        }
+
         /**
          * Advances to the next token, incrementing the index.
          */
@@ -0,0 +1,277 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives each variable used by a function a place known before it runs, so
+ * it can be found by index in an array rather than by name through a chain
+ * of scopes. Functions are resolved ahead of interpretation, by the
+ * {@link Analyzer} (when it analyzes the body, which for a lazy body is when
+ * it is first read), {@link FrozenAst} and {@link AstCache}.
+ *
+ * The parameters and the variables declared in the body are locals, each
+ * with its own slot in one flat frame per call; a block does not get a frame
+ * of its own, since no two declarations share a slot. An access of a local
+ * declared before it in an enclosing block resolves to depth 0 and its slot,
+ * as the scopes of blocks would. Any other name is a variable of the scope the
+ * function is defined in, and resolves to depth 1 and its index in
+ * {@link Ast.Function#getGlobalNames()}.
+ *
+ * A switch declares the hidden variable {@code condition} holding its value,
+ * which the cases can read. A declaration of a name already declared in the
+ * same block gets the slot -1, so it throws when run, as it does with scopes.
+ *
+ * A block of a while loop gets the same slots on every iteration; since a
+ * local is always declared before it is read, this is equivalent to the new
+ * scope each iteration gets outside of a function.
+ */
+public final class Resolver implements Ast.Visitor<Void> {
+
+    private final List<Map<String, Integer>> blocks = new ArrayList<>();
+    private final Map<String, Integer> globals = new LinkedHashMap<>();
+    private int size = 0;
+    /**
+     * The steps left of the statements with blocks being resolved, or null
+     * if there are none (see {@link #visitBlocks(Runnable)}).
+     */
+    private ArrayDeque<Runnable> steps = null;
+
+    private Resolver() {
+    }
+
+    /**
+     * Resolves the variables of the function, setting its frame and the slot
+     * of each of its declarations and accesses. A function which repeats a
+     * parameter is left unresolved.
+     */
+    public static void resolve(Ast.Function function) {
+        new Resolver().visit(function);
+    }
+
+    /**
+     * Resolves the function with the given statements of its body, for an
+     * analysis which runs before a lazy body is returned by
+     * {@link Ast.Function#getStatements()}.
+     */
+    static void resolve(Ast.Function function, List<Ast.Statement> statements) {
+        new Resolver().function(function, statements);
+    }
+
+    @Override
+    public Void visit(Ast.Source ast) {
+        ast.getFunctions().forEach(Resolver::resolve);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Global ast) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Function ast) {
+        return function(ast, ast.getStatements());
+    }
+
+    private Void function(Ast.Function ast, List<Ast.Statement> statements) {
+        //a repeated parameter throws when the function is called, so it is left unresolved
+        if (new HashSet<>(ast.getParameters()).size() != ast.getParameters().size()) {
+            return null;
+        }
+        blocks.add(new HashMap<>());
+        ast.getParameters().forEach(this::declare);
+        statements.forEach(this::visit);
+        blocks.remove(blocks.size() - 1);
+        ast.setFrame(size, new ArrayList<>(globals.keySet()));
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Expression ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Declaration ast) {
+        //the value is evaluated before the variable is defined
+        ast.getValue().ifPresent(this::visit);
+        ast.setSlot(declare(ast.getName()));
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Assignment ast) {
+        visit(ast.getReceiver());
+        return visit(ast.getValue());
+    }
+
+    @Override
+    public Void visit(Ast.Statement.If ast) {
+        visit(ast.getCondition());
+        return visitBlocks(() -> {
+            steps.push(() -> block(ast.getElseStatements()));
+            block(ast.getThenStatements());
+        });
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Switch ast) {
+        visit(ast.getCondition());
+        Map<String, Integer> block = new HashMap<>();
+        blocks.add(block);
+        ast.setSlot(declare("condition"));
+        blocks.remove(blocks.size() - 1);
+        //the cases run in the block of the switch, but only one of them runs
+        return visitBlocks(() -> {
+            List<Ast.Statement.Case> cases = ast.getCases();
+            for (int i = cases.size() - 1; i >= 0; i--) {
+                Ast.Statement.Case c = cases.get(i);
+                steps.push(() -> blocks.remove(blocks.size() - 1));
+                steps.push(() -> visit(c));
+                steps.push(() -> blocks.add(new HashMap<>(block)));
+            }
+        });
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Case ast) {
+        ast.getValue().ifPresent(this::visit);
+        return visitBlocks(() -> push(ast.getStatements()));
+    }
+
+    @Override
+    public Void visit(Ast.Statement.While ast) {
+        visit(ast.getCondition());
+        return block(ast.getStatements());
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Return ast) {
+        if (ast.getValue() != null) {
+            visit(ast.getValue());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Literal ast) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Group ast) {
+        return expression(ast);
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Binary ast) {
+        return expression(ast);
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Access ast) {
+        return expression(ast);
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Function ast) {
+        return expression(ast);
+    }
+
+    @Override
+    public Void visit(Ast.Expression.PlcList ast) {
+        return expression(ast);
+    }
+
+    /**
+     * Resolves every access in the expression, without recursing so deep
+     * expressions do not overflow the thread's stack.
+     */
+    private Void expression(Ast.Expression expression) {
+        AstWalker.forEachNode(expression, node -> {
+            if (node instanceof Ast.Expression.Access) {
+                access((Ast.Expression.Access) node);
+            }
+        });
+        return null;
+    }
+
+    private void access(Ast.Expression.Access ast) {
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            Integer slot = blocks.get(i).get(ast.getName());
+            if (slot != null) {
+                ast.setSlot(0, slot);
+                return;
+            }
+        }
+        Integer index = globals.get(ast.getName());
+        if (index == null) {
+            index = globals.size();
+            globals.put(ast.getName(), index);
+        }
+        ast.setSlot(1, index);
+    }
+
+    private Void block(List<Ast.Statement> statements) {
+        return visitBlocks(() -> {
+            steps.push(() -> blocks.remove(blocks.size() - 1));
+            push(statements);
+            blocks.add(new HashMap<>());
+        });
+    }
+
+    /**
+     * Runs the visit of a statement with blocks, which pushes the steps of
+     * its blocks rather than running them, in the same way as the
+     * {@link Analyzer} does. The outermost visit runs the steps until there
+     * are none left, so deeply nested blocks do not overflow the thread's
+     * stack.
+     */
+    private Void visitBlocks(Runnable visit) {
+        if (steps != null) {
+            visit.run();
+            return null;
+        }
+        steps = new ArrayDeque<>();
+        try {
+            visit.run();
+            while (!steps.isEmpty()) {
+                steps.pop().run();
+            }
+        } finally {
+            steps = null;
+        }
+        return null;
+    }
+
+    /**
+     * Pushes the steps visiting the statements, so they are visited in order
+     * before the steps pushed earlier.
+     */
+    private void push(List<Ast.Statement> statements) {
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            Ast.Statement statement = statements.get(i);
+            steps.push(() -> visit(statement));
+        }
+    }
+
+    /**
+     * Declares the name in the innermost block, returning its slot or -1 if
+     * it is already declared there.
+     */
+    private int declare(String name) {
+        Map<String, Integer> block = blocks.get(blocks.size() - 1);
+        if (block.containsKey(name)) {
+            return -1;
+        }
+        block.put(name, size);
+        return size++;
+    }
+
+}
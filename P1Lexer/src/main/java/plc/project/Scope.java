@@ -1,6 +1,7 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,7 +11,11 @@ public final class Scope {
 
     private final Scope parent;
     private final Map<String, Environment.Variable> variables = new HashMap<>();
-    private final Map<String, Environment.Function> functions = new HashMap<>();
+    /**
+     * Functions by name, then by arity, so a lookup does not build a
+     * {@code name/arity} key. An arity not defined for the name is null.
+     */
+    private final Map<String, Environment.Function[]> functions = new HashMap<>();
 
     public Scope(Scope parent) {
         this.parent = parent;
@@ -35,13 +40,13 @@ public final class Scope {
     }
 
     public Environment.Variable lookupVariable(String name) {
-        if (variables.containsKey(name)) {
-            return variables.get(name);
-        } else if (parent != null) {
-            return parent.lookupVariable(name);
-        } else {
-            throw new RuntimeException("The variable " + name + " is not defined in this scope.");
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            Environment.Variable variable = scope.variables.get(name);
+            if (variable != null) {
+                return variable;
+            }
         }
+        throw new RuntimeException("The variable " + name + " is not defined in this scope.");
     }
 
     public void defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
@@ -53,23 +58,29 @@ public final class Scope {
     }
 
     public Environment.Function defineFunction(String name, String jvmName, List<Environment.Type> parameterTypes, Environment.Type returnType, java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
-        if (functions.containsKey(name + "/" + parameterTypes.size())) {
-            throw new RuntimeException("The function " + name + "/" + parameterTypes.size() + " is already defined in this scope.");
+        int arity = parameterTypes.size();
+        Environment.Function[] arities = functions.get(name);
+        if (arities != null && arity < arities.length && arities[arity] != null) {
+            throw new RuntimeException("The function " + name + "/" + arity + " is already defined in this scope.");
         } else {
+            if (arities == null || arity >= arities.length) {
+                arities = arities == null ? new Environment.Function[arity + 1] : Arrays.copyOf(arities, arity + 1);
+                functions.put(name, arities);
+            }
             Environment.Function func = new Environment.Function(name, jvmName, parameterTypes, returnType, function);
-            functions.put(func.getName() + "/" + func.getParameterTypes().size(), func);
+            arities[arity] = func;
             return func;
         }
     }
 
     public Environment.Function lookupFunction(String name, int arity) {
-        if (functions.containsKey(name + "/" + arity)) {
-            return functions.get(name + "/" + arity);
-        } else if (parent != null) {
-            return parent.lookupFunction(name, arity);
-        } else {
-            throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            Environment.Function[] arities = scope.functions.get(name);
+            if (arities != null && arity >= 0 && arity < arities.length && arities[arity] != null) {
+                return arities[arity];
+            }
         }
+        throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
     }
 
     @Override
@@ -77,8 +88,20 @@ public final class Scope {
         return "Scope{" +
                 "parent=" + parent +
                 ", variables=" + variables.keySet() +
-                ", functions=" + functions.keySet() +
+                ", functions=" + functionKeys() +
                 '}';
     }
 
+    private List<String> functionKeys() {
+        List<String> keys = new ArrayList<>();
+        functions.forEach((name, arities) -> {
+            for (int arity = 0; arity < arities.length; arity++) {
+                if (arities[arity] != null) {
+                    keys.add(name + "/" + arity);
+                }
+            }
+        });
+        return keys;
+    }
+
 }
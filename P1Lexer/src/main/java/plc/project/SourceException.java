@@ -0,0 +1,22 @@
+package plc.project;
+
+/**
+ * An error of the {@link Analyzer} or {@link Interpreter} within a node whose
+ * offset in the source is known, with the original error as its cause. The
+ * message starts with the position of the node, and an error is only given a
+ * position once, by the innermost statement (or global) it is thrown from.
+ */
+public final class SourceException extends RuntimeException {
+
+    private final int offset;
+
+    public SourceException(String message, int offset, RuntimeException cause) {
+        super(message, cause);
+        this.offset = offset;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+}
@@ -0,0 +1,101 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Maps character offsets in a source to lines and columns, both starting at
+ * 1. Only the offset each line starts at is recorded, in an {@code int[]}, so
+ * a lookup is a binary search and no per-token position objects are needed.
+ *
+ * {@link TableLexer} records lines as it skips newlines, since no token can
+ * contain one, so the map comes for free with lexing. It only covers lines up
+ * to where lexing has reached; offsets past the last recorded line map to
+ * that line. Lines are only separated by {@code \n}, as {@code \r} ends
+ * lexing.
+ */
+public final class SourceMap {
+
+    private int[] starts = new int[16];
+    private int lines = 1;
+
+    /**
+     * Creates a map with a single line starting at offset 0, to which the
+     * lexer adds lines as it finds them.
+     */
+    public SourceMap() {}
+
+    /**
+     * Creates the map of the given source by scanning it for newlines, for
+     * tokens which did not come from {@link TableLexer}.
+     */
+    public static SourceMap of(CharSequence source) {
+        SourceMap map = new SourceMap();
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                map.addLine(i + 1);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Records that a line starts at the given offset, which must be after the
+     * start of every line recorded so far.
+     */
+    void addLine(int start) {
+        if (lines == starts.length) {
+            starts = Arrays.copyOf(starts, lines * 2);
+        }
+        starts[lines++] = start;
+    }
+
+    public int getLineCount() {
+        return lines;
+    }
+
+    /**
+     * Returns the offset of the first character of the given line.
+     */
+    public int getLineStart(int line) {
+        if (line < 1 || line > lines) {
+            throw new IndexOutOfBoundsException("Line " + line + " out of bounds for " + lines + " lines");
+        }
+        return starts[line - 1];
+    }
+
+    /**
+     * Returns the line containing the given offset.
+     */
+    public int getLine(int offset) {
+        if (offset < 0) {
+            throw new IndexOutOfBoundsException("Negative offset " + offset);
+        }
+        int low = 1;
+        int high = lines;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid - 1] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the column of the given offset within its line.
+     */
+    public int getColumn(int offset) {
+        return offset - starts[getLine(offset) - 1] + 1;
+    }
+
+    /**
+     * Formats the position of the given offset as {@code line:column}.
+     */
+    public String format(int offset) {
+        int line = getLine(offset);
+        return line + ":" + (offset - starts[line - 1] + 1);
+    }
+
+}
@@ -0,0 +1,241 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifier and operator literals to int ids, so that keywords and
+ * names can be compared by id instead of by string.
+ *
+ * Every table starts with the keywords and operators of the language, which
+ * always have the ids given by the constants below. Other literals are given
+ * the next free id the first time they are interned. Lexing can intern
+ * directly from a {@link TableLexer.CharStream} without slicing the literal,
+ * and {@link #name(int)} returns one canonical string per symbol.
+ *
+ * A table is not thread-safe.
+ */
+public final class SymbolTable {
+
+    public static final int LIST = 0;
+    public static final int VAL = 1;
+    public static final int VAR = 2;
+    public static final int FUN = 3;
+    public static final int DO = 4;
+    public static final int END = 5;
+    public static final int LET = 6;
+    public static final int SWITCH = 7;
+    public static final int CASE = 8;
+    public static final int DEFAULT = 9;
+    public static final int IF = 10;
+    public static final int ELSE = 11;
+    public static final int WHILE = 12;
+    public static final int RETURN = 13;
+    public static final int NIL = 14;
+    public static final int TRUE = 15;
+    public static final int FALSE = 16;
+    public static final int SEMICOLON = 17;
+    public static final int COLON = 18;
+    public static final int EQUALS = 19;
+    public static final int COMMA = 20;
+    public static final int LEFT_PAREN = 21;
+    public static final int RIGHT_PAREN = 22;
+    public static final int LEFT_BRACKET = 23;
+    public static final int RIGHT_BRACKET = 24;
+    public static final int AND = 25;
+    public static final int OR = 26;
+    public static final int LESS = 27;
+    public static final int GREATER = 28;
+    public static final int DOUBLE_EQUALS = 29;
+    public static final int NOT_EQUALS = 30;
+    public static final int PLUS = 31;
+    public static final int MINUS = 32;
+    public static final int STAR = 33;
+    public static final int SLASH = 34;
+    public static final int CARET = 35;
+
+    /**
+     * The id used for tokens which are not symbols (numbers, characters and
+     * strings), or for literals which are not in the table.
+     */
+    public static final int NONE = -1;
+
+    private static final String[] PREDEFINED = {
+            "LIST", "VAL", "VAR", "FUN", "DO", "END", "LET", "SWITCH", "CASE",
+            "DEFAULT", "IF", "ELSE", "WHILE", "RETURN", "NIL", "TRUE", "FALSE",
+            ";", ":", "=", ",", "(", ")", "[", "]", "&&", "||", "<", ">", "==",
+            "!=", "+", "-", "*", "/", "^"
+    };
+
+    /**
+     * A table of only the predefined symbols, which is never changed after it
+     * is created and so can be read from any thread.
+     */
+    private static final SymbolTable PREDEFINED_SYMBOLS = new SymbolTable();
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+
+    /**
+     * Open addressing table of {@code id + 1}, where 0 marks an empty slot.
+     */
+    private int[] slots = new int[128];
+
+    public SymbolTable() {
+        for (String name : PREDEFINED) {
+            intern(name);
+        }
+    }
+
+    /**
+     * Returns the number of symbols in the table, which is one more than the
+     * largest id.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the canonical name of the given symbol.
+     */
+    public String name(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown symbol " + id + ".");
+        }
+        return names[id];
+    }
+
+    /**
+     * Returns the id of the given name, or {@link #NONE} if it has not been
+     * interned.
+     */
+    public int lookup(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the id of the given name if it is a keyword or operator, which
+     * is the same in every table, or {@link #NONE} otherwise.
+     */
+    static int predefined(String name) {
+        return PREDEFINED_SYMBOLS.lookup(name);
+    }
+
+    /**
+     * Returns the id of the characters from start to end as with
+     * {@link #predefined(String)}, without slicing them into a string.
+     */
+    static int predefined(TableLexer.CharStream chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        int mask = PREDEFINED_SYMBOLS.slots.length - 1;
+        for (int slot = hash & mask; PREDEFINED_SYMBOLS.slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = PREDEFINED_SYMBOLS.slots[slot] - 1;
+            if (PREDEFINED_SYMBOLS.hashes[id] == hash && equals(PREDEFINED_SYMBOLS.names[id], chars, start, end)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns true if the id is one of the keywords and operators which have
+     * the same id in every table.
+     */
+    static boolean isPredefined(int id) {
+        return id >= 0 && id < PREDEFINED.length;
+    }
+
+    /**
+     * Returns the id of the given name, adding it to the table if needed.
+     */
+    public int intern(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+        return add(slot, name, hash);
+    }
+
+    /**
+     * Returns the id of the characters from start to end, adding them to the
+     * table if needed. The characters are only sliced into a string when they
+     * are new.
+     */
+    public int intern(TableLexer.CharStream chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && equals(names[id], chars, start, end)) {
+                return id;
+            }
+        }
+        return add(slot, chars.slice(start, end), hash);
+    }
+
+    private int add(int slot, String name, int hash) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Returns the {@link String#hashCode()} of the characters from start to
+     * end.
+     */
+    private static int hash(TableLexer.CharStream chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.get(i);
+        }
+        return hash;
+    }
+
+    private static boolean equals(String name, TableLexer.CharStream chars, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,800 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * A table-driven lexer which produces exactly the same tokens as
+ * {@link Lexer#lex()}, but without building a regex for every character.
+ *
+ * Every ASCII character is classified once into a set of flags in
+ * {@link #FLAGS}, and each token is recognized by an explicit state machine
+ * that only looks at those flags. Lexing is linear in the input and the only
+ * allocations are the tokens themselves.
+ *
+ * Input is read through a {@link CharStream}, which is either the whole
+ * string, a memory-mapped file, or a bounded window over a {@link Reader}.
+ * With the latter, tokens can be consumed lazily through {@link #iterator()}
+ * while only the current window is held in memory.
+ *
+ * Since the output has to match {@link Lexer} token for token, the state
+ * machine keeps its edge cases as well:
+ *
+ *  - {@code |} is skipped as whitespace, and a {@code \r} (or any other line
+ *    terminator besides {@code \n}) ends lexing early.
+ *  - A lone {@code 0} after {@code -} is emitted as {@code -0}, after which the
+ *    {@code 0} is lexed again as its own token.
+ *  - A {@code .} after an integer which is not followed by a digit is consumed
+ *    but not included in the integer.
+ */
+public final class TableLexer {
+
+    private static final int SKIP = 1;
+    private static final int STOP = 1 << 1;
+    private static final int LETTER = 1 << 2;
+    private static final int DIGIT = 1 << 3;
+    private static final int IDENTIFIER = 1 << 4;
+    private static final int STRING = 1 << 5;
+    private static final int ESCAPE = 1 << 6;
+    private static final int ANY = 1 << 7;
+
+    /**
+     * Character flags for ASCII; everything above is handled by
+     * {@link #flags(char)}.
+     */
+    private static final int[] FLAGS = new int[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            FLAGS[c] = ANY;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            FLAGS[c] |= LETTER | IDENTIFIER | STRING;
+            FLAGS[c + ('a' - 'A')] |= LETTER | IDENTIFIER | STRING;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            FLAGS[c] |= DIGIT | IDENTIFIER | STRING;
+        }
+        FLAGS['_'] |= IDENTIFIER;
+        FLAGS['-'] |= IDENTIFIER;
+        for (char c : ",!?. ".toCharArray()) {
+            FLAGS[c] |= STRING;
+        }
+        for (char c : "bnrt'\"".toCharArray()) {
+            FLAGS[c] |= ESCAPE;
+        }
+        for (char c : " |\b\n\t\r".toCharArray()) {
+            FLAGS[c] |= SKIP;
+        }
+        FLAGS['\n'] &= ~ANY;
+        FLAGS['\r'] = (FLAGS['\r'] & ~ANY) | STOP;
+    }
+
+    /**
+     * The default window size used for streaming input, in characters.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final CharStream chars;
+    private final SourceMap sourceMap = new SourceMap();
+    private int index = 0;
+
+    /**
+     * The span of the last token recognized by {@link #scan()}.
+     */
+    private Token.Type tokenType;
+    private int tokenStart;
+    private int tokenEnd;
+
+    /**
+     * The decoded value of the last token if it is a character or string
+     * literal with escapes, which is decoded while the literal is lexed.
+     * Literals without escapes leave it unset, since their value is just the
+     * literal without quotes.
+     */
+    private final StringBuilder decoded = new StringBuilder();
+    private boolean tokenEscaped;
+
+    public TableLexer(String input) {
+        this.chars = new StringStream(input);
+    }
+
+    /**
+     * Creates a lexer over the given stream which starts at index instead of
+     * at the beginning. The index must be a position where {@link Lexer} would
+     * start a token (or skip whitespace), such as the index of a token.
+     */
+    TableLexer(CharStream chars, int index) {
+        this.chars = chars;
+        this.index = index;
+    }
+
+    /**
+     * Creates a lexer reading from the given reader through a window of
+     * {@code capacity} characters. The window only grows if a single token is
+     * longer than it.
+     */
+    public TableLexer(Reader reader, int capacity) {
+        this.chars = new WindowStream(reader, capacity);
+    }
+
+    /**
+     * Creates a lexer reading UTF-8 from the given channel, as with
+     * {@link #TableLexer(Reader, int)}.
+     */
+    public TableLexer(ReadableByteChannel channel, int capacity) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8), capacity);
+    }
+
+    /**
+     * Creates a lexer over a memory-mapped file. ASCII files are lexed
+     * directly from the mapped bytes and token literals are only copied out
+     * when requested; any other file is decoded as UTF-8 up front.
+     */
+    public TableLexer(Path path) throws IOException {
+        this.chars = MappedStream.open(path);
+    }
+
+    /**
+     * Opens the given file as a {@link CharStream}, as with
+     * {@link #TableLexer(Path)}. The stream can be read from multiple threads.
+     */
+    static CharStream map(Path path) throws IOException {
+        return MappedStream.open(path);
+    }
+
+    /**
+     * Returns the lines lexed so far, which are all lines once the input has
+     * been lexed.
+     */
+    public SourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    /**
+     * Returns the index the lexer has reached, which is the end of the input
+     * unless lexing stopped early at a line terminator.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Lexes the entire input, equivalent to {@link Lexer#lex()}.
+     */
+    public List<Token> lex() {
+        List<Token> tokens = new ArrayList<>();
+        while (scan()) {
+            tokens.add(chars.emit(tokenType, tokenStart, tokenEnd, value(), symbol()));
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes the entire input into a {@link TokenBuffer}, which records each
+     * token as a few primitives instead of a {@link Token} object. This
+     * requires the whole input to stay available, so it is not supported for
+     * streaming input.
+     */
+    public TokenBuffer lexBuffer() {
+        return lexBuffer(new SymbolTable());
+    }
+
+    /**
+     * Lexes the entire input into a {@link TokenBuffer}, interning symbols in
+     * the given table so it can be shared between inputs.
+     */
+    public TokenBuffer lexBuffer(SymbolTable symbols) {
+        if (chars instanceof WindowStream) {
+            throw new IllegalStateException("A token buffer requires the entire input.");
+        }
+        TokenBuffer buffer = new TokenBuffer(chars, symbols, sourceMap);
+        while (scan()) {
+            buffer.add(tokenType, tokenStart, tokenEnd, tokenEscaped ? decoded : null);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns an iterator which lexes one token at a time. Any
+     * {@link ParseException} is thrown from {@link Iterator#hasNext()} when
+     * the invalid token is reached.
+     */
+    public Iterator<Token> iterator() {
+        return new Iterator<>() {
+
+            private Token next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && scan()) {
+                    next = chars.emit(tokenType, tokenStart, tokenEnd, value(), symbol());
+                }
+                return next != null;
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Token token = next;
+                next = null;
+                return token;
+            }
+
+        };
+    }
+
+    public Spliterator<Token> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * Skips whitespace and lexes the next token into {@link #tokenType},
+     * {@link #tokenStart} and {@link #tokenEnd}, returning false once the input is
+     * exhausted (or lexing stops at a line terminator).
+     */
+    private boolean scan() {
+        while (chars.has(index)) {
+            int flags = flags(chars.get(index));
+            if ((flags & STOP) != 0) {
+                break;
+            } else if ((flags & SKIP) != 0) {
+                //whitespace is released as it is skipped, so a long run of it is not buffered
+                chars.release(index);
+                int end = chars.skipWhitespace(index + 1);
+                for (; index < end; index++) {
+                    if (chars.get(index) == '\n') {
+                        sourceMap.addLine(index + 1);
+                    }
+                }
+            } else {
+                chars.release(index);
+                tokenEscaped = false;
+                lexToken(flags);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lexes the token starting at the current index, dispatching on the flags
+     * of its first character.
+     */
+    private void lexToken(int flags) {
+        char c = chars.get(index);
+        if ((flags & LETTER) != 0) {
+            lexIdentifier();
+        } else if ((flags & DIGIT) != 0 || c == '-') {
+            lexNumber();
+        } else if (c == '\'') {
+            lexCharacter();
+        } else if (c == '"') {
+            lexString();
+        } else {
+            lexOperator();
+        }
+    }
+
+    private void lexIdentifier() {
+        int start = index;
+        int end = chars.skipIdentifier(start + 1);
+        accept(Token.Type.IDENTIFIER, start, end, end);
+    }
+
+    /**
+     * Recognizes integers, decimals and a lone {@code -} with the states of
+     * {@link Lexer#lexNumber()}. The token always ends at {@code end}, but the
+     * index moves to {@code next}, which differs for {@code -0} and a trailing
+     * {@code .} (see the class comment).
+     */
+    private void lexNumber() {
+        int start = index;
+        int i = start;
+        if (chars.get(i) == '-') {
+            if (!is(i + 1, DIGIT)) {
+                accept(Token.Type.OPERATOR, start, start + 1, start + 1);
+                return;
+            }
+            i++;
+        }
+        Token.Type type = Token.Type.INTEGER;
+        int end;
+        int next;
+        if (chars.get(i) == '0') {
+            if (has(i + 1) && chars.get(i + 1) == '.' && is(i + 2, DIGIT)) {
+                type = Token.Type.DECIMAL;
+                end = digits(i + 3);
+                next = end;
+            } else {
+                end = i + 1;
+                next = i == start ? end : i;
+            }
+        } else {
+            end = digits(i + 1);
+            next = end;
+            if (has(end) && chars.get(end) == '.') {
+                if (is(end + 1, DIGIT)) {
+                    type = Token.Type.DECIMAL;
+                    end = digits(end + 2);
+                    next = end;
+                } else {
+                    next = end + 1;
+                }
+            }
+        }
+        accept(type, start, end, next);
+    }
+
+    private void lexCharacter() {
+        int start = index;
+        int end;
+        if (has(start + 1) && chars.get(start + 1) == '\\') {
+            if (!is(start + 2, ESCAPE) || !has(start + 3) || chars.get(start + 3) != '\'') {
+                throw new ParseException("Invalid char!", start + 2);
+            }
+            decoded.setLength(0);
+            decoded.append(Lexer.unescape(chars.get(start + 2)));
+            tokenEscaped = true;
+            end = start + 4;
+        } else if (is(start + 1, ANY) && has(start + 2) && chars.get(start + 2) == '\'') {
+            end = start + 3;
+        } else {
+            throw new ParseException("Invalid char!", start + 1);
+        }
+        accept(Token.Type.CHARACTER, start, end, end);
+    }
+
+    private void lexString() {
+        int start = index;
+        int i = start + 1;
+        while (true) {
+            if (!has(i)) {
+                throw new ParseException("Invalid string!", i);
+            }
+            char c = chars.get(i);
+            if (c == '"') {
+                i++;
+                break;
+            } else if (c == '\\') {
+                if (!is(i + 1, ESCAPE)) {
+                    throw new ParseException("Invalid string!", i + 1);
+                }
+                if (!tokenEscaped) {
+                    decoded.setLength(0);
+                    for (int j = start + 1; j < i; j++) {
+                        decoded.append(chars.get(j));
+                    }
+                    tokenEscaped = true;
+                }
+                decoded.append(Lexer.unescape(chars.get(i + 1)));
+                i += 2;
+            } else if ((flags(c) & STRING) != 0) {
+                if (tokenEscaped) {
+                    decoded.append(c);
+                }
+                i++;
+                if (!is(i, ANY)) {
+                    throw new ParseException("Invalid string!", i);
+                }
+            } else {
+                throw new ParseException("Invalid string!", i);
+            }
+        }
+        accept(Token.Type.STRING, start, i, i);
+    }
+
+    private void lexOperator() {
+        int start = index;
+        int length = 1;
+        if (has(start + 1)) {
+            char first = chars.get(start);
+            char second = chars.get(start + 1);
+            if ((first == '=' || first == '!') && second == '='
+                    || first == '&' && second == '&'
+                    || first == '|' && second == '|') {
+                length = 2;
+            }
+        }
+        accept(Token.Type.OPERATOR, start, start + length, start + length);
+    }
+
+    /**
+     * Records a token from start to end, moving the index to next.
+     */
+    private void accept(Token.Type type, int start, int end, int next) {
+        tokenType = type;
+        tokenStart = start;
+        tokenEnd = end;
+        index = next;
+    }
+
+    private String value() {
+        return tokenEscaped ? decoded.toString() : null;
+    }
+
+    /**
+     * Returns the symbol of the last scanned token if it is a keyword or
+     * operator, or {@link SymbolTable#NONE} otherwise.
+     */
+    private int symbol() {
+        return tokenType == Token.Type.IDENTIFIER || tokenType == Token.Type.OPERATOR
+                ? SymbolTable.predefined(chars, tokenStart, tokenEnd) : SymbolTable.NONE;
+    }
+
+    /**
+     * Returns the index of the first non-digit at or after {@code i}.
+     */
+    private int digits(int i) {
+        return chars.skipDigits(i);
+    }
+
+    private boolean has(int i) {
+        return chars.has(i);
+    }
+
+    private boolean is(int i, int flag) {
+        return chars.has(i) && (flags(chars.get(i)) & flag) != 0;
+    }
+
+    private static int flags(char c) {
+        if (c < 128) {
+            return FLAGS[c];
+        } else if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+            return STOP;
+        } else {
+            return ANY;
+        }
+    }
+
+    /**
+     * The characters being lexed, addressed by absolute index so tokens and
+     * {@link ParseException}s report positions in the whole input regardless
+     * of what is currently buffered.
+     */
+    public static abstract class CharStream {
+
+        /**
+         * Returns true if there is a character at the given index.
+         */
+        public abstract boolean has(int index);
+
+        /**
+         * Returns the length of the input, or -1 if it is not known up front
+         * (such as for streaming input).
+         */
+        public int length() {
+            return -1;
+        }
+
+        /**
+         * Gets the character at the given index, which must satisfy
+         * {@link #has(int)} and must not have been released.
+         */
+        public abstract char get(int index);
+
+        /**
+         * Returns the characters from start (inclusive) to end (exclusive).
+         */
+        public abstract String slice(int start, int end);
+
+        /**
+         * Returns the index of the first character at or after index which is
+         * not whitespace (excluding line terminators which stop lexing), or
+         * the end of the input. Streams may override this and the methods
+         * below to scan several characters at a time, and a stream may stop
+         * early at whitespace, in which case the caller skips from there.
+         */
+        public int skipWhitespace(int index) {
+            while (has(index) && (flags(get(index)) & (SKIP | STOP)) == SKIP) {
+                index++;
+            }
+            return index;
+        }
+
+        /**
+         * Returns the index of the first character at or after index which
+         * cannot continue an identifier, or the end of the input.
+         */
+        public int skipIdentifier(int index) {
+            while (has(index) && (flags(get(index)) & IDENTIFIER) != 0) {
+                index++;
+            }
+            return index;
+        }
+
+        /**
+         * Returns the index of the first character at or after index which is
+         * not a digit, or the end of the input.
+         */
+        public int skipDigits(int index) {
+            while (has(index) && (flags(get(index)) & DIGIT) != 0) {
+                index++;
+            }
+            return index;
+        }
+
+        /**
+         * Indicates characters before the given index will not be requested
+         * again and may be discarded.
+         */
+        public void release(int index) {}
+
+        /**
+         * Creates a token of the given type spanning start to end, with the
+         * decoded value of a literal with escapes (or null otherwise) and its
+         * {@link SymbolTable} symbol.
+         */
+        public Token emit(Token.Type type, int start, int end, String value, int symbol) {
+            return new Token(type, slice(start, end), start, value, symbol);
+        }
+
+    }
+
+    static final class StringStream extends CharStream {
+
+        private final String input;
+
+        StringStream(String input) {
+            this.input = input;
+        }
+
+        @Override
+        public boolean has(int index) {
+            return index < input.length();
+        }
+
+        @Override
+        public int length() {
+            return input.length();
+        }
+
+        @Override
+        public char get(int index) {
+            return input.charAt(index);
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            return input.substring(start, end);
+        }
+
+    }
+
+    /**
+     * A memory-mapped ASCII file, where each byte is one character. Tokens
+     * keep a reference to the mapping and slice their literal lazily.
+     *
+     * Runs of whitespace, identifier characters and digits are scanned eight
+     * bytes at a time by reading a {@code long} and classifying every byte at
+     * once with SWAR (SIMD within a register) arithmetic, falling back to the
+     * scalar loops for the last few bytes.
+     */
+    private static final class MappedStream extends CharStream {
+
+        private static final long ONES = 0x0101010101010101L;
+        private static final long HIGHS = 0x8080808080808080L;
+
+        private final MappedByteBuffer buffer;
+        private final int length;
+
+        private MappedStream(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.length = buffer.limit();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static CharStream open(Path path) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("File is too large to lex: " + path);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) < 0) {
+                    return new StringStream(Files.readString(path, StandardCharsets.UTF_8));
+                }
+            }
+            return new MappedStream(buffer);
+        }
+
+        @Override
+        public boolean has(int index) {
+            return index < length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char get(int index) {
+            return (char) buffer.get(index);
+        }
+
+        @Override
+        public int skipWhitespace(int index) {
+            for (; index + 8 <= length; index += 8) {
+                long word = buffer.getLong(index);
+                long matches = equal(word, ' ') | equal(word, '|') | equal(word, '\b') | equal(word, '\t') | equal(word, '\n');
+                if (matches != HIGHS) {
+                    return first(index, matches);
+                }
+            }
+            return super.skipWhitespace(index);
+        }
+
+        @Override
+        public int skipIdentifier(int index) {
+            for (; index + 8 <= length; index += 8) {
+                long word = buffer.getLong(index);
+                long matches = between(word, 'a', 'z') | between(word, 'A', 'Z') | between(word, '0', '9') | equal(word, '_') | equal(word, '-');
+                if (matches != HIGHS) {
+                    return first(index, matches);
+                }
+            }
+            return super.skipIdentifier(index);
+        }
+
+        @Override
+        public int skipDigits(int index) {
+            for (; index + 8 <= length; index += 8) {
+                long matches = between(buffer.getLong(index), '0', '9');
+                if (matches != HIGHS) {
+                    return first(index, matches);
+                }
+            }
+            return super.skipDigits(index);
+        }
+
+        /**
+         * Returns the index of the first byte in the word at index whose high
+         * bit is not set in matches, which is the lowest byte since words are
+         * read little-endian.
+         */
+        private static int first(int index, long matches) {
+            return index + (Long.numberOfTrailingZeros(~matches & HIGHS) >>> 3);
+        }
+
+        /**
+         * Sets the high bit of each byte of the word which equals c. Every
+         * byte is ASCII, so {@code b ^ c} is at most 0x7F and adding 0x7F only
+         * sets its high bit (without carrying) when it is non-zero.
+         */
+        private static long equal(long word, char c) {
+            long x = word ^ (c * ONES);
+            return ~((x + 0x7F * ONES) | x) & HIGHS;
+        }
+
+        /**
+         * Sets the high bit of each byte of the word which is between low and
+         * high (inclusive). Adding {@code 0x80 - low} sets the high bit when a
+         * byte is at least low, and adding {@code 0x7F - high} when it is more
+         * than high; neither carries for ASCII bytes.
+         */
+        private static long between(long word, char low, char high) {
+            return (word + (0x80 - low) * ONES) & ~(word + (0x7F - high) * ONES) & HIGHS;
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public Token emit(Token.Type type, int start, int end, String value, int symbol) {
+            return new Token(type, this, start, end, value, symbol);
+        }
+
+    }
+
+    /**
+     * A bounded buffer over a reader. The buffer holds the characters from
+     * {@code offset} to {@code offset + length}; when it fills up, released
+     * characters are shifted out, and the buffer is only enlarged if nothing
+     * can be released.
+     */
+    private static final class WindowStream extends CharStream {
+
+        private final Reader reader;
+        private char[] buffer;
+        private int offset = 0;
+        private int length = 0;
+        private int released = 0;
+        private boolean eof = false;
+
+        private WindowStream(Reader reader, int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Capacity must be positive.");
+            }
+            this.reader = reader;
+            this.buffer = new char[capacity];
+        }
+
+        @Override
+        public boolean has(int index) {
+            while (index >= offset + length && !eof) {
+                fill();
+            }
+            return index < offset + length;
+        }
+
+        @Override
+        public char get(int index) {
+            return buffer[index - offset];
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            return new String(buffer, start - offset, end - start);
+        }
+
+        @Override
+        public void release(int index) {
+            released = index;
+        }
+
+        /**
+         * Skips the whitespace already in the buffer, stopping at its end
+         * rather than reading more, so the skipped characters can be released
+         * before the buffer is refilled.
+         */
+        @Override
+        public int skipWhitespace(int index) {
+            while (index < offset + length && (flags(buffer[index - offset]) & (SKIP | STOP)) == SKIP) {
+                index++;
+            }
+            return index;
+        }
+
+        private void fill() {
+            if (length == buffer.length) {
+                int discard = released - offset;
+                if (discard > 0) {
+                    System.arraycopy(buffer, discard, buffer, 0, length - discard);
+                    offset += discard;
+                    length -= discard;
+                } else {
+                    char[] larger = new char[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+            }
+            try {
+                int read = reader.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+}
@@ -11,13 +11,56 @@ public final class Token {
         OPERATOR
     }
 
+    /**
+     * The symbol of a token whose symbol has not been looked up yet.
+     */
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
     private final Type type;
-    private final String literal;
+    private String literal;
+    private String value;
+    private int symbol;
+    private final TableLexer.CharStream source;
+    private final int end;
     private final int index;
 
     public Token(Type type, String literal, int index) {
+        this(type, literal, index, null);
+    }
+
+    /**
+     * Creates a token with the decoded value of a character or string literal
+     * already known from lexing, or null if it has no escapes.
+     */
+    Token(Type type, String literal, int index, String value) {
+        this(type, literal, index, value, UNKNOWN);
+    }
+
+    /**
+     * Creates a token with its decoded value as above and the
+     * {@link SymbolTable} symbol found while lexing.
+     */
+    Token(Type type, String literal, int index, String value, int symbol) {
         this.type = type;
         this.literal = literal;
+        this.value = value;
+        this.symbol = symbol;
+        this.source = null;
+        this.end = index + literal.length();
+        this.index = index;
+    }
+
+    /**
+     * Creates a token whose literal is sliced from the source only once it is
+     * requested through {@link #getLiteral()}.
+     */
+    Token(Type type, TableLexer.CharStream source, int index, int end, String value, int symbol) {
+        this.type = type;
+        this.literal = null;
+        this.value = value;
+        this.symbol = symbol;
+        this.source = source;
+        this.end = end;
         this.index = index;
     }
 
@@ -26,24 +69,78 @@ public final class Token {
     }
 
     public String getLiteral() {
+        if (literal == null) {
+            literal = source.slice(index, end);
+        }
         return literal;
     }
 
+    /**
+     * Returns the value of a character or string literal, which is the
+     * literal without quotes and with escapes decoded, or the literal itself
+     * for any other token. Tokens from the lexers carry the decoded value of
+     * literals with escapes, so this only decodes tokens created directly.
+     */
+    public String getValue() {
+        if (value == null) {
+            value = type == Type.CHARACTER || type == Type.STRING ? decode(getLiteral()) : getLiteral();
+        }
+        return value;
+    }
+
     public int getIndex() {
         return index;
     }
 
+    /**
+     * Returns the id of a keyword or operator in every {@link SymbolTable},
+     * or {@link SymbolTable#NONE} for any other token. The lexers find it
+     * while lexing, so this only looks it up for tokens created directly.
+     */
+    int getSymbol() {
+        if (symbol == UNKNOWN) {
+            symbol = type == Type.IDENTIFIER || type == Type.OPERATOR ? SymbolTable.predefined(getLiteral()) : SymbolTable.NONE;
+        }
+        return symbol;
+    }
+
+    /**
+     * Returns this token moved by delta characters, keeping its decoded
+     * value and symbol.
+     */
+    Token shift(int delta) {
+        return new Token(type, getLiteral(), index + delta, value, symbol);
+    }
+
+    /**
+     * Removes the quotes of a character or string literal and decodes its
+     * escapes in a single pass, which are assumed to be valid.
+     */
+    private static String decode(String literal) {
+        int escape = literal.indexOf('\\');
+        if (escape < 0) {
+            return literal.substring(1, literal.length() - 1);
+        }
+        StringBuilder builder = new StringBuilder(literal.length() - 2);
+        builder.append(literal, 1, escape);
+        for (int i = escape; i < literal.length() - 1; i++) {
+            char c = literal.charAt(i);
+            builder.append(c == '\\' ? Lexer.unescape(literal.charAt(++i)) : c);
+        }
+        return builder.toString();
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
                 && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=" + literal + "@" + index;
+        return type + "=" + getLiteral() + "@" + index;
     }
 
 }
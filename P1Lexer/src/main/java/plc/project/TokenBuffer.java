@@ -0,0 +1,215 @@
+package plc.project;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact list of tokens, stored as parallel arrays of type ordinals, start
+ * indices and lengths over the shared source. Literals are sliced from the
+ * source on demand, so a token costs a handful of bytes instead of a
+ * {@link Token} object and its literal string.
+ *
+ * Identifiers and operators are interned in a {@link SymbolTable} as they
+ * are added, so they can be compared by {@link #getSymbol(int)} and their
+ * literals are the table's canonical strings.
+ *
+ * The decoded values of character and string literals with escapes are
+ * appended to one shared buffer, so {@link #getValue(int)} never decodes.
+ * Literals without escapes are just sliced without their quotes.
+ *
+ * Code which wants {@link Token}s can still use {@link #get(int)} or
+ * {@link #asList()}, which create lazy views over the buffer.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final TableLexer.CharStream source;
+    private final SymbolTable symbols;
+    private final SourceMap sourceMap;
+    private byte[] types = new byte[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int[] symbolIds = new int[16];
+    private int size = 0;
+
+    /**
+     * For each token, the index of its decoded value in {@link #valueEnds},
+     * or -1 if it has none. Value k spans from {@code valueEnds[k - 1]} (or
+     * 0) to {@code valueEnds[k]} in {@link #values}.
+     */
+    private int[] valueIds = new int[16];
+    private int[] valueEnds = new int[4];
+    private int valueCount = 0;
+    private final StringBuilder values = new StringBuilder();
+
+    TokenBuffer(TableLexer.CharStream source, SymbolTable symbols, SourceMap sourceMap) {
+        this.source = source;
+        this.symbols = symbols;
+        this.sourceMap = sourceMap;
+    }
+
+    /**
+     * Adds a token, with the decoded value of a literal with escapes (or null
+     * otherwise).
+     */
+    void add(Token.Type type, int start, int end, CharSequence value) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            symbolIds = Arrays.copyOf(symbolIds, size * 2);
+            valueIds = Arrays.copyOf(valueIds, size * 2);
+        }
+        if (value != null) {
+            if (valueCount == valueEnds.length) {
+                valueEnds = Arrays.copyOf(valueEnds, valueCount * 2);
+            }
+            values.append(value);
+            valueEnds[valueCount] = values.length();
+            valueIds[size] = valueCount++;
+        } else {
+            valueIds[size] = -1;
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = end - start;
+        if (type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) {
+            symbolIds[size] = symbols.intern(source, start, end);
+        } else {
+            symbolIds[size] = SymbolTable.NONE;
+        }
+        size++;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the lines of the source, to map token indices to positions.
+     */
+    public SourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type getType(int i) {
+        return TYPES[types[check(i)]];
+    }
+
+    /**
+     * Returns the index of the token in the source, as {@link Token#getIndex()}.
+     */
+    public int getIndex(int i) {
+        return starts[check(i)];
+    }
+
+    public int getLength(int i) {
+        return lengths[check(i)];
+    }
+
+    /**
+     * Returns the symbol id of an identifier or operator, or
+     * {@link SymbolTable#NONE} for any other token.
+     */
+    public int getSymbol(int i) {
+        return symbolIds[check(i)];
+    }
+
+    /**
+     * Returns the literal of the token, which is the canonical name for
+     * symbols and is otherwise sliced from the source.
+     */
+    public String getLiteral(int i) {
+        if (symbolIds[check(i)] != SymbolTable.NONE) {
+            return symbols.name(symbolIds[i]);
+        }
+        return source.slice(starts[i], starts[i] + lengths[i]);
+    }
+
+    /**
+     * Returns the character at the given offset in the literal of the token,
+     * without slicing the literal.
+     */
+    public char charAt(int i, int offset) {
+        if (offset < 0 || offset >= lengths[check(i)]) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " out of bounds for length " + lengths[i]);
+        }
+        return source.get(starts[i] + offset);
+    }
+
+    /**
+     * Returns the value of the token, as {@link Token#getValue()}.
+     */
+    public String getValue(int i) {
+        Token.Type type = getType(i);
+        if (valueIds[i] >= 0) {
+            int id = valueIds[i];
+            return values.substring(id == 0 ? 0 : valueEnds[id - 1], valueEnds[id]);
+        } else if (type == Token.Type.CHARACTER || type == Token.Type.STRING) {
+            return source.slice(starts[i] + 1, starts[i] + lengths[i] - 1);
+        }
+        return getLiteral(i);
+    }
+
+    /**
+     * Returns true if the literal of the token equals the given string, without
+     * slicing the literal.
+     */
+    public boolean literalEquals(int i, String literal) {
+        if (lengths[check(i)] != literal.length()) {
+            return false;
+        }
+        int start = starts[i];
+        for (int j = 0; j < literal.length(); j++) {
+            if (source.get(start + j) != literal.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a {@link Token} view of the token, whose literal is sliced when
+     * first requested.
+     */
+    public Token get(int i) {
+        if (symbolIds[check(i)] != SymbolTable.NONE) {
+            int symbol = SymbolTable.isPredefined(symbolIds[i]) ? symbolIds[i] : SymbolTable.NONE;
+            return new Token(getType(i), symbols.name(symbolIds[i]), starts[i], null, symbol);
+        }
+        return new Token(getType(i), source, starts[i], starts[i] + lengths[i], valueIds[i] >= 0 ? getValue(i) : null, SymbolTable.NONE);
+    }
+
+    /**
+     * Returns a list view of the buffer, creating {@link Token}s on access.
+     */
+    public List<Token> asList() {
+        return new AbstractList<>() {
+
+            @Override
+            public Token get(int index) {
+                return TokenBuffer.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,101 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link AstCache} loads the same analyzed source it stored, and
+ * misses for other sources and versions.
+ */
+final class AstCacheTests {
+
+    private static final String SOURCE = "VAR x: Integer = 1;\nVAL name: String = \"plc\";\nFUN main(): Integer DO\n    print(x + 2);\n    print(name);\n    RETURN x;\nEND";
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("AstCacheTests");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        Ast.Source expected = analyze(SOURCE);
+        AstCache cache = new AstCache(directory);
+        Assertions.assertEquals(Optional.empty(), cache.load(SOURCE));
+        cache.store(SOURCE, expected);
+        Ast.Source loaded = cache.load(SOURCE).orElseThrow();
+        Assertions.assertEquals(expected, loaded);
+        Ast.Statement.Return statement = (Ast.Statement.Return) loaded.getFunctions().get(0).getStatements().get(2);
+        Assertions.assertSame(loaded.getGlobals().get(0).getVariable(), ((Ast.Expression.Access) statement.getValue()).getVariable());
+        Assertions.assertSame(Environment.Type.INTEGER, statement.getValue().getType());
+    }
+
+    @Test
+    void testMisses() throws IOException {
+        new AstCache(directory).store(SOURCE, analyze(SOURCE));
+        Assertions.assertEquals(Optional.empty(), new AstCache(directory).load(SOURCE + " "));
+        Assertions.assertEquals(Optional.empty(), new AstCache(directory, "other").load(SOURCE));
+    }
+
+    @Test
+    void testDeepExpression() throws IOException {
+        String source = "FUN main(): Integer DO\n    RETURN " + "(".repeat(100000) + "1" + " + 1)".repeat(100000) + ";\nEND";
+        AstCache cache = new AstCache(directory);
+        cache.store(source, analyze(source));
+        Ast.Source loaded = cache.load(source).orElseThrow();
+        Ast.Statement.Return statement = (Ast.Statement.Return) loaded.getFunctions().get(0).getStatements().get(0);
+        Assertions.assertSame(Environment.Type.INTEGER, statement.getValue().getType());
+        Assertions.assertEquals(BigInteger.valueOf(100001), new Interpreter(new Scope(null)).visit(loaded).getValue());
+    }
+
+    @Test
+    void testCorruptEntry() throws IOException {
+        AstCache cache = new AstCache(directory);
+        cache.store(SOURCE, analyze(SOURCE));
+        Path path = cache.path(SOURCE);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length / 2));
+        Assertions.assertEquals(Optional.empty(), cache.load(SOURCE));
+    }
+
+    @Test
+    void testCorruptLength() throws IOException {
+        AstCache cache = new AstCache(directory);
+        cache.store(SOURCE, analyze(SOURCE));
+        Path path = cache.path(SOURCE);
+        byte[] bytes = Files.readAllBytes(path);
+        //the length of the version string, after the magic number and format
+        ByteBuffer.wrap(bytes).putInt(8, Integer.MAX_VALUE - 8);
+        Files.write(path, bytes);
+        Assertions.assertEquals(Optional.empty(), cache.load(SOURCE));
+    }
+
+    private static Ast.Source analyze(String source) {
+        Ast.Source ast = new Parser(new TableLexer(source).lexBuffer()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        return ast;
+    }
+
+}
@@ -0,0 +1,100 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link AstWalker} gives the same results in parallel as a
+ * sequential walk of the source.
+ */
+final class AstWalkerTests {
+
+    private static final String SOURCE = "VAR x: Integer = 1;\nLIST l = [x, 2];\nFUN f(a): Integer DO\n    IF a > x DO\n        WHILE a < 10 DO a = a + 1; END\n    END\n    RETURN a;\nEND\nFUN main(): Integer DO\n    SWITCH x CASE 1: print(l[0]); DEFAULT RETURN f(x); END\nEND";
+
+    private static final String FUNCTIONS = IntStream.range(0, 40)
+            .mapToObj(i -> "FUN f" + i + "(): Integer DO\n    RETURN x + " + i + ";\nEND\n")
+            .collect(Collectors.joining());
+
+    @ParameterizedTest
+    @MethodSource
+    void testWalk(String test, String input) {
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        List<Ast> expected = new ArrayList<>();
+        AstWalker.forEachNode(source, expected::add);
+        List<Ast> nodes = walk(walker -> walker.walk(source, Collectors.toList()));
+        Assertions.assertEquals(expected.size(), nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Assertions.assertSame(expected.get(i), nodes.get(i));
+        }
+    }
+
+    private static Stream<Arguments> testWalk() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Globals", "VAR x: Integer = 1;\nVAL y = x + 1;"),
+                Arguments.of("Source", SOURCE),
+                Arguments.of("Functions", FUNCTIONS)
+        );
+    }
+
+    @Test
+    void testFuse() {
+        Ast.Source source = new Parser(new Lexer(SOURCE).lex()).parseSource();
+        List<Object> results = walk(walker -> walker.walk(source, AstWalker.fuse(Arrays.asList(
+                Collectors.counting(),
+                Collectors.filtering(node -> node instanceof Ast.Expression.Access,
+                        Collectors.mapping(node -> ((Ast.Expression.Access) node).getName(), Collectors.toList())),
+                Collectors.filtering(node -> node instanceof Ast.Expression.Function,
+                        Collectors.mapping(node -> ((Ast.Expression.Function) node).getName(), Collectors.toList()))
+        ))));
+        Assertions.assertEquals(Arrays.asList(
+                36L,
+                Arrays.asList("x", "a", "x", "a", "a", "a", "a", "x", "l", "x"),
+                Arrays.asList("print", "f")
+        ), results);
+    }
+
+    @Test
+    void testEmptyReturn() {
+        Ast.Statement.Return statement = new Ast.Statement.Return(null);
+        List<Ast> nodes = new ArrayList<>();
+        AstWalker.forEachNode(statement, nodes::add);
+        Assertions.assertEquals(1, nodes.size());
+        Assertions.assertSame(statement, nodes.get(0));
+    }
+
+    @Test
+    void testReduce() {
+        Ast.Source source = new Parser(new Lexer(FUNCTIONS).lex()).parseSource();
+        List<String> expected = source.getFunctions().stream().map(Ast.Function::getName).collect(Collectors.toList());
+        List<String> names = walk(walker -> walker.reduce(source, new ArrayList<>(),
+                function -> new ArrayList<>(Arrays.asList(function.getName())),
+                (left, right) -> {
+                    left.addAll(right);
+                    return left;
+                }));
+        Assertions.assertEquals(expected, names);
+    }
+
+    private static <R> R walk(Function<AstWalker, R> pass) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            return pass.apply(new AstWalker(pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
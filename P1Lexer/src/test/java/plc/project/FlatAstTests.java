@@ -0,0 +1,159 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Tests that a {@link FlatAst} materializes to the same source as
+ * {@link Parser#parseSource()}, and that its accessors read the encoded nodes.
+ */
+final class FlatAstTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testMaterialize(String test, String input) {
+        Ast.Source expected = new Parser(new TableLexer(input).lexBuffer()).parseSource();
+        FlatAst parsed = new Parser(new TableLexer(input).lexBuffer()).parseFlatSource();
+        Assertions.assertEquals(expected, parsed.materialize(parsed.getRoot()));
+        FlatAst encoded = FlatAst.of(expected);
+        Assertions.assertEquals(expected, encoded.materialize(encoded.getRoot()));
+    }
+
+    private static Stream<Arguments> testMaterialize() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Globals", "LIST l: Integer = [1, 2];\nVAR x: Integer = 1;\nVAL y: Decimal = 2.5;\nVAR z;"),
+                Arguments.of("Function", "FUN f(a: Integer, b: Integer): Integer DO\n    c = a * (b + 1);\n    RETURN c;\nEND"),
+                Arguments.of("Statements", "FUN main() DO\n    IF x DO y = 1; ELSE y = 2; END\n    WHILE x < 10 DO x = x + 1; END\n    SWITCH x CASE 1: print(\"one\"); DEFAULT print('d'); END\n    l[0] = NIL;\nEND"),
+                Arguments.of("Literals", "VAR a = TRUE;\nVAR b = 12345678901234567890;\nVAR c = -0.000125;\nVAR d = \"s\\n\";")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testDeepExpression(String test, String input) {
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        FlatAst parsed = new Parser(new Lexer(input).lex()).parseFlatSource();
+        Assertions.assertEquals(describe(expected), describe(parsed.materialize(parsed.getRoot())));
+        FlatAst encoded = FlatAst.of(expected);
+        Assertions.assertEquals(parsed.size(), encoded.size());
+        Assertions.assertEquals(describe(expected), describe(encoded.materialize(encoded.getRoot())));
+        Assertions.assertEquals(describe(expected), describe(encoded.materializeAll()[encoded.getRoot()]));
+    }
+
+    private static Stream<Arguments> testDeepExpression() {
+        int depth = 100000;
+        return Stream.of(
+                Arguments.of("Left Groups", "FUN main() DO\n    RETURN " + "(".repeat(depth) + "1" + " + 1)".repeat(depth) + ";\nEND"),
+                Arguments.of("Right Groups", "FUN main() DO\n    RETURN " + "1 + (".repeat(depth) + "1 + 1" + ")".repeat(depth) + ";\nEND"),
+                Arguments.of("Chain", "VAR x = 1" + " * x".repeat(depth) + ";")
+        );
+    }
+
+    @Test
+    void testAccessors() {
+        FlatAst ast = new Parser(new TableLexer("VAR x: Integer = 1;\nFUN f(a: Integer): Integer DO\n    RETURN a + 2 * x;\nEND").lexBuffer()).parseFlatSource();
+        int source = ast.getRoot();
+        Assertions.assertEquals(FlatAst.Kind.SOURCE, ast.getKind(source));
+        Assertions.assertEquals(1, ast.getListSize(source, 0));
+        int global = ast.getListElement(source, 0, 0);
+        Assertions.assertEquals("x", ast.getName(global));
+        Assertions.assertEquals("Integer", ast.getTypeName(global));
+        Assertions.assertTrue(ast.isMutable(global));
+        Assertions.assertEquals(BigInteger.ONE, ast.getLiteral(ast.getChild(global)));
+        int function = ast.getListElement(source, 1, 0);
+        Assertions.assertEquals("f", ast.getName(function));
+        Assertions.assertEquals(1, ast.getParameterCount(function));
+        Assertions.assertEquals("a", ast.getParameter(function, 0));
+        Assertions.assertEquals("Integer", ast.getParameterTypeName(function, 0));
+        int statement = ast.getListElement(function, 0, 0);
+        Assertions.assertEquals(FlatAst.Kind.RETURN, ast.getKind(statement));
+        int binary = ast.getChild(statement);
+        Assertions.assertEquals("+", ast.getName(binary));
+        Assertions.assertEquals(FlatAst.Kind.ACCESS, ast.getKind(ast.getChild(binary)));
+        Assertions.assertEquals("*", ast.getName(ast.getSecondChild(binary)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ast.isMutable(function));
+    }
+
+    @Test
+    void testCursor() {
+        FlatAst ast = new Parser(new TableLexer("VAR x: Integer = 1;\nFUN f(a: Integer): Integer DO\n    RETURN a + 2 * x;\nEND").lexBuffer()).parseFlatSource();
+        FlatAst.Cursor cursor = ast.cursor();
+        cursor.toElement(1, 0);
+        Assertions.assertEquals("f", cursor.getName());
+        Assertions.assertFalse(cursor.toNextSibling());
+        cursor.toElement(0, 0);
+        Assertions.assertEquals(FlatAst.Kind.RETURN, cursor.getKind());
+        Assertions.assertTrue(cursor.toChild());
+        cursor.toSecondChild();
+        Assertions.assertEquals("*", cursor.getName());
+        Assertions.assertTrue(cursor.toFirstChild());
+        Assertions.assertEquals(BigInteger.valueOf(2), cursor.getLiteral());
+        Assertions.assertTrue(cursor.toNextSibling());
+        Assertions.assertEquals("x", cursor.getName());
+        Assertions.assertFalse(cursor.toFirstChild());
+        Assertions.assertEquals(5, cursor.getDepth());
+        while (cursor.toParent()) {
+        }
+        Assertions.assertEquals(ast.getRoot(), cursor.getNode());
+        Assertions.assertThrows(IllegalArgumentException.class, cursor::toChild);
+    }
+
+    @ParameterizedTest
+    @MethodSource({"testMaterialize", "testDeepExpression"})
+    void testCursorWalk(String test, String input) {
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        List<Ast> added = new ArrayList<>();
+        FlatAst ast = FlatAst.of(source, added);
+        List<Ast> expected = new ArrayList<>();
+        AstWalker.forEachNode(source, expected::add);
+        //each node is reached once, in the order of a recursive walk
+        List<Ast> nodes = new ArrayList<>();
+        FlatAst.Cursor cursor = ast.cursor();
+        do {
+            nodes.add(added.get(cursor.getNode()));
+        } while (cursor.toNext());
+        Assertions.assertEquals(ast.getRoot(), cursor.getNode());
+        Assertions.assertEquals(expected.size(), nodes.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertSame(expected.get(i), nodes.get(i));
+        }
+    }
+
+    @Test
+    void testLazyStatements() {
+        FlatAst ast = new Parser(new TableLexer("FUN main() DO\n    RETURN 0;\nEND").lexBuffer()).parseFlatSource();
+        Ast.Source source = (Ast.Source) ast.materialize(ast.getRoot());
+        Assertions.assertFalse(source.getFunctions().get(0).isParsed());
+        Assertions.assertEquals(1, source.getFunctions().get(0).getStatements().size());
+    }
+
+    /**
+     * Describes every node of the tree, without the recursion of
+     * {@link Ast#equals(Object)}.
+     */
+    private static List<String> describe(Ast ast) {
+        List<String> nodes = new ArrayList<>();
+        AstWalker.forEachNode(ast, node -> {
+            if (node instanceof Ast.Expression.Binary) {
+                nodes.add(((Ast.Expression.Binary) node).getOperator());
+            } else if (node instanceof Ast.Expression.Literal) {
+                nodes.add(String.valueOf(((Ast.Expression.Literal) node).getLiteral()));
+            } else if (node instanceof Ast.Expression.Access) {
+                nodes.add(((Ast.Expression.Access) node).getName());
+            } else {
+                nodes.add(node.getClass().getSimpleName());
+            }
+        });
+        return nodes;
+    }
+
+}
@@ -0,0 +1,119 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests that a {@link FrozenAst} cannot be annotated again and can be
+ * interpreted by many threads at once.
+ */
+final class FrozenAstTests {
+
+    private static final String SOURCE = "VAR x: Integer = 1;\nFUN f(): Integer DO\n    RETURN x * 2;\nEND\nFUN main(): Integer DO\n    RETURN f() + 2;\nEND";
+
+    @Test
+    void testSetters() {
+        Ast.Source source = analyze(new Parser(new TableLexer(SOURCE).lex()).parseSource());
+        FrozenAst frozen = FrozenAst.freeze(source);
+        Assertions.assertSame(source, frozen.getSource());
+        Ast.Statement.Return statement = (Ast.Statement.Return) source.getFunctions().get(1).getStatements().get(0);
+        Ast.Expression.Binary binary = (Ast.Expression.Binary) statement.getValue();
+        Assertions.assertSame(Environment.Type.INTEGER, binary.getType());
+        Assertions.assertThrows(IllegalStateException.class, () -> binary.setType(Environment.Type.DECIMAL));
+        Assertions.assertThrows(IllegalStateException.class, () -> source.getGlobals().get(0).setVariable(null));
+        Assertions.assertThrows(RuntimeException.class, () -> new Analyzer(new Scope(null)).visit(source));
+        Assertions.assertSame(Environment.Type.INTEGER, binary.getType());
+    }
+
+    @Test
+    void testLazyBodies() {
+        Ast.Source source = new Parser(new TableLexer(SOURCE).lex()).parseSourceLazily();
+        Assertions.assertFalse(source.getFunctions().get(0).isParsed());
+        FrozenAst.freeze(source);
+        for (Ast.Function function : source.getFunctions()) {
+            Assertions.assertTrue(function.isParsed());
+        }
+    }
+
+    @Test
+    void testLists() {
+        Ast.Source source = new Parser(new TableLexer("LIST l = [1, 2];\n" + SOURCE + "\nFUN g(y) DO\n    IF y DO h(y, 1); END\nEND").lex()).parseSourceLazily();
+        FrozenAst.freeze(source);
+        Ast.Function function = source.getFunctions().get(2);
+        Ast.Statement.If statement = (Ast.Statement.If) function.getStatements().get(0);
+        Ast.Expression.Function call = (Ast.Expression.Function) ((Ast.Statement.Expression) statement.getThenStatements().get(0)).getExpression();
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> source.getGlobals().clear());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> source.getFunctions().remove(0));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> function.getParameters().add("z"));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> function.getStatements().clear());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> statement.getElseStatements().add(statement));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> call.getArguments().clear());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> ((Ast.Expression.PlcList) source.getGlobals().get(0).getValue().get()).getValues().clear());
+    }
+
+    @Test
+    void testCompactLiterals() throws Exception {
+        Ast.Source source = new Parser(new TableLexer(SOURCE).lex()).parseSource();
+        List<Ast.Expression.Literal> literals = new ArrayList<>();
+        AstWalker.forEachNode(source, node -> {
+            if (node instanceof Ast.Expression.Literal && ((Ast.Expression.Literal) node).isCompactInteger()) {
+                literals.add((Ast.Expression.Literal) node);
+            }
+        });
+        Assertions.assertEquals(3, literals.size());
+        FrozenAst.freeze(source);
+        //every thread sees the same value, which was created when freezing
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Object>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    List<Object> values = new ArrayList<>();
+                    for (Ast.Expression.Literal literal : literals) {
+                        values.add(literal.getLiteral());
+                    }
+                    return values;
+                }));
+            }
+            for (Future<List<Object>> result : results) {
+                List<Object> values = result.get();
+                for (int i = 0; i < literals.size(); i++) {
+                    Assertions.assertEquals(BigInteger.valueOf(literals.get(i).getLongValue()), values.get(i));
+                    Assertions.assertSame(results.get(0).get().get(i), values.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testConcurrentInterpreters() throws Exception {
+        FrozenAst frozen = FrozenAst.freeze(analyze(new Parser(new TableLexer(SOURCE).lex()).parseSource()));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> new Interpreter(new Scope(null)).visit(frozen.getSource()).getValue()));
+            }
+            for (Future<Object> result : results) {
+                Assertions.assertEquals(BigInteger.valueOf(4), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Ast.Source analyze(Ast.Source source) {
+        new Analyzer(new Scope(null)).visit(source);
+        return source;
+    }
+
+}
@@ -0,0 +1,128 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link IncrementalLexer#relex} produces the same tokens (or the
+ * same exception index) as lexing the edited source from scratch.
+ */
+final class IncrementalLexerTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testEdit(String test, String source, int offset, int removed, String inserted) {
+        test(source, offset, removed, inserted);
+    }
+
+    private static Stream<Arguments> testEdit() {
+        return Stream.of(
+                Arguments.of("Insert Identifier", "LET x = 5;", 4, 1, "name"),
+                Arguments.of("Extend Identifier", "LET x = 5;", 5, 0, "yz"),
+                Arguments.of("Join Tokens", "a b", 1, 1, ""),
+                Arguments.of("Split Token", "abc", 1, 0, " "),
+                Arguments.of("Decimal", "1 .5", 1, 1, ""),
+                Arguments.of("Negative Zero", "- 0;", 1, 1, ""),
+                Arguments.of("Open String", "x = 1; y = 2;", 4, 0, "\""),
+                Arguments.of("Close String", "x = \"abc; y = 2;", 8, 0, "\""),
+                Arguments.of("Carriage Return", "a b c", 2, 0, "\r"),
+                Arguments.of("Remove Carriage Return", "a b\r c", 3, 1, ""),
+                Arguments.of("Edit Whitespace", "a  b", 2, 0, "c"),
+                Arguments.of("Append", "a", 1, 0, " b"),
+                Arguments.of("Empty Source", "", 0, 0, "x")
+        );
+    }
+
+    @Test
+    void testReusesTail() {
+        String source = "LET x = 1;\nLET y = 2;\nLET z = 3;";
+        List<Token> tokens = new TableLexer(source).lex();
+        List<Token> relexed = IncrementalLexer.relex(source, tokens, 15, 1, "abc");
+        Assertions.assertEquals(new Token(Token.Type.IDENTIFIER, "abc", 15), relexed.get(6));
+        Assertions.assertEquals(new Token(Token.Type.IDENTIFIER, "z", 28), relexed.get(11));
+        Assertions.assertSame(tokens.get(0), relexed.get(0));
+        //a shifted token is created once and then read again
+        Assertions.assertSame(relexed.get(11), relexed.get(11));
+    }
+
+    @Test
+    void testShiftKeepsValue() {
+        String source = "x = \"a\\nb\";";
+        List<Token> tokens = new TableLexer(source).lex();
+        Token shifted = IncrementalLexer.relex(source, tokens, 0, 1, "yy").get(2);
+        Assertions.assertEquals(new Token(Token.Type.STRING, "\"a\\nb\"", 5), shifted);
+        Assertions.assertEquals("a\nb", shifted.getValue());
+    }
+
+    @Test
+    void testRandomEdits() {
+        String alphabet = "abZ09_-.'\"\\ |\n\t\r\b=!&@;()[],?x5";
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            String source = random(random, alphabet, random.nextInt(24));
+            int offset = random.nextInt(source.length() + 1);
+            int removed = random.nextInt(Math.min(3, source.length() - offset) + 1);
+            test(source, offset, removed, random(random, alphabet, random.nextInt(4)));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRepeatedEdits() {
+        String alphabet = "abZ09_-. |\n\t=!&;()[],x5";
+        Random random = new Random(0);
+        String source = "VAR x: Integer = 1;\nFUN main() DO\n    print(x + 2);\nEND\n".repeat(20);
+        List<Token> tokens = new TableLexer(source).lex();
+        for (int i = 0; i < 500; i++) {
+            int offset = random.nextInt(source.length() + 1);
+            int removed = random.nextInt(Math.min(3, source.length() - offset) + 1);
+            String inserted = random(random, alphabet, random.nextInt(4));
+            String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+            Object expected = lex(() -> new Lexer(edited).lex());
+            List<Token> previous = tokens;
+            String original = source;
+            Object relexed = lex(() -> IncrementalLexer.relex(original, previous, offset, removed, inserted));
+            Assertions.assertEquals(expected, relexed, edited);
+            if (relexed instanceof List) {
+                source = edited;
+                tokens = (List<Token>) relexed;
+            }
+        }
+    }
+
+    private static void test(String source, int offset, int removed, String inserted) {
+        List<Token> tokens;
+        try {
+            tokens = new Lexer(source).lex();
+        } catch (ParseException e) {
+            return;
+        }
+        String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+        Object expected = lex(() -> new Lexer(edited).lex());
+        Assertions.assertEquals(expected, lex(() -> IncrementalLexer.relex(source, tokens, offset, removed, inserted)), edited);
+    }
+
+    private static String random(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    private static Object lex(java.util.function.Supplier<List<Token>> lexer) {
+        try {
+            return lexer.get();
+        } catch (ParseException e) {
+            return e.getIndex();
+        }
+    }
+
+}
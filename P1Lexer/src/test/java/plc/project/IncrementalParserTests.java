@@ -0,0 +1,109 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link IncrementalParser#parse} produces the same source (or the
+ * same exception index) as parsing the edited source from scratch.
+ */
+final class IncrementalParserTests {
+
+    private static final String SOURCE = "VAR x: Integer = 1;\nVAL y: Integer = 2;\nFUN f(): Integer DO\n    RETURN x;\nEND\nFUN g(): Integer DO\n    RETURN y;\nEND\nFUN main(): Integer DO\n    RETURN f() + g();\nEND";
+
+    @ParameterizedTest
+    @MethodSource
+    void testEdit(String test, String edited) {
+        IncrementalParser parser = new IncrementalParser();
+        parser.parse(new TableLexer(SOURCE).lex());
+        List<Token> tokens = new TableLexer(edited).lex();
+        Assertions.assertEquals(parse(() -> new Parser(tokens).parseSource()), parse(() -> parser.parse(tokens)));
+    }
+
+    private static Stream<Arguments> testEdit() {
+        return Stream.of(
+                Arguments.of("Unchanged", SOURCE),
+                Arguments.of("Edit Function", SOURCE.replace("RETURN x;", "RETURN x + 1;")),
+                Arguments.of("Edit Global", SOURCE.replace("= 2", "= 3")),
+                Arguments.of("Remove Function", SOURCE.replace("FUN g(): Integer DO\n    RETURN y;\nEND\n", "")),
+                Arguments.of("Swap Functions", "FUN g(): Integer DO\n    RETURN y;\nEND\nFUN f(): Integer DO\n    RETURN x;\nEND"),
+                Arguments.of("Function To Global", SOURCE.replace("FUN g(): Integer DO\n    RETURN y;\nEND\n", "VAR g = 1;\n")),
+                Arguments.of("Missing End", SOURCE.substring(0, SOURCE.length() - 4)),
+                Arguments.of("Missing Semicolon", SOURCE.replace("= 2;", "= 2")),
+                Arguments.of("Trailing Tokens", SOURCE + "\nx = 1;")
+        );
+    }
+
+    @Test
+    void testReusesUnchanged() {
+        IncrementalParser parser = new IncrementalParser();
+        Ast.Source first = parser.parse(new TableLexer(SOURCE).lex());
+        String edited = SOURCE.replace("RETURN y;", "RETURN y * 2;");
+        List<Token> tokens = IncrementalLexer.relex(SOURCE, new TableLexer(SOURCE).lex(), SOURCE.indexOf("y;"), 1, "y * 2");
+        Ast.Source second = parser.parse(tokens);
+        Assertions.assertEquals(new Parser(new TableLexer(edited).lex()).parseSource(), second);
+        Assertions.assertEquals(4, parser.getReused());
+        Assertions.assertSame(first.getGlobals().get(0), second.getGlobals().get(0));
+        Assertions.assertSame(first.getFunctions().get(0), second.getFunctions().get(0));
+        Assertions.assertNotSame(first.getFunctions().get(1), second.getFunctions().get(1));
+        Assertions.assertSame(first.getFunctions().get(2), second.getFunctions().get(2));
+    }
+
+    @Test
+    void testRepeatedEdits() {
+        String[] edits = {"1", "x", " ", ";", "END", "FUN h() DO\n", "VAR z = 3;\n", ""};
+        Random random = new Random(0);
+        String source = SOURCE.repeat(10);
+        List<Token> tokens = new TableLexer(source).lex();
+        IncrementalParser parser = new IncrementalParser();
+        for (int i = 0; i < 300; i++) {
+            int offset = random.nextInt(source.length() + 1);
+            int removed = random.nextInt(Math.min(4, source.length() - offset) + 1);
+            String inserted = edits[random.nextInt(edits.length)];
+            List<Token> relexed;
+            try {
+                relexed = IncrementalLexer.relex(source, tokens, offset, removed, inserted);
+            } catch (ParseException e) {
+                continue;
+            }
+            source = source.substring(0, offset) + inserted + source.substring(offset + removed);
+            tokens = relexed;
+            List<Token> lexed = new TableLexer(source).lex();
+            Assertions.assertEquals(parse(() -> new Parser(lexed).parseSource()), parse(() -> parser.parse(relexed)), source);
+        }
+    }
+
+    @Test
+    void testKeepsSourceAfterException() {
+        IncrementalParser parser = new IncrementalParser();
+        Ast.Source first = parser.parse(new TableLexer(SOURCE).lex());
+        Assertions.assertThrows(ParseException.class, () -> parser.parse(new TableLexer(SOURCE.replace("RETURN x;", "RETURN ;")).lex()));
+        Assertions.assertSame(first, parser.getSource());
+        Ast.Source second = parser.parse(new TableLexer(SOURCE).lex());
+        Assertions.assertEquals(5, parser.getReused());
+        Assertions.assertEquals(first, second);
+    }
+
+    /**
+     * Returns the source, or the index of the {@link ParseException} (or the
+     * class of the exception for statements the parser does not support), so
+     * both outcomes can be compared with a single assertion.
+     */
+    private static Object parse(java.util.function.Supplier<Ast.Source> parser) {
+        try {
+            return parser.get();
+        } catch (ParseException e) {
+            return e.getIndex();
+        } catch (UnsupportedOperationException e) {
+            return e.getClass();
+        }
+    }
+
+}
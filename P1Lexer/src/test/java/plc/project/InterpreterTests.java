@@ -8,8 +8,11 @@ import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -136,6 +139,24 @@ final class InterpreterTests {
         }
     }
 
+    @Test
+    void testGroupExpressionStatement() {
+        // (log(1) + 1);
+        Scope scope = new Scope(null);
+        List<Object> logged = new ArrayList<>();
+        scope.defineFunction("log", 1, args -> {
+            logged.add(args.get(0).getValue());
+            return args.get(0);
+        });
+        test(new Ast.Statement.Expression(
+                new Ast.Expression.Group(new Ast.Expression.Binary("+",
+                        new Ast.Expression.Function("log", Arrays.asList(new Ast.Expression.Literal(BigInteger.ONE))),
+                        new Ast.Expression.Literal(BigInteger.ONE)
+                ))
+        ), Environment.NIL.getValue(), scope);
+        Assertions.assertEquals(Arrays.asList(BigInteger.ONE), logged);
+    }
+
     @ParameterizedTest
     @MethodSource
     void testDeclarationStatement(String test, Ast.Statement.Declaration ast, Object expected) {
@@ -467,6 +488,152 @@ final class InterpreterTests {
         test(ast, expected, new Scope(null));
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testDeepExpression(String test, String input, Object expected) throws ParseException {
+        Ast.Expression ast = new Parser(new Lexer(input).lex()).parseExpression();
+        new Analyzer(new Scope(null)).visit(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(ast);
+        Assertions.assertEquals(input.replace(" ", "").length(), writer.toString().replace(" ", "").length());
+        test(ast, expected, new Scope(null));
+    }
+
+    private static Stream<Arguments> testDeepExpression() {
+        int depth = 100000;
+        return Stream.of(
+                // (((1 + 1) + 1) + 1)
+                Arguments.of("Left Groups", "(".repeat(depth) + "1" + " + 1)".repeat(depth), BigInteger.valueOf(depth + 1)),
+                // 1 + (1 + (1 + 1))
+                Arguments.of("Right Groups", "1 + (".repeat(depth) + "1 + 1" + ")".repeat(depth), BigInteger.valueOf(depth + 2)),
+                // TRUE && (TRUE && (TRUE && FALSE))
+                Arguments.of("Right Logical", "TRUE && (".repeat(depth) + "TRUE && FALSE" + ")".repeat(depth), false),
+                // 1 + 1 + 1 + 1
+                Arguments.of("Chain", "1" + " + 1".repeat(depth), BigInteger.valueOf(depth + 1))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testCompactArithmetic(String test, String input, Object expected) throws ParseException {
+        test(new Parser(new Lexer(input).lex()).parseExpression(), expected, new Scope(null));
+    }
+
+    private static Stream<Arguments> testCompactArithmetic() {
+        return Stream.of(
+                Arguments.of("Chain", "1 + 2 * 3 - 4 / 2", BigInteger.valueOf(5)),
+                Arguments.of("Truncating Division", "7 / -2", BigInteger.valueOf(-3)),
+                Arguments.of("Comparison", "1 + 1 == 2", true),
+                Arguments.of("Concatenation", "1 + 2 + \"a\"", "3a"),
+                Arguments.of("Power", "2 ^ 3 + 1", BigInteger.valueOf(9)),
+                //results which overflow a long are computed as BigInteger instead
+                Arguments.of("Add Overflow", "9223372036854775807 + 1", new BigInteger("9223372036854775808")),
+                Arguments.of("Multiply Overflow", "3000000000 * 4000000000 * 2", new BigInteger("24000000000000000000")),
+                Arguments.of("Divide Overflow", "(0 - 9223372036854775807 - 1) / -1", new BigInteger("9223372036854775808")),
+                Arguments.of("Division By Zero", "1 / (1 - 1)", null),
+                Arguments.of("Logical Integer", "1 && TRUE", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testDeepBlocks(String test, String input, String generated) throws ParseException {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(ast);
+        Assertions.assertTrue(writer.toString().contains(generated));
+        //the interpreter prints the condition of each IF statement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            test(ast, BigInteger.ONE, new Scope(null));
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static Stream<Arguments> testDeepBlocks() {
+        //the generated code is indented once per level, so its size grows with the square of the depth
+        int depth = 5000;
+        return Stream.of(
+                // IF TRUE DO IF TRUE DO RETURN 1; END END
+                Arguments.of("If", "FUN main(): Integer DO\n    " + "IF TRUE DO ".repeat(depth) + "RETURN 1;" + " END".repeat(depth) + "\nEND",
+                        "if (true) {\n" + "    ".repeat(depth + 2) + "return 1;"),
+                // WHILE TRUE DO WHILE TRUE DO RETURN 1; END END
+                Arguments.of("While", "FUN main(): Integer DO\n    " + "WHILE TRUE DO ".repeat(depth) + "RETURN 1;" + " END".repeat(depth) + "\nEND",
+                        "while (true) {\n" + "    ".repeat(depth + 2) + "return 1;"),
+                // f(f(f(1)))
+                Arguments.of("Calls", "FUN f(a: Integer): Integer DO\n    RETURN 1;\nEND\nFUN main(): Integer DO\n    RETURN " + "f(".repeat(depth) + "1" + ")".repeat(depth) + ";\nEND",
+                        "return " + "f(".repeat(depth) + "1")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testFunctionScope(String test, String input, Object expected) throws ParseException {
+        test(new Parser(new Lexer(input).lex()).parseSource(), expected, new Scope(null));
+    }
+
+    private static Stream<Arguments> testFunctionScope() {
+        return Stream.of(
+                //a call returns to the scope of its caller, which used to be reset to the global scope
+                Arguments.of("Locals After Call", "FUN f() DO\n    RETURN 0;\nEND\nFUN main() DO\n    LET x;\n    x = 1;\n    f();\n    RETURN x;\nEND", BigInteger.ONE),
+                //a function sees the scope it is defined in, no longer the locals of its caller
+                Arguments.of("Caller Locals", "FUN g() DO\n    RETURN y;\nEND\nFUN main() DO\n    LET y;\n    y = 1;\n    RETURN g();\nEND", null),
+                Arguments.of("Globals", "VAR x = 1;\nFUN f() DO\n    x = x + 1;\n    RETURN x;\nEND\nFUN main() DO\n    f();\n    RETURN f();\nEND", BigInteger.valueOf(3)),
+                Arguments.of("Nested Calls", "FUN f(a) DO\n    RETURN a + 1;\nEND\nFUN g(a) DO\n    RETURN f(a + 1) + a;\nEND\nFUN main() DO\n    RETURN g(1);\nEND", BigInteger.valueOf(4))
+        );
+    }
+
+    @Test
+    void testLazyAnalysis() {
+        String input = "VAR x: Integer = 1;\nFUN f(): Integer DO\n    RETURN x * 2;\nEND\nFUN g(): Integer DO\n    RETURN y;\nEND\nFUN main(): Integer DO\n    RETURN f() + 2;\nEND";
+        Ast.Source source = new Parser(new TableLexer(input).lexBuffer()).parseSourceLazily();
+        new Analyzer(new Scope(null)).visit(source);
+        for (Ast.Function function : source.getFunctions()) {
+            Assertions.assertFalse(function.isParsed());
+        }
+        test(source, BigInteger.valueOf(4), new Scope(null));
+        Ast.Function f = source.getFunctions().get(0);
+        Assertions.assertTrue(f.isParsed());
+        Assertions.assertTrue(f.isResolved());
+        Assertions.assertSame(Environment.Type.INTEGER, ((Ast.Statement.Return) f.getStatements().get(0)).getValue().getType());
+        //the body which is never called is not parsed, and its error is only found when it is read
+        Ast.Function g = source.getFunctions().get(1);
+        Assertions.assertFalse(g.isParsed());
+        Assertions.assertThrows(RuntimeException.class, g::getStatements);
+        Assertions.assertFalse(g.isParsed());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testErrorPositions(String test, String input, String analyzer, String interpreter) {
+        Parser parser = new Parser(new TableLexer(input).lexBuffer());
+        Ast.Source source = parser.parseSource();
+        SourceMap map = parser.getSourceMap().get();
+        if (analyzer != null) {
+            SourceException exception = Assertions.assertThrows(SourceException.class, () -> new Analyzer(new Scope(null), map).visit(source));
+            Assertions.assertEquals(analyzer, exception.getMessage());
+        }
+        if (interpreter != null) {
+            SourceException exception = Assertions.assertThrows(SourceException.class, () -> new Interpreter(new Scope(null), map).visit(source));
+            Assertions.assertEquals(interpreter, exception.getMessage());
+        }
+    }
+
+    private static Stream<Arguments> testErrorPositions() {
+        return Stream.of(
+                Arguments.of("Nested Statement", "VAR x: Integer = 1;\nFUN main(): Integer DO\n    IF TRUE DO\n        x = 'c';\n    END\n    RETURN x;\nEND",
+                        "4:9: Type Character is not assignable to Integer", null),
+                Arguments.of("Statement", "FUN main(): Integer DO\n    RETURN 1 / 0;\nEND",
+                        null, "2:5: Division by zero"),
+                //the error is positioned within the function called, not at the call
+                Arguments.of("Called Function", "FUN f() DO\n    WHILE TRUE DO\n        RETURN 1 / 0;\n    END\nEND\nFUN main() DO\n    RETURN f();\nEND",
+                        null, "3:9: Division by zero")
+        );
+    }
+
     private static Scope test(Ast ast, Object expected, Scope scope) {
         Interpreter interpreter = new Interpreter(scope);
         if (expected != null) {
@@ -130,6 +130,22 @@ public class LexerTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testValue(String test, String input, String expected) {
+        Assertions.assertEquals(expected, new Lexer(input).lexToken().getValue());
+    }
+
+    private static Stream<Arguments> testValue() {
+        return Stream.of(
+                Arguments.of("Character", "'c'", "c"),
+                Arguments.of("Escaped Character", "'\\''", "'"),
+                Arguments.of("String", "\"abc\"", "abc"),
+                Arguments.of("Escapes", "\"a\\bb\\nc\\rd\\te\\'f\\\"\"", "a\bb\nc\rd\te'f\""),
+                Arguments.of("Identifier", "abc", "abc")
+        );
+    }
+
     @Test
     void testException() {
         ParseException exception = Assertions.assertThrows(ParseException.class,
@@ -0,0 +1,86 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link ParallelLexer} produces the same tokens (or the same
+ * exception index) as {@link Lexer#lex()}, using tiny chunks so that most
+ * lines are lexed by separate tasks.
+ */
+final class ParallelLexerTests {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @ParameterizedTest
+    @MethodSource
+    void testMatchesLexer(String test, String input) {
+        test(input);
+    }
+
+    private static Stream<Arguments> testMatchesLexer() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Single Line", "LET x = 5;"),
+                Arguments.of("Multiple Lines", "LET x = 5;\nprint(x);\n\nRETURN -0;\n"),
+                Arguments.of("Trailing Decimal", "1.\n2.\n3."),
+                Arguments.of("Newline In String", "\"abc\ndef\""),
+                Arguments.of("Later Exception", "x;\ny;\n'ab'\n\"unterminated"),
+                Arguments.of("Earlier Exception", "x;\n\"unterminated\ny;\n'ab'"),
+                Arguments.of("Carriage Return", "x;\ny;\rz;\nw;"),
+                Arguments.of("Exception After Carriage Return", "x;\r\ny;\n'ab'")
+        );
+    }
+
+    @Test
+    void testRandomInputs() {
+        String alphabet = "abZ09_-.'\"\\ |\n\n\n\t\r\b=!&@;()[],?x5";
+        Random random = new Random(0);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(64);
+            for (int j = 0; j < length; j++) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            test(builder.toString());
+        }
+    }
+
+    @Test
+    void testMappedFile() throws IOException {
+        String input = "LET x = 5;\nprint(\"Hello, World!\");\nRETURN x;\n";
+        Path path = Files.createTempFile("ParallelLexerTests", ".plc");
+        try {
+            Files.writeString(path, input);
+            Assertions.assertEquals(new Lexer(input).lex(), new ParallelLexer(path, POOL, 1).lex());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void test(String input) {
+        Object expected = lex(new Lexer(input)::lex);
+        Assertions.assertEquals(expected, lex(new ParallelLexer(input, POOL, 1)::lex), input);
+        Assertions.assertEquals(expected, lex(new ParallelLexer(input, POOL, 8)::lex), input);
+    }
+
+    private static Object lex(java.util.function.Supplier<List<Token>> lexer) {
+        try {
+            return lexer.get();
+        } catch (ParseException e) {
+            return e.getIndex();
+        }
+    }
+
+}
@@ -85,6 +85,18 @@ final class ParserExpressionTests {
                         Arrays.asList(new Token(Token.Type.DECIMAL, "2.0", 0)),
                         new Ast.Expression.Literal(new BigDecimal("2.0"))
                 ),
+                Arguments.of("Negative Decimal Literal",
+                        Arrays.asList(new Token(Token.Type.DECIMAL, "-0.050", 0)),
+                        new Ast.Expression.Literal(new BigDecimal("-0.050"))
+                ),
+                Arguments.of("Large Integer Literal",
+                        Arrays.asList(new Token(Token.Type.INTEGER, "123456789012345678901234567890", 0)),
+                        new Ast.Expression.Literal(new BigInteger("123456789012345678901234567890"))
+                ),
+                Arguments.of("Large Decimal Literal",
+                        Arrays.asList(new Token(Token.Type.DECIMAL, "-12345678901234567890.5", 0)),
+                        new Ast.Expression.Literal(new BigDecimal("-12345678901234567890.5"))
+                ),
                 Arguments.of("Character Literal",
                         Arrays.asList(new Token(Token.Type.CHARACTER, "'c'", 0)),
                         new Ast.Expression.Literal('c')
@@ -96,6 +108,14 @@ final class ParserExpressionTests {
                 Arguments.of("Escape Character",
                         Arrays.asList(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"", 0)),
                         new Ast.Expression.Literal("Hello,\nWorld!")
+                ),
+                Arguments.of("Escaped Character",
+                        Arrays.asList(new Token(Token.Type.CHARACTER, "'\\n'", 0)),
+                        new Ast.Expression.Literal('\n')
+                ),
+                Arguments.of("Escaped Quotes",
+                        Arrays.asList(new Token(Token.Type.STRING, "\"say \\\"hi\\\"\\b\\r\"", 0)),
+                        new Ast.Expression.Literal("say \"hi\"\b\r")
                 )
         );
     }
@@ -142,6 +162,50 @@ final class ParserExpressionTests {
 
     private static Stream<Arguments> testBinaryExpression() {
         return Stream.of(
+                Arguments.of("Mixed Precedence",
+                        Arrays.asList(
+                                //a || b + c * d < e
+                                new Token(Token.Type.IDENTIFIER, "a", 0),
+                                new Token(Token.Type.OPERATOR, "||", 2),
+                                new Token(Token.Type.IDENTIFIER, "b", 5),
+                                new Token(Token.Type.OPERATOR, "+", 7),
+                                new Token(Token.Type.IDENTIFIER, "c", 9),
+                                new Token(Token.Type.OPERATOR, "*", 11),
+                                new Token(Token.Type.IDENTIFIER, "d", 13),
+                                new Token(Token.Type.OPERATOR, "<", 15),
+                                new Token(Token.Type.IDENTIFIER, "e", 17)
+                        ),
+                        new Ast.Expression.Binary("||",
+                                new Ast.Expression.Access(Optional.empty(), "a"),
+                                new Ast.Expression.Binary("<",
+                                        new Ast.Expression.Binary("+",
+                                                new Ast.Expression.Access(Optional.empty(), "b"),
+                                                new Ast.Expression.Binary("*",
+                                                        new Ast.Expression.Access(Optional.empty(), "c"),
+                                                        new Ast.Expression.Access(Optional.empty(), "d")
+                                                )
+                                        ),
+                                        new Ast.Expression.Access(Optional.empty(), "e")
+                                )
+                        )
+                ),
+                Arguments.of("Left Associative",
+                        Arrays.asList(
+                                //a - b - c
+                                new Token(Token.Type.IDENTIFIER, "a", 0),
+                                new Token(Token.Type.OPERATOR, "-", 2),
+                                new Token(Token.Type.IDENTIFIER, "b", 4),
+                                new Token(Token.Type.OPERATOR, "-", 6),
+                                new Token(Token.Type.IDENTIFIER, "c", 8)
+                        ),
+                        new Ast.Expression.Binary("-",
+                                new Ast.Expression.Binary("-",
+                                        new Ast.Expression.Access(Optional.empty(), "a"),
+                                        new Ast.Expression.Access(Optional.empty(), "b")
+                                ),
+                                new Ast.Expression.Access(Optional.empty(), "c")
+                        )
+                ),
                 Arguments.of("Binary And",
                         Arrays.asList(
                                 //expr1 && expr2
@@ -8,10 +8,13 @@ import org.junit.jupiter.params.provider.MethodSource;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -428,6 +431,86 @@ final class ParserTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testStatementDispatch(String test, String input, Ast.Statement expected) {
+        //statements are dispatched by symbol from both a list of tokens and a token buffer
+        test(new Lexer(input).lex(), expected, Parser::parseStatement);
+        Parser parser = new Parser(new TableLexer(input).lexBuffer());
+        if (expected != null) {
+            Assertions.assertEquals(expected, parser.parseStatement());
+        } else {
+            Assertions.assertThrows(ParseException.class, parser::parseStatement);
+        }
+    }
+
+    private static Stream<Arguments> testStatementDispatch() {
+        Ast.Expression x = new Ast.Expression.Access(Optional.empty(), "x");
+        Ast.Statement y = new Ast.Statement.Expression(new Ast.Expression.Function("y", Arrays.asList()));
+        Ast.Statement z = new Ast.Statement.Expression(new Ast.Expression.Function("z", Arrays.asList()));
+        Ast.Expression one = new Ast.Expression.Literal(BigInteger.ONE);
+        return Stream.of(
+                Arguments.of("Let", "LET x;", new Ast.Statement.Declaration("x", Optional.empty())),
+                Arguments.of("Switch", "SWITCH x CASE 1: y(); y(); CASE 2: z(); DEFAULT y(); END",
+                        new Ast.Statement.Switch(x, Arrays.asList(
+                                new Ast.Statement.Case(Optional.of(one), Arrays.asList(y, y)),
+                                new Ast.Statement.Case(Optional.of(new Ast.Expression.Literal(BigInteger.valueOf(2))), Arrays.asList(z)),
+                                new Ast.Statement.Case(Optional.empty(), Arrays.asList(y))
+                        ))
+                ),
+                Arguments.of("If", "IF x DO y(); ELSE z(); y(); END",
+                        new Ast.Statement.If(x, Arrays.asList(y), Arrays.asList(z, y))
+                ),
+                Arguments.of("While", "WHILE x DO y(); z(); END", new Ast.Statement.While(x, Arrays.asList(y, z))),
+                Arguments.of("Return", "RETURN x;", new Ast.Statement.Return(x)),
+                Arguments.of("Nested Blocks", "IF x DO WHILE x DO y(); END END",
+                        new Ast.Statement.If(x, Arrays.asList(new Ast.Statement.While(x, Arrays.asList(y))), Arrays.asList())
+                ),
+                //a declaration with a value leaves its ';', which then ends the block
+                Arguments.of("Semicolon Ends Block", "IF x DO LET x = 1; ELSE z(); END",
+                        new Ast.Statement.If(x, Arrays.asList(new Ast.Statement.Declaration("x", Optional.of(one))), Arrays.asList(z))
+                ),
+                Arguments.of("Semicolon Ends While", "WHILE x DO LET x = 1; END", null),
+                Arguments.of("Default Ends Case", "SWITCH x CASE 1: y(); DEFAULT z(); END",
+                        new Ast.Statement.Switch(x, Arrays.asList(
+                                new Ast.Statement.Case(Optional.of(one), Arrays.asList(y)),
+                                new Ast.Statement.Case(Optional.empty(), Arrays.asList(z))
+                        ))
+                ),
+                Arguments.of("End Ends Default", "SWITCH x DEFAULT LET x; END",
+                        new Ast.Statement.Switch(x, Arrays.asList(
+                                new Ast.Statement.Case(Optional.empty(), Arrays.asList(new Ast.Statement.Declaration("x", Optional.empty())))
+                        ))
+                ),
+                //keywords which do not start a statement are names in expressions
+                Arguments.of("Keyword Call", "END(1);",
+                        new Ast.Statement.Expression(new Ast.Expression.Function("END", Arrays.asList(one)))
+                ),
+                Arguments.of("Keyword Receiver", "CASE = 1;",
+                        new Ast.Statement.Assignment(new Ast.Expression.Access(Optional.empty(), "CASE"), one)
+                ),
+                Arguments.of("Keyword Access", "DEFAULT;",
+                        new Ast.Statement.Expression(new Ast.Expression.Access(Optional.empty(), "DEFAULT"))
+                ),
+                Arguments.of("Keyword Operands", "x[LET] = ELSE + IF;",
+                        new Ast.Statement.Assignment(
+                                new Ast.Expression.Access(Optional.of(new Ast.Expression.Access(Optional.empty(), "LET")), "x"),
+                                new Ast.Expression.Binary("+", new Ast.Expression.Access(Optional.empty(), "ELSE"), new Ast.Expression.Access(Optional.empty(), "IF"))
+                        )
+                ),
+                Arguments.of("Keyword Arguments", "y(SWITCH, WHILE, RETURN);",
+                        new Ast.Statement.Expression(new Ast.Expression.Function("y", Arrays.asList(
+                                new Ast.Expression.Access(Optional.empty(), "SWITCH"),
+                                new Ast.Expression.Access(Optional.empty(), "WHILE"),
+                                new Ast.Expression.Access(Optional.empty(), "RETURN")
+                        )))
+                ),
+                //a keyword which starts a statement still does so before a '('
+                Arguments.of("Keyword Statement", "WHILE(x);", null),
+                Arguments.of("Grouped Return", "RETURN(x);", new Ast.Statement.Return(new Ast.Expression.Group(x)))
+        );
+    }
+
     @Test
     void testExample1() {
         List<Token> input = Arrays.asList(
@@ -503,6 +586,133 @@ final class ParserTests {
         test(input, expected, Parser::parseSource);
     }
 
+    @Test
+    void testLazySource() {
+        String input = "VAR x: Integer = 1;\nFUN f(): Integer DO\n    IF x > 0 DO\n        WHILE x < 10 DO x = x + 1; END\n    END\n    RETURN x;\nEND\nFUN main(): Integer DO\n    SWITCH x CASE 1: print(x); DEFAULT RETURN f(); END\nEND";
+        Ast.Source lazy = new Parser(new TableLexer(input).lexBuffer()).parseSourceLazily();
+        Assertions.assertEquals(2, lazy.getFunctions().size());
+        Assertions.assertFalse(lazy.getFunctions().get(0).isParsed());
+        Assertions.assertEquals(new Parser(new Lexer(input).lex()).parseSource(), lazy);
+        Assertions.assertTrue(lazy.getFunctions().get(0).isParsed());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testLazyBodies(String test, String input) {
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Ast.Source lazy = new Parser(new TableLexer(input).lexBuffer()).parseSourceLazily();
+        Assertions.assertEquals(expected, lazy);
+    }
+
+    private static Stream<Arguments> testLazyBodies() {
+        return Stream.of(
+                Arguments.of("Else With Own End", "FUN f() DO\n    IF x DO a(); ELSE b(); ; END\nEND\nFUN main() DO\n    RETURN 0;\nEND"),
+                Arguments.of("Else Without End", "FUN f() DO\n    IF x DO a(); ELSE b(); END\nFUN main() DO\n    RETURN 0;\nEND"),
+                Arguments.of("Declaration Ends Block", "FUN f() DO\n    IF x DO LET y = 1; END\nEND"),
+                Arguments.of("Keyword Names", "FUN f() DO\n    x = f(IF, WHILE) + SWITCH[END];\n    RETURN x / ^ 2;\nEND")
+        );
+    }
+
+    @Test
+    void testLazyBodyException() {
+        String input = "FUN f() DO\n    x = ;\nEND\nFUN main() DO\n    RETURN 0;\nEND";
+        Ast.Source lazy = new Parser(new TableLexer(input).lexBuffer()).parseSourceLazily();
+        Assertions.assertEquals(1, lazy.getFunctions().get(1).getStatements().size());
+        Assertions.assertThrows(ParseException.class, lazy.getFunctions().get(0)::getStatements);
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testParallelSource(String test, String input) {
+        Object expected = parse(() -> new Parser(new Lexer(input).lex()).parseSource());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assertions.assertEquals(expected, parse(() -> new Parser(new Lexer(input).lex()).parseSourceInParallel(pool)));
+            Assertions.assertEquals(expected, parse(() -> new Parser(new TableLexer(input).lexBuffer()).parseSourceInParallel(pool)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Stream<Arguments> testParallelSource() {
+        return Stream.of(
+                Arguments.of("Functions", "VAR x: Integer = 1;\nFUN f(): Integer DO\n    IF x > 0 DO\n        WHILE x < 10 DO x = x + 1; END\n    END\n    RETURN x;\nEND\nFUN main(): Integer DO\n    SWITCH x CASE 1: print(x); DEFAULT RETURN f(); END\nEND"),
+                Arguments.of("Earliest Exception", "FUN f() DO\n    RETURN 0;\nEND\nFUN g() DO\n    x = ;\nEND\nFUN h() DO\n    y = ;\nEND"),
+                Arguments.of("Missing End", "FUN f() DO\n    RETURN 0;\nEND\nFUN g() DO\n    RETURN 1;"),
+                Arguments.of("Unmatched Scan", "FUN f() DO\n    IF x DO y; ELSE z; END\nEND\nFUN g() DO\n    RETURN 1;\nEND"),
+                //the scan counts the blocks, and misses the END consumed by the ELSE block
+                Arguments.of("Else With Own End", "FUN f() DO\n    IF x DO a(); ELSE b(); ; END\nEND\nFUN g() DO\n    RETURN 1;\nEND\nFUN h() DO\n    RETURN 2;\nEND"),
+                Arguments.of("Keyword Names", "FUN f() DO\n    x = f(IF, WHILE) + SWITCH[END];\nEND\nFUN g() DO\n    RETURN 1;\nEND"),
+                Arguments.of("Trailing Tokens", "FUN f() DO\n    RETURN 0;\nEND\nx = 1;")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRecoveringSource(String test, String input, List<Integer> indices, String expected) {
+        List<ParseException> diagnostics = new ArrayList<>();
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSourceRecovering(diagnostics);
+        Assertions.assertEquals(indices, diagnostics.stream().map(ParseException::getIndex).collect(Collectors.toList()));
+        Assertions.assertEquals(new Parser(new Lexer(expected).lex()).parseSource(), ast);
+    }
+
+    private static Stream<Arguments> testRecoveringSource() {
+        return Stream.of(
+                Arguments.of("Valid",
+                        "VAR x: Integer = 1;\nFUN f(): Integer DO\n    RETURN x;\nEND",
+                        Arrays.asList(),
+                        "VAR x: Integer = 1;\nFUN f(): Integer DO\n    RETURN x;\nEND"
+                ),
+                Arguments.of("Statements",
+                        "FUN f() DO\n    x = ;\n    y = 1;\n    z = );\nEND\nFUN g() DO\n    RETURN ;\nEND",
+                        Arrays.asList(7, 14, 24),
+                        "FUN f() DO\n    y = 1;\nEND\nFUN g() DO\nEND"
+                ),
+                Arguments.of("Blocks",
+                        "FUN f() DO\n    IF (x DO\n        y = 1;\n    END\n    WHILE x < 10 DO y = ); END\n    RETURN 0;\nEND",
+                        Arrays.asList(6, 21),
+                        "FUN f() DO\n    WHILE x < 10 DO END\n    RETURN 0;\nEND"
+                ),
+                Arguments.of("Globals",
+                        "VAR x = ;\nVAL y: Integer;\nVAR z = 1;\nFUN f() DO\n    RETURN z;\nEND",
+                        Arrays.asList(3, 8),
+                        "VAR z = 1;\nFUN f() DO\n    RETURN z;\nEND"
+                ),
+                Arguments.of("Signature",
+                        "FUN f( DO\n    RETURN 0;\nEND\nFUN g() DO\n    RETURN 1;\nEND",
+                        Arrays.asList(4),
+                        "FUN g() DO\n    RETURN 1;\nEND"
+                ),
+                Arguments.of("Missing End",
+                        "FUN f() DO\n    RETURN 0;\nFUN g() DO\n    x = ;\n",
+                        Arrays.asList(8, 15, 16),
+                        "FUN f() DO\n    RETURN 0;\nEND\nFUN g() DO\nEND"
+                ),
+                Arguments.of("Missing Nested End",
+                        "FUN f() DO\n    x = 1;\n    IF TRUE DO\n        y = 1;\nFUN g() DO\n    RETURN 1;\nEND",
+                        Arrays.asList(16, 16),
+                        "FUN f() DO\n    x = 1;\nEND\nFUN g() DO\n    RETURN 1;\nEND"
+                ),
+                Arguments.of("Trailing Tokens",
+                        "FUN f() DO\n    RETURN 0;\nEND\nx = 1;",
+                        Arrays.asList(9),
+                        "FUN f() DO\n    RETURN 0;\nEND"
+                )
+        );
+    }
+
+    /**
+     * Returns the source, or the index of the {@link ParseException}, so both
+     * outcomes can be compared with a single assertion.
+     */
+    private static Object parse(java.util.function.Supplier<Ast.Source> parser) {
+        try {
+            return parser.get();
+        } catch (ParseException e) {
+            return e.getIndex();
+        }
+    }
+
     /**
      * Standard test function. If expected is null, a ParseException is expected
      * to be thrown (not used in the provided tests).
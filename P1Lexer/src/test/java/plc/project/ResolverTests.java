@@ -0,0 +1,89 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Tests the slots given by {@link Resolver}, and how the {@link Interpreter}
+ * scopes the variables of functions.
+ */
+final class ResolverTests {
+
+    @Test
+    void testSlots() {
+        Ast.Function function = parse("FUN f(a, b) DO\n    LET c;\n    c = a;\n    WHILE c < b DO\n        LET d;\n        d = c;\n        c = d + x;\n    END\n    RETURN c;\nEND").getFunctions().get(0);
+        Resolver.resolve(function);
+        Assertions.assertEquals(4, function.getFrameSize());
+        Assertions.assertEquals(Arrays.asList("x"), function.getGlobalNames());
+        Assertions.assertEquals(2, ((Ast.Statement.Declaration) function.getStatements().get(0)).getSlot());
+        Ast.Statement.While loop = (Ast.Statement.While) function.getStatements().get(2);
+        Assertions.assertEquals(3, ((Ast.Statement.Declaration) loop.getStatements().get(0)).getSlot());
+        Ast.Expression.Binary sum = (Ast.Expression.Binary) ((Ast.Statement.Assignment) loop.getStatements().get(2)).getValue();
+        assertSlot(0, 3, sum.getLeft());
+        assertSlot(1, 0, sum.getRight());
+        assertSlot(0, 2, ((Ast.Statement.Return) function.getStatements().get(3)).getValue());
+    }
+
+    @Test
+    void testBlocks() {
+        Ast.Function function = parse("FUN f() DO\n    LET a;\n    WHILE a DO\n        LET a;\n        a = 1;\n    END\n    WHILE a DO\n        LET b;\n        LET b;\n    END\n    RETURN a;\nEND").getFunctions().get(0);
+        Resolver.resolve(function);
+        Ast.Statement.While first = (Ast.Statement.While) function.getStatements().get(1);
+        Ast.Statement.While second = (Ast.Statement.While) function.getStatements().get(2);
+        assertSlot(0, 0, first.getCondition());
+        Assertions.assertEquals(1, ((Ast.Statement.Declaration) first.getStatements().get(0)).getSlot());
+        assertSlot(0, 1, ((Ast.Statement.Assignment) first.getStatements().get(1)).getReceiver());
+        Assertions.assertEquals(2, ((Ast.Statement.Declaration) second.getStatements().get(0)).getSlot());
+        Assertions.assertEquals(-1, ((Ast.Statement.Declaration) second.getStatements().get(1)).getSlot());
+        assertSlot(0, 0, ((Ast.Statement.Return) function.getStatements().get(3)).getValue());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testInterpret(String test, String input, Object expected) {
+        //functions run with scopes if unresolved and with frames if resolved, with the same results
+        Ast.Source scopes = parse(input);
+        Ast.Source frames = parse(input);
+        frames.getFunctions().forEach(Resolver::resolve);
+        for (Ast.Source source : Arrays.asList(scopes, frames)) {
+            Interpreter interpreter = new Interpreter(new Scope(null));
+            if (expected != null) {
+                Assertions.assertEquals(expected, interpreter.visit(source).getValue());
+            } else {
+                Assertions.assertThrows(RuntimeException.class, () -> interpreter.visit(source));
+            }
+        }
+    }
+
+    private static Stream<Arguments> testInterpret() {
+        return Stream.of(
+                Arguments.of("Globals", "VAR x = 1;\nFUN main() DO\n    x = x + 1;\n    RETURN x;\nEND", BigInteger.valueOf(2)),
+                Arguments.of("Loop", "FUN main() DO\n    LET n;\n    n = 10;\n    LET total;\n    total = 0;\n    WHILE n > 0 DO\n        total = total + n;\n        n = n - 1;\n    END\n    RETURN total;\nEND", BigInteger.valueOf(55)),
+                Arguments.of("Loop Declaration", "FUN main() DO\n    LET n;\n    n = 3;\n    WHILE n > 0 DO\n        LET m;\n        m = n - 1;\n        n = m;\n    END\n    RETURN n;\nEND", BigInteger.ZERO),
+                Arguments.of("Arguments", "FUN add(a, b) DO\n    RETURN a + b;\nEND\nFUN main() DO\n    RETURN add(1, add(2, 3));\nEND", BigInteger.valueOf(6)),
+                Arguments.of("Locals After Call", "FUN f() DO\n    RETURN 0;\nEND\nFUN main() DO\n    LET x;\n    x = 1;\n    f();\n    RETURN x;\nEND", BigInteger.ONE),
+                Arguments.of("Caller Locals", "FUN g() DO\n    RETURN y;\nEND\nFUN main() DO\n    LET y;\n    y = 1;\n    RETURN g();\nEND", null),
+                Arguments.of("Switch Condition", "FUN main() DO\n    LET r;\n    SWITCH 2 CASE 2: r = condition + 1; DEFAULT r = 0; END\n    RETURN r;\nEND", BigInteger.valueOf(3)),
+                Arguments.of("Case Redeclares Condition", "FUN main() DO\n    SWITCH 2 CASE 2: LET condition; DEFAULT print(0); END\n    RETURN 0;\nEND", null),
+                Arguments.of("Redeclared", "FUN main() DO\n    LET x;\n    LET x;\n    RETURN 0;\nEND", null)
+        );
+    }
+
+    private static void assertSlot(int depth, int slot, Ast.Expression expression) {
+        Ast.Expression.Access access = (Ast.Expression.Access) expression;
+        Assertions.assertEquals(depth, access.getDepth());
+        Assertions.assertEquals(slot, access.getSlot());
+    }
+
+    private static Ast.Source parse(String input) {
+        return new Parser(new Lexer(input).lex()).parseSource();
+    }
+
+}
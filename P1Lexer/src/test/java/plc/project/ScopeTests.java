@@ -0,0 +1,40 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests that functions are found by name and arity through the parents of a
+ * {@link Scope}.
+ */
+final class ScopeTests {
+
+    @Test
+    void testLookupFunction() {
+        Scope parent = new Scope(null);
+        parent.defineFunction("f", 2, args -> Environment.create("parent"));
+        Scope scope = new Scope(parent);
+        scope.defineFunction("f", 0, args -> Environment.create("zero"));
+        scope.defineFunction("f", 3, args -> Environment.create("three"));
+        Assertions.assertEquals("zero", scope.lookupFunction("f", 0).invoke(Collections.emptyList()).getValue());
+        Assertions.assertEquals(3, scope.lookupFunction("f", 3).getParameterTypes().size());
+        Assertions.assertEquals(2, scope.lookupFunction("f", 2).getParameterTypes().size());
+        Assertions.assertThrows(RuntimeException.class, () -> scope.lookupFunction("f", 1));
+        Assertions.assertThrows(RuntimeException.class, () -> scope.lookupFunction("f", 4));
+        Assertions.assertThrows(RuntimeException.class, () -> scope.lookupFunction("g", 0));
+    }
+
+    @Test
+    void testDefineFunction() {
+        Scope scope = new Scope(null);
+        scope.defineFunction("f", 1, args -> Environment.NIL);
+        scope.defineFunction("f", 0, args -> Environment.NIL);
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                () -> scope.defineFunction("f", 1, args -> Environment.NIL));
+        Assertions.assertEquals("The function f/1 is already defined in this scope.", exception.getMessage());
+        Assertions.assertTrue(scope.toString().contains("functions=[f/0, f/1]"));
+    }
+
+}
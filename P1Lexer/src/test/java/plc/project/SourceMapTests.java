@@ -0,0 +1,101 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link SourceMap} positions match counting lines and columns
+ * character by character, whether built by {@link TableLexer} or from the
+ * source.
+ */
+final class SourceMapTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testPosition(String test, String input, int offset, String expected) {
+        Assertions.assertEquals(expected, SourceMap.of(input).format(offset));
+        TableLexer lexer = new TableLexer(input);
+        lexer.lex();
+        Assertions.assertEquals(expected, lexer.getSourceMap().format(offset));
+    }
+
+    private static Stream<Arguments> testPosition() {
+        return Stream.of(
+                Arguments.of("Start", "LET x = 5;", 0, "1:1"),
+                Arguments.of("First Line", "LET x = 5;", 4, "1:5"),
+                Arguments.of("Second Line", "LET x = 5;\nprint(x);", 17, "2:7"),
+                Arguments.of("Line Start", "a\nb", 2, "2:1"),
+                Arguments.of("Newline", "a\nb", 1, "1:2"),
+                Arguments.of("Blank Lines", "a\n\n\n  b", 6, "4:3"),
+                Arguments.of("End", "a\n", 2, "2:1")
+        );
+    }
+
+    @Test
+    void testRandomSources() {
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(64);
+            for (int j = 0; j < length; j++) {
+                builder.append("ab \n\n\t;".charAt(random.nextInt(7)));
+            }
+            String input = builder.toString();
+            TableLexer lexer = new TableLexer(input);
+            lexer.lex();
+            SourceMap map = lexer.getSourceMap();
+            int line = 1;
+            int column = 1;
+            for (int offset = 0; offset < input.length(); offset++) {
+                Assertions.assertEquals(line + ":" + column, map.format(offset), input);
+                if (input.charAt(offset) == '\n') {
+                    line++;
+                    column = 1;
+                } else {
+                    column++;
+                }
+            }
+        }
+    }
+
+    @Test
+    void testParserPosition() {
+        String input = "VAR x: Integer = 1;\nFUN main(): Integer DO\n    RETURN x\nEND";
+        Parser parser = new Parser(new TableLexer(input).lexBuffer());
+        ParseException exception = Assertions.assertThrows(ParseException.class, parser::parseSource);
+        Assertions.assertEquals("4:1", parser.getPosition(exception.getIndex()));
+    }
+
+    @Test
+    void testNodeStarts() {
+        String input = "VAR x: Integer = 1;\nFUN main(): Integer DO\n    IF x > 0 DO\n        x = (x + 2) * f(y[1]);\n    END\n    RETURN x;\nEND";
+        List<String> expected = List.of(
+                "Global 1:1", "Literal 1:18", "Function 2:1", "If 3:5", "Binary 3:8", "Access 3:8", "Literal 3:12",
+                "Assignment 4:9", "Access 4:9", "Binary 4:13", "Group 4:13", "Binary 4:14", "Access 4:14", "Literal 4:18",
+                "Function 4:23", "Access 4:25", "Literal 4:27", "Return 6:5", "Access 6:12"
+        );
+        Parser parser = new Parser(new TableLexer(input).lexBuffer());
+        Assertions.assertEquals(expected, starts(parser.parseSource(), parser.getSourceMap().get()));
+        Parser parallel = new Parser(new TableLexer(input).lexBuffer());
+        Assertions.assertEquals(expected, starts(parallel.parseSourceInParallel(), parallel.getSourceMap().get()));
+    }
+
+    private static List<String> starts(Ast.Source source, SourceMap map) {
+        List<String> starts = new ArrayList<>();
+        AstWalker.forEachNode(source, node -> {
+            if (node != source) {
+                starts.add(node.getClass().getSimpleName() + " " + map.format(node.getStart()));
+            }
+        });
+        return starts;
+    }
+
+}
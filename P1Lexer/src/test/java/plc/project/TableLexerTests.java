@@ -0,0 +1,251 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link TableLexer} produces the same tokens (or the same
+ * exception index) as {@link Lexer#lex()}.
+ */
+final class TableLexerTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testMatchesLexer(String test, String input) {
+        test(input);
+    }
+
+    private static Stream<Arguments> testMatchesLexer() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Declaration", "LET x = 5;"),
+                Arguments.of("Print", "print(\"Hello, World!\");"),
+                Arguments.of("Decimals", "1.5 -0.25 0.0"),
+                Arguments.of("Negative Zero", "-0"),
+                Arguments.of("Trailing Decimal", "1. 2"),
+                Arguments.of("Leading Zero", "01"),
+                Arguments.of("Minus Operator", "a - b"),
+                Arguments.of("Characters", "'c' '\\n' '''"),
+                Arguments.of("Escapes", "\"a\\tb\\\"c\""),
+                Arguments.of("Operators", "== != && || ! = & @"),
+                Arguments.of("Carriage Return", "a\rb"),
+                Arguments.of("Unterminated String", "\"unterminated"),
+                Arguments.of("Invalid Escape", "\"invalid\\escape\""),
+                Arguments.of("Invalid Character", "'abc'"),
+                Arguments.of("Empty Character", "''")
+        );
+    }
+
+    @Test
+    void testRandomInputs() {
+        String alphabet = "abZ09_-.'\"\\ |\n\t\r\b=!&@;()[],?x5";
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            test(builder.toString());
+        }
+    }
+
+    @Test
+    void testBuffer() {
+        TokenBuffer buffer = new TableLexer("LET x = \"abc\";").lexBuffer();
+        Assertions.assertEquals(5, buffer.size());
+        Assertions.assertEquals(Token.Type.STRING, buffer.getType(3));
+        Assertions.assertEquals(8, buffer.getIndex(3));
+        Assertions.assertEquals("\"abc\"", buffer.getLiteral(3));
+        Assertions.assertTrue(buffer.literalEquals(0, "LET"));
+        Assertions.assertFalse(buffer.literalEquals(0, "LE"));
+        Assertions.assertEquals(new Token(Token.Type.OPERATOR, ";", 13), buffer.get(4));
+    }
+
+    @Test
+    void testBufferSymbols() {
+        TokenBuffer buffer = new TableLexer("LET x = x + 1;").lexBuffer();
+        Assertions.assertEquals(SymbolTable.LET, buffer.getSymbol(0));
+        Assertions.assertEquals(buffer.getSymbol(1), buffer.getSymbol(3));
+        Assertions.assertEquals("x", buffer.getSymbols().name(buffer.getSymbol(1)));
+        Assertions.assertEquals(SymbolTable.EQUALS, buffer.getSymbol(2));
+        Assertions.assertEquals(SymbolTable.PLUS, buffer.getSymbol(4));
+        Assertions.assertEquals(SymbolTable.NONE, buffer.getSymbol(5));
+    }
+
+    @Test
+    void testTokenSymbols() {
+        List<Token> tokens = new TableLexer("LET x = \"END\" + 1;").lex();
+        Assertions.assertEquals(SymbolTable.LET, tokens.get(0).getSymbol());
+        Assertions.assertEquals(SymbolTable.NONE, tokens.get(1).getSymbol());
+        Assertions.assertEquals(SymbolTable.EQUALS, tokens.get(2).getSymbol());
+        Assertions.assertEquals(SymbolTable.NONE, tokens.get(3).getSymbol());
+        Assertions.assertEquals(SymbolTable.PLUS, tokens.get(4).getSymbol());
+        Assertions.assertEquals(SymbolTable.NONE, tokens.get(5).getSymbol());
+        //tokens created directly look their symbol up when it is first needed
+        Assertions.assertEquals(SymbolTable.WHILE, new Token(Token.Type.IDENTIFIER, "WHILE", 0).getSymbol());
+        Assertions.assertEquals(SymbolTable.NONE, new Token(Token.Type.STRING, "\"WHILE\"", 0).getSymbol());
+    }
+
+    @Test
+    void testParseBuffer() {
+        String input = "VAR x: Integer = 1;\nFUN main(): Integer DO\n    WHILE x > 0 DO x = x - 1; END\n    print(\"Hello, World!\");\n    RETURN 0;\nEND";
+        Assertions.assertEquals(new Parser(new Lexer(input).lex()).parseSource(), new Parser(new TableLexer(input).lexBuffer()).parseSource());
+    }
+
+    @Test
+    void testStreamingException() {
+        Iterator<Token> tokens = new TableLexer(new StringReader("LET x = \"unterminated"), 2).iterator();
+        Assertions.assertEquals(new Token(Token.Type.IDENTIFIER, "LET", 0), tokens.next());
+        Assertions.assertEquals(new Token(Token.Type.IDENTIFIER, "x", 4), tokens.next());
+        Assertions.assertEquals(new Token(Token.Type.OPERATOR, "=", 6), tokens.next());
+        ParseException exception = Assertions.assertThrows(ParseException.class, tokens::hasNext);
+        Assertions.assertEquals(21, exception.getIndex());
+    }
+
+    @Test
+    void testStreamingWhitespace() throws ReflectiveOperationException {
+        String whitespace = " \t|\n".repeat(250000);
+        TableLexer lexer = new TableLexer(new StringReader("x" + whitespace + "y"), 16);
+        Iterator<Token> tokens = lexer.iterator();
+        Assertions.assertEquals(new Token(Token.Type.IDENTIFIER, "x", 0), tokens.next());
+        Assertions.assertEquals(new Token(Token.Type.IDENTIFIER, "y", 1 + whitespace.length()), tokens.next());
+        Assertions.assertFalse(tokens.hasNext());
+        Field chars = TableLexer.class.getDeclaredField("chars");
+        chars.setAccessible(true);
+        Object stream = chars.get(lexer);
+        Field buffer = stream.getClass().getDeclaredField("buffer");
+        buffer.setAccessible(true);
+        Assertions.assertEquals(16, ((char[]) buffer.get(stream)).length);
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testMappedFile(String test, String input) throws IOException {
+        Path path = Files.createTempFile("TableLexerTests", ".plc");
+        try {
+            Files.writeString(path, input);
+            Assertions.assertEquals(new Lexer(input).lex(), new TableLexer(path).lex());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static Stream<Arguments> testMappedFile() {
+        return Stream.of(
+                Arguments.of("Ascii", "LET x = 5;\nprint(\"Hello, World!\");"),
+                Arguments.of("Non-Ascii", "LET caf\u00E9 = 'x';")
+        );
+    }
+
+    @Test
+    void testMappedCorpus() throws IOException {
+        String[] tokens = {
+                "LET", "x", "identifier_with-dashes", "12345678901234567890", "0", "-0",
+                "3.14159265358979", "1.", "'c'", "'\\n'", "\"Hello, World!\"", "==", "&&",
+                "(", ")", ";", " ", "        ", "\t\t", "|", "\n", "\n\n\n\n"
+        };
+        Random random = new Random(0);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 200000) {
+            builder.append(tokens[random.nextInt(tokens.length)]);
+            builder.append(random.nextBoolean() ? " " : "\n");
+        }
+        String input = builder.toString();
+        Path path = Files.createTempFile("TableLexerTests", ".plc");
+        try {
+            Files.writeString(path, input);
+            Assertions.assertEquals(new Lexer(input).lex(), new TableLexer(path).lex());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testMappedScanning() throws IOException {
+        String alphabet = "azAZ09_-  \t\n|\b\r@`[{/:.";
+        Random random = new Random(0);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 4096; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            for (int run = random.nextInt(4) == 0 ? random.nextInt(20) : 0; run > 0; run--) {
+                builder.append(builder.charAt(builder.length() - 1));
+            }
+        }
+        String input = builder.toString();
+        Path path = Files.createTempFile("TableLexerTests", ".plc");
+        try {
+            Files.writeString(path, input);
+            TableLexer.CharStream mapped = TableLexer.map(path);
+            TableLexer.CharStream scalar = new TableLexer.StringStream(input);
+            for (int i = 0; i <= input.length(); i++) {
+                Assertions.assertEquals(scalar.skipWhitespace(i), mapped.skipWhitespace(i), "whitespace at " + i);
+                Assertions.assertEquals(scalar.skipIdentifier(i), mapped.skipIdentifier(i), "identifier at " + i);
+                Assertions.assertEquals(scalar.skipDigits(i), mapped.skipDigits(i), "digits at " + i);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testValues() {
+        String input = "'c' '\\n' \"plain\" \"a\\tb\\\"c\" x";
+        List<String> expected = List.of("c", "\n", "plain", "a\tb\"c", "x");
+        Assertions.assertEquals(expected, values(new Lexer(input).lex()));
+        Assertions.assertEquals(expected, values(new TableLexer(input).lex()));
+        Assertions.assertEquals(expected, values(new TableLexer(new StringReader(input), 1).lex()));
+        TokenBuffer buffer = new TableLexer(input).lexBuffer();
+        for (int i = 0; i < buffer.size(); i++) {
+            Assertions.assertEquals(expected.get(i), buffer.getValue(i));
+            Assertions.assertEquals(expected.get(i), buffer.get(i).getValue());
+        }
+    }
+
+    private static List<String> values(List<Token> tokens) {
+        List<String> values = new ArrayList<>();
+        for (Token token : tokens) {
+            values.add(token.getValue());
+        }
+        return values;
+    }
+
+    private static void test(String input) {
+        Object expected = lex(new Lexer(input)::lex);
+        Assertions.assertEquals(expected, lex(new TableLexer(input)::lex), input);
+        Assertions.assertEquals(expected, lex(() -> new TableLexer(input).lexBuffer().asList()), input);
+        Assertions.assertEquals(expected, lex(new TableLexer(new StringReader(input), 1)::lex), input);
+        Assertions.assertEquals(expected, lex(() -> {
+            List<Token> tokens = new ArrayList<>();
+            new TableLexer(new StringReader(input), 4).iterator().forEachRemaining(tokens::add);
+            return tokens;
+        }), input);
+    }
+
+    /**
+     * Returns the tokens, or the index of the {@link ParseException}, so both
+     * outcomes can be compared with a single assertion.
+     */
+    private static Object lex(java.util.function.Supplier<List<Token>> lexer) {
+        try {
+            return lexer.get();
+        } catch (ParseException e) {
+            return e.getIndex();
+        }
+    }
+
+}